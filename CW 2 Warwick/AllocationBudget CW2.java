@@ -0,0 +1,214 @@
+/**
+ * Allocation Budget Preamble
+ *
+ * A controller that allocates on every poll makes the garbage collector run in the middle of a robot's moves,
+ * which shows up as latency spikes when many robots are driven at once. This check runs controllers headless on
+ * LocalRobot and measures the heap bytes the polling thread allocates inside controlRobot, using the JVM's
+ * per-thread allocation counter (com.sun.management.ThreadMXBean). Only steady-state controlRobot calls are
+ * measured, i.e. the polls of repeat runs. Not measured: the harness itself, the end-of-run reset, the first run
+ * of each maze (where controllers build their state for the maze, such as junction logs), the first poll of each
+ * run (where controllers read where the run starts and where its target is: code that runs once a run is too
+ * cold for the JIT to inline getLocation and getTargetLocation, so their Points are allocated) and the warm-up polls,
+ * which run before the JIT has compiled the controller (until then escape analysis cannot remove short-lived
+ * objects such as the Points returned by getLocation). Neither are the first polls of each controller: LocalRobot
+ * calls a controller through method handles made for it, and after 127 calls the JVM customizes a handle, which
+ * spins a class on the polling thread. That is the harness, but it lands in a repeat run when the first run is
+ * short (a route replayed from the cache).
+ *
+ * Allocation that grows the controller's own state is not garbage: a junction log that reaches a new size in a
+ * repeat run needs a new block. So for controllers with memory accounting (see MemoryFootprint) the growth of
+ * their retained bytes over each run is taken off the bytes allocated in that run.
+ *
+ * Each controller is polled over seeded mazes until enough polls are measured, and the check fails (exit code 1)
+ * if any controller made more garbage than the budget. The budget is a total for all measured polls: it leaves
+ * room for the odd recompilation, when a method runs in the interpreter for a moment, but not for garbage made
+ * on every poll. A run that never reaches the target would only pad the measured polls with the polls of one
+ * path, so it also fails the check, and measuring that controller stops there.
+ *
+ * GrandFinale takes different paths through controlRobot in each of its modes, so by default it is measured in
+ * every mode. A controller written name:mode is created with that mode's system properties set (see MODES), e.g.
+ * GrandFinale:tremaux is GrandFinale with -Dgrandfinale.explorer=tremaux.
+ *
+ * The CW1 walkers are not measured. Their classes share the names Ex1 to Ex3 with CW2's in the default package,
+ * so they cannot be loaded next to LocalRobot's controllers, and they print a line for many of their moves, for
+ * which System.out allocates inside the JDK whatever the controller does.
+ *
+ * Usage: java AllocationBudget [polls] [budgetBytes] [controller[:mode] ...]
+ *   defaults: 1000000 polls, 65536 bytes, Ex1 Ex2 Ex3 GrandFinale and GrandFinale in every mode of MODES
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Checks that controllers poll without allocating.
+ */
+public class AllocationBudget {
+    private static final int WARMUP_POLLS = 200_000; // Polls before measuring, so the controller is compiled
+    private static final int MAZE_SIZE = 101;
+    private static final int RUNS = 5; // Runs of each maze, the first is not measured
+    private static final int HANDLE_POLLS = 128; // Polls of each controller before its method handles are customized
+    private static final long MAX_STEPS = 1_000_000; // Step budget of one run
+    private static final Map<String, String[]> MODES = new LinkedHashMap<>(); // Mode name -> property, value, ...
+
+    static {
+        MODES.put("field", new String[]{"grandfinale.field", "true"});
+        MODES.put("async", new String[]{"grandfinale.field", "true", "grandfinale.async", "true"});
+        MODES.put("tremaux", new String[]{"grandfinale.explorer", "tremaux"});
+        MODES.put("shortcuts", new String[]{"grandfinale.shortcuts", "true"});
+        MODES.put("waypoints", new String[]{"grandfinale.waypoints", "1,1;99,99;51,51"});
+    }
+
+    private final com.sun.management.ThreadMXBean threads;
+
+    public AllocationBudget() {
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            throw new IllegalStateException("This JVM does not count allocated bytes per thread");
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    public static void main(String[] args) {
+        long polls = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        long budget = args.length > 1 ? Long.parseLong(args[1]) : 65_536;
+        String[] controllers = args.length > 2 ? java.util.Arrays.copyOfRange(args, 2, args.length) : defaults();
+
+        AllocationBudget check = new AllocationBudget();
+        boolean passed = true;
+        for (String name : controllers) {
+            long[] result = check.measure(controllers(name), polls);
+            boolean ok = result[0] <= budget && result[2] == 0;
+            passed &= ok;
+            System.out.printf("%-22s %10d bytes in %d polls (%.3f bytes/poll) %s%n", name, result[0], result[1],
+                    (double) result[0] / result[1], result[2] != 0 ? "UNFINISHED (maze " + result[2] + ")"
+                            : ok ? "ok" : "OVER BUDGET");
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * The controllers checked when none are given: Ex1 to Ex3, GrandFinale and GrandFinale in every mode.
+     */
+    private static String[] defaults() {
+        String[] names = new String[4 + MODES.size()];
+        names[0] = "Ex1";
+        names[1] = "Ex2";
+        names[2] = "Ex3";
+        names[3] = "GrandFinale";
+        int i = 4;
+        for (String mode : MODES.keySet()) {
+            names[i++] = "GrandFinale:" + mode;
+        }
+        return names;
+    }
+
+    /**
+     * Creates the sessions of a controller written name or name:mode. The mode's system properties are set only
+     * while the controller is created, as GrandFinale reads them in its constructor.
+     */
+    private static Supplier<LocalRobot.Controller> controllers(String spec) {
+        int colon = spec.indexOf(':');
+        if (colon == -1) return LocalRobot.Controller.byName(spec);
+        String[] properties = MODES.get(spec.substring(colon + 1));
+        if (properties == null) {
+            throw new IllegalArgumentException("Unknown mode in " + spec + ", one of " + MODES.keySet());
+        }
+        for (int i = 0; i < properties.length; i += 2) {
+            System.setProperty(properties[i], properties[i + 1]);
+        }
+        try {
+            return LocalRobot.Controller.byName(spec.substring(0, colon));
+        } finally {
+            for (int i = 0; i < properties.length; i += 2) {
+                System.clearProperty(properties[i]);
+            }
+        }
+    }
+
+    /**
+     * Heap bytes allocated inside controlRobot over at least the given number of steady-state polls of runs that
+     * reached the target.
+     * return : {bytes, polls measured, seed of the maze with a run that never reached the target or 0}.
+     */
+    public long[] measure(Supplier<LocalRobot.Controller> controllers, long polls) {
+        Meter meter = new Meter();
+        boolean warm = false;
+        for (long seed = 1; !warm || meter.measured < polls; seed++) {
+            if (!warm && meter.polls >= WARMUP_POLLS) {
+                meter.bytes = 0; // The warm-up polls went through the same code, so nothing is recompiled now
+                meter.measured = 0;
+                warm = true;
+            }
+            LocalRobot robot = new LocalRobot(LocalMaze.generate(MAZE_SIZE, MAZE_SIZE, seed, seed % 2 == 0 ? 0 : 0.2));
+            meter.start(controllers.get());
+            for (int run = 0; run < RUNS && (!warm || meter.measured < polls); run++) {
+                if (robot.run(meter, 1, MAX_STEPS)[0] < 0) {
+                    return new long[]{meter.bytes, meter.measured, seed}; // Stopped by the step budget
+                }
+                meter.commit();
+            }
+        }
+        return new long[]{meter.bytes, meter.measured, 0};
+    }
+
+    /**
+     * Wraps a controller and adds up the bytes its controlRobot calls allocate.
+     */
+    private class Meter implements LocalRobot.Controller {
+        private LocalRobot.Controller controller;
+        private long polls = 0; // Polls made, measured or not
+        private long measured = 0; // Polls of repeat runs that reached the target
+        private long bytes = 0; // Garbage allocated in those polls
+        private long runBytes = 0; // Bytes allocated in the measured polls of the current run
+        private long runPolls = 0; // Measured polls of the current run
+        private long runGarbage = 0; // Garbage of the last finished run, until commit
+        private long retained = 0; // Retained bytes of the controller's state when the run started
+        private long controllerPolls = 0; // Polls of the current controller, measured or not
+
+        void start(LocalRobot.Controller controller) {
+            this.controller = controller;
+            controllerPolls = 0;
+            retained = retainedBytes();
+        }
+
+        @Override
+        public void controlRobot(IRobot robot) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            controller.controlRobot(robot);
+            long after = threads.getCurrentThreadAllocatedBytes();
+            polls++;
+            if (++controllerPolls > HANDLE_POLLS && robot.getRuns() > 0 && robot.getSteps() > 0) {
+                runBytes += after - before;
+                runPolls++;
+            }
+        }
+
+        @Override
+        public void reset() {
+            long grown = retainedBytes() - retained;
+            runGarbage = Math.max(0, runBytes - Math.max(0, grown));
+            runBytes = 0;
+            controller.reset();
+            retained = retainedBytes();
+        }
+
+        /**
+         * Counts the last run, once it is known to have reached the target.
+         */
+        void commit() {
+            bytes += runGarbage;
+            measured += runPolls;
+            runGarbage = 0;
+            runPolls = 0;
+        }
+
+        private long retainedBytes() {
+            MemoryFootprint footprint = controller.memoryFootprint();
+            return footprint == null ? 0 : footprint.getTotalBytes();
+        }
+    }
+}
@@ -0,0 +1,621 @@
+/**
+ * Cluster Planner Preamble
+ *
+ * Even a linear-time search is too slow on a learned map of 100M squares when routes are planned again and again
+ * (new targets, walls that change). ClusterPlanner plans on a much smaller abstract graph instead, in the style of
+ * hierarchical path-finding (HPA*):
+ *
+ * **Clusters:** The map is cut into square clusters of clusterSize x clusterSize squares. Where two neighbouring
+ * clusters share a run of open squares on both sides of their border, that run is an entrance: a run shorter than
+ * WIDE_ENTRANCE gets one door in its middle, a longer one a door at each end. The squares either side of a door
+ * are nodes of the abstract graph, joined by an edge of cost 1. Inside each cluster, a breadth-first search from
+ * every node gives the distances to the cluster's other nodes without leaving the cluster.
+ *
+ * **Incremental updates:** The planner listens to the map. A square that changes marks its cluster dirty, and
+ * also the neighbouring cluster if the square is on their border. Before the next route, only the doors around
+ * dirty clusters are found again and only the distances of clusters whose doors may have changed are recomputed.
+ * If the map grows, everything is rebuilt once. The square a route must avoid (usually the target) is hidden by
+ * the planner itself, not written into the shared map, so other listeners never see it; the clusters around it are
+ * rebuilt the same way, and only when the avoided square changes.
+ *
+ * **Queries:** The start and goal are linked to the nodes of their own clusters with a search inside each cluster,
+ * then A* runs on the abstract graph. Only the hops of the chosen abstract route are turned into headings, each with
+ * a search inside one cluster, and distances() never refines at all. Routes are not always shortest: they pass
+ * through doors, which typically adds a few percent to the length (see the benchmark).
+ *
+ * Usage (benchmark against breadth-first search on a random room map):
+ *   java ClusterPlanner size rooms routes changes seed [clusterSize]
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Hierarchical route planning over clusters of a learned map.
+ */
+public class ClusterPlanner implements RoutePlanner, LearnedMap.Listener {
+    public static final int DEFAULT_CLUSTER_SIZE = 64;
+    public static final int WIDE_ENTRANCE = 6; // Entrances at least this wide get two doors
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+    private static final int LOCAL_BITS = 10; // Node reference: cluster number << LOCAL_BITS | node in the cluster
+
+    private final int clusterSize;
+    private LearnedMap map; // The map the clusters are built on, null until the first route
+    private int width, height; // Size of the map when the clusters were built
+    private int clustersPerRow, clusterRows;
+    private Cluster[] clusters = new Cluster[0];
+    private boolean[] dirty = new boolean[0];
+    private int[] dirtyList = new int[16];
+    private int dirtyCount = 0;
+    private boolean rebuildAll = true;
+    private int blockedX = -1, blockedY = -1; // The square hidden from the clusters, -1 for none
+
+    // Search scratch memory, reused between routes
+    private final int[] localDistance; // Distance per square of one cluster
+    private final int[] localParent; // Heading + 1 into each square of one cluster, 0 = not seen
+    private final int[] localQueue;
+    private int generation = 0;
+    private long[] heap = new long[64]; // Open list: f cost in the high half, node reference in the low half
+    private int heapSize;
+    private int[] goalDistance = new int[0]; // Distance from each node of the goal cluster to the goal
+    private int[] chain = new int[16]; // Node references of the last abstract route, start side first
+    private int chainLength;
+
+    /**
+     * Nodes, doors and internal distances of one cluster.
+     */
+    private static final class Cluster {
+        int[] eastDoors = new int[0]; // Rows (within the cluster) of doors to the east neighbour
+        int[] southDoors = new int[0]; // Columns (within the cluster) of doors to the south neighbour
+        int[] nodes = new int[0]; // Node squares as ly * clusterSize + lx, sorted
+        int[] distance = new int[0]; // nodes.length x nodes.length, UNREACHABLE inside the cluster
+
+        int stamp; // Search generation the arrays below belong to
+        int[] g = new int[0];
+        int[] parent = new int[0]; // Node reference of the previous node, -1 for the start
+        boolean[] closed = new boolean[0];
+    }
+
+    public ClusterPlanner() {
+        this(DEFAULT_CLUSTER_SIZE);
+    }
+
+    /**
+     * clusterSize : Width and height of a cluster, 8 to 256 squares.
+     */
+    public ClusterPlanner(int clusterSize) {
+        if (clusterSize < 8 || clusterSize > 256) throw new IllegalArgumentException("Cluster size " + clusterSize);
+        this.clusterSize = clusterSize;
+        this.localDistance = new int[clusterSize * clusterSize];
+        this.localParent = new int[clusterSize * clusterSize];
+        this.localQueue = new int[clusterSize * clusterSize];
+    }
+
+    @Override
+    public void changed(int x, int y) {
+        if (rebuildAll || x >= width || y >= height) {
+            rebuildAll = true; // The map grew, or nothing is built yet
+            return;
+        }
+        int cx = x / clusterSize;
+        int cy = y / clusterSize;
+        markDirty(cx, cy);
+        // A border square also changes the doors, and so the nodes, of the cluster across the border
+        if (x % clusterSize == 0 && cx > 0) markDirty(cx - 1, cy);
+        if (x % clusterSize == clusterSize - 1 && cx + 1 < clustersPerRow) markDirty(cx + 1, cy);
+        if (y % clusterSize == 0 && cy > 0) markDirty(cx, cy - 1);
+        if (y % clusterSize == clusterSize - 1 && cy + 1 < clusterRows) markDirty(cx, cy + 1);
+    }
+
+    @Override
+    public int[] route(LearnedMap map, int fromX, int fromY, int toX, int toY, int avoidX, int avoidY) {
+        if (!map.isOpen(fromX, fromY) || !map.isOpen(toX, toY)) return null;
+        boolean avoid = hides(map, avoidX, avoidY, fromX, fromY, toX, toY);
+        block(avoid ? avoidX : -1, avoid ? avoidY : -1);
+        prepare(map);
+        int length = search(fromX, fromY, toX, toY);
+        return length == UNREACHABLE ? null : refine(fromX, fromY, toX, toY, length);
+    }
+
+    /**
+     * Route lengths from the abstract graph alone: no route is refined into headings.
+     * The avoided square stays hidden for the whole table, except for pairs that end on it.
+     */
+    @Override
+    public int[][] distances(LearnedMap map, Point[] points, int avoidX, int avoidY) {
+        int[][] distance = new int[points.length][points.length];
+        boolean hidden = map.isOpen(avoidX, avoidY);
+        for (int i = 0; i < points.length; i++) {
+            for (int j = 0; j < points.length; j++) {
+                Point from = points[i];
+                Point to = points[j];
+                boolean end = (from.x == avoidX && from.y == avoidY) || (to.x == avoidX && to.y == avoidY);
+                boolean avoid = hidden && !end;
+                int d = UNREACHABLE;
+                if (i == j) {
+                    d = 0;
+                } else if (map.isOpen(from.x, from.y) && map.isOpen(to.x, to.y)) {
+                    block(avoid ? avoidX : -1, avoid ? avoidY : -1);
+                    prepare(map);
+                    d = search(from.x, from.y, to.x, to.y);
+                }
+                distance[i][j] = d == UNREACHABLE ? TourPlanner.UNREACHABLE : d;
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * True if the avoided square must be hidden while one route is planned: it is open and not an end of the route.
+     */
+    private static boolean hides(LearnedMap map, int avoidX, int avoidY, int fromX, int fromY, int toX, int toY) {
+        return map.isOpen(avoidX, avoidY) && (avoidX != fromX || avoidY != fromY) && (avoidX != toX || avoidY != toY);
+    }
+
+    /**
+     * Hides a square from the clusters, or none with (-1, -1), leaving the map itself unchanged. Only the clusters
+     * around the old and the new square are rebuilt (by the next prepare), and only if the square changes.
+     */
+    private void block(int x, int y) {
+        if (x == blockedX && y == blockedY) return;
+        if (blockedX >= 0) changed(blockedX, blockedY);
+        blockedX = x;
+        blockedY = y;
+        if (x >= 0) changed(x, y);
+    }
+
+    /**
+     * True if a square is OPEN on the map and is not the hidden square.
+     */
+    private boolean open(int x, int y) {
+        return map.isOpen(x, y) && (x != blockedX || y != blockedY);
+    }
+
+    /**
+     * Heap bytes of the clusters (doors, nodes, distances and search arrays) and the scratch memory.
+     */
+    @Override
+    public long retainedBytes() {
+        long bytes = MemoryFootprint.object(10 * MemoryFootprint.REFERENCE + 11 * 4 + 1)
+                + MemoryFootprint.array(clusters.length, MemoryFootprint.REFERENCE)
+                + MemoryFootprint.array(dirty.length, 1)
+                + MemoryFootprint.array(dirtyList.length, 4) + 3 * MemoryFootprint.array(localDistance.length, 4)
+                + MemoryFootprint.array(heap.length, 8) + MemoryFootprint.array(goalDistance.length, 4)
+                + MemoryFootprint.array(chain.length, 4);
+        for (Cluster cluster : clusters) {
+            bytes += MemoryFootprint.object(7 * MemoryFootprint.REFERENCE + 4)
+                    + MemoryFootprint.array(cluster.eastDoors.length, 4)
+                    + MemoryFootprint.array(cluster.southDoors.length, 4)
+                    + MemoryFootprint.array(cluster.nodes.length, 4) + MemoryFootprint.array(cluster.distance.length, 4)
+                    + 2 * MemoryFootprint.array(cluster.g.length, 4) + MemoryFootprint.array(cluster.closed.length, 1);
+        }
+        return bytes;
+    }
+
+    /**
+     * Number of abstract nodes, e.g. to compare with the number of squares.
+     */
+    public int nodeCount() {
+        int count = 0;
+        for (Cluster cluster : clusters) {
+            count += cluster.nodes.length;
+        }
+        return count;
+    }
+
+    /**
+     * Brings the clusters up to date with the map.
+     */
+    private void prepare(LearnedMap map) {
+        if (map != this.map) {
+            if (this.map != null) this.map.removeListener(this);
+            map.addListener(this);
+            this.map = map;
+            rebuildAll = true;
+        }
+        if (map.getWidth() != width || map.getHeight() != height) rebuildAll = true; // Grown by an UNKNOWN square
+        if (rebuildAll) {
+            width = map.getWidth();
+            height = map.getHeight();
+            clustersPerRow = (width + clusterSize - 1) / clusterSize;
+            clusterRows = (height + clusterSize - 1) / clusterSize;
+            clusters = new Cluster[clustersPerRow * clusterRows];
+            for (int c = 0; c < clusters.length; c++) {
+                clusters[c] = new Cluster();
+                clusters[c].stamp = -1;
+            }
+            for (int c = 0; c < clusters.length; c++) {
+                findDoors(c);
+            }
+            for (int c = 0; c < clusters.length; c++) {
+                buildNodes(c);
+            }
+            dirty = new boolean[clusters.length];
+            dirtyCount = 0;
+            rebuildAll = false;
+            return;
+        }
+        if (dirtyCount == 0) return;
+        for (int i = 0; i < dirtyCount; i++) {
+            int c = dirtyList[i];
+            findDoors(c);
+            int cx = c % clustersPerRow;
+            int cy = c / clustersPerRow;
+            if (cx > 0) findDoors(c - 1); // Its east doors are this cluster's west doors
+            if (cy > 0) findDoors(c - clustersPerRow);
+        }
+        for (int i = 0; i < dirtyCount; i++) { // Changes reach neighbours through the border squares they share
+            buildNodes(dirtyList[i]);
+            dirty[dirtyList[i]] = false;
+        }
+        dirtyCount = 0;
+    }
+
+    private void markDirty(int cx, int cy) {
+        int c = cy * clustersPerRow + cx;
+        if (dirty[c]) return;
+        dirty[c] = true;
+        if (dirtyCount == dirtyList.length) dirtyList = Arrays.copyOf(dirtyList, dirtyCount * 2);
+        dirtyList[dirtyCount++] = c;
+    }
+
+    /**
+     * Finds the doors on the east and south borders of a cluster.
+     */
+    private void findDoors(int c) {
+        Cluster cluster = clusters[c];
+        int left = (c % clustersPerRow) * clusterSize;
+        int top = (c / clustersPerRow) * clusterSize;
+        cluster.eastDoors = doors(left + clusterSize - 1, top, 0, 1, 1, 0);
+        cluster.southDoors = doors(left, top + clusterSize - 1, 1, 0, 0, 1);
+    }
+
+    /**
+     * Doors along one border, walking from (x, y) in steps of (sx, sy) with the other side at (+ox, +oy).
+     * return : The offsets along the border of the doors.
+     */
+    private int[] doors(int x, int y, int sx, int sy, int ox, int oy) {
+        if (x + ox >= width || y + oy >= height) return new int[0];
+        int[] found = new int[clusterSize];
+        int count = 0;
+        int run = -1; // Offset where the current entrance started
+        for (int i = 0; i <= clusterSize; i++) {
+            int bx = x + i * sx;
+            int by = y + i * sy;
+            boolean open = i < clusterSize && open(bx, by) && open(bx + ox, by + oy);
+            if (open && run < 0) run = i;
+            if (!open && run >= 0) {
+                int end = i - 1;
+                if (end - run + 1 < WIDE_ENTRANCE) {
+                    found[count++] = (run + end) / 2;
+                } else {
+                    found[count++] = run;
+                    found[count++] = end;
+                }
+                run = -1;
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Collects the nodes of a cluster from the doors on its four borders and finds the distances between them.
+     */
+    private void buildNodes(int c) {
+        Cluster cluster = clusters[c];
+        int cx = c % clustersPerRow;
+        int cy = c / clustersPerRow;
+        int last = clusterSize - 1;
+        int[] nodes = new int[4 * clusterSize];
+        int count = 0;
+        for (int ly : cluster.eastDoors) nodes[count++] = ly * clusterSize + last;
+        for (int lx : cluster.southDoors) nodes[count++] = last * clusterSize + lx;
+        if (cx > 0) {
+            for (int ly : clusters[c - 1].eastDoors) nodes[count++] = ly * clusterSize;
+        }
+        if (cy > 0) {
+            for (int lx : clusters[c - clustersPerRow].southDoors) nodes[count++] = lx;
+        }
+        Arrays.sort(nodes, 0, count);
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (unique == 0 || nodes[unique - 1] != nodes[i]) nodes[unique++] = nodes[i];
+        }
+        cluster.nodes = Arrays.copyOf(nodes, unique);
+        cluster.distance = new int[unique * unique];
+        int left = cx * clusterSize;
+        int top = cy * clusterSize;
+        for (int i = 0; i < unique; i++) {
+            localSearch(c, left + cluster.nodes[i] % clusterSize, top + cluster.nodes[i] / clusterSize, -1);
+            for (int j = 0; j < unique; j++) {
+                cluster.distance[i * unique + j] = localDistance[cluster.nodes[j]];
+            }
+        }
+        cluster.stamp = -1;
+    }
+
+    /**
+     * Breadth-first search from (x, y) that stays inside cluster c, filling localDistance and localParent.
+     * stopAt : Local square to stop at once reached, or -1 to search the whole cluster.
+     */
+    private void localSearch(int c, int x, int y, int stopAt) {
+        int left = (c % clustersPerRow) * clusterSize;
+        int top = (c / clustersPerRow) * clusterSize;
+        Arrays.fill(localDistance, UNREACHABLE);
+        Arrays.fill(localParent, 0);
+        int head = 0;
+        int tail = 0;
+        int start = (y - top) * clusterSize + (x - left);
+        localDistance[start] = 0;
+        localQueue[tail++] = start;
+        while (head < tail) {
+            int cell = localQueue[head++];
+            if (cell == stopAt) return;
+            int lx = cell % clusterSize;
+            int ly = cell / clusterSize;
+            for (int h = 0; h < 4; h++) {
+                int nx = lx + LearnedMap.DX[h];
+                int ny = ly + LearnedMap.DY[h];
+                if (nx < 0 || ny < 0 || nx >= clusterSize || ny >= clusterSize) continue;
+                int next = ny * clusterSize + nx;
+                if (localDistance[next] == UNREACHABLE && open(left + nx, top + ny)) {
+                    localDistance[next] = localDistance[cell] + 1;
+                    localParent[next] = h + 1;
+                    localQueue[tail++] = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * A* over the abstract graph, with the start and goal linked to the nodes of their clusters.
+     * return : The length of the route, or UNREACHABLE. The nodes on it are left in chain.
+     */
+    private int search(int fromX, int fromY, int toX, int toY) {
+        int startCluster = clusterOf(fromX, fromY);
+        int goalCluster = clusterOf(toX, toY);
+        if (++generation == Integer.MAX_VALUE) {
+            for (Cluster cluster : clusters) {
+                cluster.stamp = -1;
+            }
+            generation = 0;
+        }
+        heapSize = 0;
+        chainLength = 0;
+
+        Cluster goalSide = clusters[goalCluster];
+        localSearch(goalCluster, toX, toY, -1);
+        if (goalDistance.length < goalSide.nodes.length) goalDistance = new int[goalSide.nodes.length];
+        for (int i = 0; i < goalSide.nodes.length; i++) {
+            goalDistance[i] = localDistance[goalSide.nodes[i]];
+        }
+        int best = UNREACHABLE;
+        int bestNode = -1; // Last node before the goal, -1 for a route inside one cluster
+        if (startCluster == goalCluster) {
+            best = localDistance[localIndex(fromX, fromY)];
+        }
+
+        Cluster startSide = clusters[startCluster];
+        localSearch(startCluster, fromX, fromY, -1);
+        for (int i = 0; i < startSide.nodes.length; i++) {
+            int d = localDistance[startSide.nodes[i]];
+            if (d != UNREACHABLE) reach(startCluster, i, d, -1, toX, toY);
+        }
+
+        while (heapSize > 0) {
+            long entry = pop();
+            if ((int) (entry >>> 32) >= best) break; // Nothing left can beat the best route found
+            int ref = (int) entry;
+            int c = ref >>> LOCAL_BITS;
+            int i = ref & ((1 << LOCAL_BITS) - 1);
+            Cluster cluster = clusters[c];
+            if (cluster.closed[i]) continue;
+            cluster.closed[i] = true;
+            int g = cluster.g[i];
+            if (c == goalCluster && goalDistance[i] != UNREACHABLE && g + goalDistance[i] < best) {
+                best = g + goalDistance[i];
+                bestNode = ref;
+            }
+            int n = cluster.nodes.length;
+            for (int j = 0; j < n; j++) {
+                int d = cluster.distance[i * n + j];
+                if (j != i && d != UNREACHABLE) reach(c, j, g + d, ref, toX, toY);
+            }
+            int x = (c % clustersPerRow) * clusterSize + cluster.nodes[i] % clusterSize;
+            int y = (c / clustersPerRow) * clusterSize + cluster.nodes[i] / clusterSize;
+            for (int h = 0; h < 4; h++) { // Across a border to a node of the neighbouring cluster
+                int nx = x + LearnedMap.DX[h];
+                int ny = y + LearnedMap.DY[h];
+                if (nx < 0 || ny < 0 || nx >= width || ny >= height || !open(nx, ny)) continue;
+                int other = clusterOf(nx, ny);
+                if (other == c) continue;
+                int j = Arrays.binarySearch(clusters[other].nodes, localIndex(nx, ny));
+                if (j >= 0) reach(other, j, g + 1, ref, toX, toY);
+            }
+        }
+
+        for (int ref = bestNode; ref >= 0; ref = clusters[ref >>> LOCAL_BITS].parent[ref & ((1 << LOCAL_BITS) - 1)]) {
+            if (chainLength == chain.length) chain = Arrays.copyOf(chain, chainLength * 2);
+            chain[chainLength++] = ref;
+        }
+        for (int a = 0, b = chainLength - 1; a < b; a++, b--) {
+            int swap = chain[a];
+            chain[a] = chain[b];
+            chain[b] = swap;
+        }
+        return best;
+    }
+
+    /**
+     * Records a route to node i of cluster c if it is the shortest so far.
+     */
+    private void reach(int c, int i, int g, int parent, int toX, int toY) {
+        Cluster cluster = clusters[c];
+        if (cluster.stamp != generation) { // First visit in this search
+            int n = cluster.nodes.length;
+            if (cluster.g.length < n) {
+                cluster.g = new int[n];
+                cluster.parent = new int[n];
+                cluster.closed = new boolean[n];
+            }
+            Arrays.fill(cluster.g, UNREACHABLE);
+            Arrays.fill(cluster.closed, false);
+            cluster.stamp = generation;
+        }
+        if (cluster.closed[i] || g >= cluster.g[i]) return;
+        cluster.g[i] = g;
+        cluster.parent[i] = parent;
+        int x = (c % clustersPerRow) * clusterSize + cluster.nodes[i] % clusterSize;
+        int y = (c / clustersPerRow) * clusterSize + cluster.nodes[i] / clusterSize;
+        push(((long) (g + Math.abs(toX - x) + Math.abs(toY - y)) << 32) | ((long) c << LOCAL_BITS | i));
+    }
+
+    /**
+     * Turns the abstract route left in chain into headings, one search inside one cluster per hop.
+     */
+    private int[] refine(int fromX, int fromY, int toX, int toY, int length) {
+        int[] headings = new int[length];
+        int count = 0;
+        int x = fromX;
+        int y = fromY;
+        for (int k = 0; k <= chainLength; k++) {
+            int nextX = toX;
+            int nextY = toY;
+            if (k < chainLength) {
+                int c = chain[k] >>> LOCAL_BITS;
+                int node = clusters[c].nodes[chain[k] & ((1 << LOCAL_BITS) - 1)];
+                nextX = (c % clustersPerRow) * clusterSize + node % clusterSize;
+                nextY = (c / clustersPerRow) * clusterSize + node / clusterSize;
+            }
+            if (Math.abs(nextX - x) + Math.abs(nextY - y) == 1 && clusterOf(x, y) != clusterOf(nextX, nextY)) {
+                headings[count++] = heading(nextX - x, nextY - y);
+            } else if (nextX != x || nextY != y) {
+                int c = clusterOf(x, y);
+                int goal = localIndex(nextX, nextY);
+                localSearch(c, x, y, goal);
+                int hop = localDistance[goal];
+                for (int cell = goal, i = count + hop - 1; i >= count; i--) {
+                    int h = localParent[cell] - 1;
+                    headings[i] = IRobot.NORTH + h;
+                    cell -= LearnedMap.DY[h] * clusterSize + LearnedMap.DX[h];
+                }
+                count += hop;
+            }
+            x = nextX;
+            y = nextY;
+        }
+        return headings;
+    }
+
+    private static int heading(int dx, int dy) {
+        for (int h = 0; h < 4; h++) {
+            if (LearnedMap.DX[h] == dx && LearnedMap.DY[h] == dy) return IRobot.NORTH + h;
+        }
+        throw new IllegalArgumentException("Not a single step: " + dx + ", " + dy);
+    }
+
+    private int clusterOf(int x, int y) {
+        return (y / clusterSize) * clustersPerRow + x / clusterSize;
+    }
+
+    private int localIndex(int x, int y) {
+        return (y % clusterSize) * clusterSize + x % clusterSize;
+    }
+
+    private void push(long entry) {
+        if (heapSize == heap.length) heap = Arrays.copyOf(heap, heapSize * 2);
+        int i = heapSize++;
+        while (i > 0 && heap[(i - 1) >>> 1] > entry) {
+            heap[i] = heap[(i - 1) >>> 1];
+            i = (i - 1) >>> 1;
+        }
+        heap[i] = entry;
+    }
+
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= last) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top;
+    }
+
+    /**
+     * Times the first build, routes against breadth-first search, and replanning after random wall changes.
+     */
+    public static void main(String[] args) {
+        int size = Integer.parseInt(args[0]);
+        int rooms = Integer.parseInt(args[1]);
+        int routes = Integer.parseInt(args[2]);
+        int changes = Integer.parseInt(args[3]);
+        Random random = new Random(Long.parseLong(args[4]));
+        int clusterSize = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_CLUSTER_SIZE;
+        LearnedMap map = JumpPointPlanner.roomMap(size, rooms, random);
+        ClusterPlanner planner = new ClusterPlanner(clusterSize);
+
+        long t0 = System.nanoTime();
+        planner.prepare(map);
+        System.out.printf("Built %d clusters, %d nodes for %d squares in %.0fms%n", planner.clusters.length,
+                planner.nodeCount(), (long) map.getWidth() * map.getHeight(), (System.nanoTime() - t0) / 1e6);
+
+        long bfsTime = 0;
+        long clusterTime = 0;
+        long replanTime = 0;
+        long bfsTotal = 0;
+        long clusterTotal = 0;
+        int found = 0;
+        for (int r = 0; r < routes; r++) {
+            Point from = randomOpen(map, size, random);
+            Point to = randomOpen(map, size, random);
+            long t1 = System.nanoTime();
+            int[] bfs = map.route(from.x, from.y, to.x, to.y, -1, -1);
+            long t2 = System.nanoTime();
+            int[] route = planner.route(map, from.x, from.y, to.x, to.y, -1, -1);
+            long t3 = System.nanoTime();
+            bfsTime += t2 - t1;
+            clusterTime += t3 - t2;
+            if ((bfs == null) != (route == null)) {
+                throw new IllegalStateException("Route " + r + " from " + from + " to " + to
+                        + ": found by only one planner");
+            }
+            if (bfs != null) {
+                found++;
+                bfsTotal += bfs.length;
+                clusterTotal += route.length;
+            }
+
+            for (int k = 0; k < changes; k++) { // Move some walls, then plan the same route again
+                int x = 1 + random.nextInt(size - 2);
+                int y = 1 + random.nextInt(size - 2);
+                map.set(x, y, map.isOpen(x, y) ? LearnedMap.WALL : LearnedMap.OPEN);
+            }
+            if (map.isOpen(from.x, from.y) && map.isOpen(to.x, to.y)) {
+                long t4 = System.nanoTime();
+                planner.route(map, from.x, from.y, to.x, to.y, -1, -1);
+                replanTime += System.nanoTime() - t4;
+            }
+        }
+        System.out.printf("%d routes (%d found). Breadth-first %.1fms, clusters %.2fms per route, "
+                + "%.2fms to replan after %d wall changes%n", routes, found, bfsTime / 1e6 / routes,
+                clusterTime / 1e6 / routes, replanTime / 1e6 / routes, changes);
+        System.out.printf("Routes %.1f%% longer than shortest%n",
+                100.0 * (clusterTotal - bfsTotal) / Math.max(1, bfsTotal));
+    }
+
+    private static Point randomOpen(LearnedMap map, int size, Random random) {
+        Point p = new Point();
+        do {
+            p.setLocation(random.nextInt(size), random.nextInt(size));
+        } while (!map.isOpen(p.x, p.y));
+        return p;
+    }
+}
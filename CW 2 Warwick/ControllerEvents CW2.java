@@ -0,0 +1,194 @@
+/**
+ * Controller Events Preamble
+ *
+ * Java Flight Recorder shows where the JVM spends its time but knows nothing about what the robot was doing.
+ * These custom JFR events let a recording show the controller's decisions alongside GC pauses and CPU samples:
+ * - maze.Poll : one controlRobot call, with its duration, the decision state (dead end / corridor / junction),
+ *   the mode (explore / backtrack / replay / fallback for the junction log, or the tour / tremaux / field /
+ *   shortcuts mode that decided) and the heading chosen.
+ * - maze.ModeTransition : explorerMode changed between explore and backtrack.
+ * - maze.Junction : a junction heading was recorded or popped, with the depth of the junction log.
+ * - maze.RouteMismatch : a replayed (cached) route ran into a wall, turned back or met other walls.
+ *
+ * All events are disabled by default (@Enabled(false)), so an ordinary recording does not contain them. When an
+ * event is disabled, isEnabled() / shouldCommit() return false before any field is filled in, and the JIT usually
+ * removes the unused event object. Until Flight Recorder has been started no event object is created at all
+ * (see recording()), so polling stays allocation-free whatever the JIT decides. Enable them with the maze.jfc settings file next to
+ * this class, on top of the JDK's own settings:
+ *   java -XX:StartFlightRecording:settings=default,settings=maze.jfc,filename=maze.jfr ...
+ * or with Recording.enable("maze.Poll") in code.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+
+/**
+ * The JFR events emitted by the CW2 controllers, and helpers that only build them when they are enabled.
+ */
+public class ControllerEvents {
+    private static final String[] STATES = {"?", "dead end", "corridor", "junction"}; // By DecisionTrace state
+    private static final String[] HEADINGS = {"north", "east", "south", "west"};
+
+    @Name("maze.Poll")
+    @Label("Controller Poll")
+    @Category({"Maze", "Controller"})
+    @Description("One controlRobot call")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Poll extends Event {
+        @Label("Controller")
+        String controller;
+        @Label("Run")
+        int run;
+        @Label("X")
+        int x;
+        @Label("Y")
+        int y;
+        @Label("State")
+        String state;
+        @Label("Mode")
+        String mode;
+        @Label("Heading")
+        String heading;
+
+        /**
+         * Fills in the decision. Only call it once shouldCommit() is true, as it reads the robot's location.
+         * exits : The number of non-wall exits of the square.
+         */
+        public void describe(String controller, IRobot robot, int exits, String mode, int heading) {
+            this.controller = controller;
+            this.run = robot.getRuns();
+            this.x = robot.getLocation().x;
+            this.y = robot.getLocation().y;
+            this.state = STATES[DecisionTrace.classify(exits)];
+            this.mode = mode;
+            this.heading = headingName(heading);
+        }
+    }
+
+    @Name("maze.ModeTransition")
+    @Label("Mode Transition")
+    @Category({"Maze", "Controller"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class ModeTransition extends Event {
+        @Label("From")
+        String from;
+        @Label("To")
+        String to;
+        @Label("Run")
+        int run;
+        @Label("X")
+        int x;
+        @Label("Y")
+        int y;
+    }
+
+    @Name("maze.Junction")
+    @Label("Junction")
+    @Category({"Maze", "Controller"})
+    @Description("A junction heading was recorded or popped")
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Junction extends Event {
+        @Label("Action")
+        String action;
+        @Label("Heading")
+        String heading;
+        @Label("Depth")
+        long depth;
+    }
+
+    @Name("maze.RouteMismatch")
+    @Label("Route Mismatch")
+    @Category({"Maze", "Controller"})
+    @Description("A replayed route did not fit the maze")
+    @Enabled(false)
+    public static class RouteMismatch extends Event {
+        @Label("Fingerprint")
+        long fingerprint;
+        @Label("Run")
+        int run;
+        @Label("X")
+        int x;
+        @Label("Y")
+        int y;
+        @Label("Heading")
+        String heading;
+    }
+
+    /**
+     * True once Flight Recorder has been started in this JVM; before that no event can be enabled.
+     */
+    public static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    /**
+     * Starts timing a Poll event.
+     * return : The event, or null if Flight Recorder is not running.
+     */
+    public static Poll beginPoll() {
+        if (!recording()) return null;
+        Poll poll = new Poll();
+        poll.begin();
+        return poll;
+    }
+
+    /**
+     * Emits a ModeTransition if the mode changed. explorerMode values: 1 = explore, 0 = backtrack.
+     */
+    public static void modeChanged(IRobot robot, int from, int to) {
+        if (from == to || !recording()) return;
+        ModeTransition event = new ModeTransition();
+        if (!event.isEnabled()) return;
+        event.from = from == 1 ? "explore" : "backtrack";
+        event.to = to == 1 ? "explore" : "backtrack";
+        event.run = robot.getRuns();
+        event.x = robot.getLocation().x;
+        event.y = robot.getLocation().y;
+        event.commit();
+    }
+
+    /**
+     * Emits a Junction event.
+     * action : "recorded" or "popped".
+     * depth : Size of the junction log after the action.
+     */
+    public static void junction(String action, int heading, long depth) {
+        if (!recording()) return;
+        Junction event = new Junction();
+        if (!event.isEnabled()) return;
+        event.action = action;
+        event.heading = headingName(heading);
+        event.depth = depth;
+        event.commit();
+    }
+
+    /**
+     * Emits a RouteMismatch for a cached heading that does not fit the maze, e.g. runs into a wall.
+     */
+    public static void routeMismatch(IRobot robot, long fingerprint, int heading) {
+        if (!recording()) return;
+        RouteMismatch event = new RouteMismatch();
+        if (!event.isEnabled()) return;
+        event.fingerprint = fingerprint;
+        event.run = robot.getRuns();
+        event.x = robot.getLocation().x;
+        event.y = robot.getLocation().y;
+        event.heading = headingName(heading);
+        event.commit();
+    }
+
+    private static String headingName(int heading) {
+        int h = heading - IRobot.NORTH;
+        return h >= 0 && h < 4 ? HEADINGS[h] : String.valueOf(heading);
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Controller Random Preamble
+ *
+ * The random choices of the controllers (chooseRandomDirection, chooseRandomIndex) used to call Math.random(), so
+ * two runs of the same maze could never be repeated, and two versions of a controller could not be compared on
+ * the same luck. Controllers now draw from ControllerRandom instead:
+ * - By default every draw is Math.random(), so nothing changes in the maze environment.
+ * - A harness can seed the calling thread (seed), after which that thread draws from its own xorshift64*
+ *   generator. Two variants run on the same maze after the same seed see the same sequence of random numbers
+ *   for as long as they make the same draws (common random numbers, see PairedComparison).
+ * Streams are per thread, so robots run in parallel on a thread pool do not disturb each other, and a draw costs
+ * a thread-local lookup and a few shifts, without allocating. Each thread also counts its draws, so the Watchdog
+ * can tell a run that repeats itself exactly from one that only comes back to the same square by chance.
+ */
+
+/**
+ * Per-thread, optionally seeded source of the controllers' random numbers.
+ */
+public final class ControllerRandom {
+    private static final ThreadLocal<ControllerRandom> streams = ThreadLocal.withInitial(ControllerRandom::new);
+
+    private long state; // xorshift64* state, never 0 while seeded
+    private boolean seeded = false;
+    private long draws = 0; // Random numbers drawn by this thread, seeded or not
+
+    private ControllerRandom() {
+    }
+
+    /**
+     * Returns the next random number in [0, 1) of the calling thread.
+     */
+    public static double nextDouble() {
+        ControllerRandom stream = streams.get();
+        stream.draws++;
+        return stream.seeded ? stream.next() : Math.random();
+    }
+
+    /**
+     * Returns the number of random numbers the calling thread has drawn.
+     */
+    public static long draws() {
+        return streams.get().draws;
+    }
+
+    /**
+     * Makes the calling thread draw a repeatable sequence, the same for the same seed.
+     */
+    public static void seed(long seed) {
+        ControllerRandom stream = streams.get();
+        stream.state = mix(seed);
+        stream.seeded = true;
+    }
+
+    /**
+     * Makes the calling thread go back to Math.random().
+     */
+    public static void unseed() {
+        streams.get().seeded = false;
+    }
+
+    private double next() {
+        long s = state;
+        s ^= s >>> 12;
+        s ^= s << 25;
+        s ^= s >>> 27;
+        state = s;
+        return ((s * 0x2545F4914F6CDD1DL) >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Spreads a seed over all 64 bits (never returns 0, which would stall xorshift).
+     */
+    private static long mix(long seed) {
+        long z = seed + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return z == 0 ? 1 : z;
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Dead End Seals Preamble
+ *
+ * After backing out of a dead-end branch the explorers saw it only as BEENBEFORE squares, so they could walk
+ * into it again from another junction, e.g. after GrandFinale's noPassage pops a junction record on a braid maze.
+ * DeadEndSeals remembers fully explored branches as walls (dead-end filling):
+ * - Whenever the robot stands on a square with only one exit that is neither a wall nor sealed, and the square is
+ *   not the start, everything behind the square is explored and does not hold the target (the robot would have
+ *   stopped there). The square's one exit is the way out, and the square on the other side seals its exit back
+ *   in, so the branch is closed off one square at a time as the robot walks out of it.
+ * - Exit classification (look, isSealed) then treats a sealed exit as a wall. A junction whose other branches are
+ *   all sealed becomes a corridor or a dead end itself, so whole subtrees close as they are finished.
+ * Sealing never cuts the start off from the target: a sealed square had one way out when it was sealed, so no
+ * route between two other squares went through it. Seals are kept for every run of the same maze.
+ *
+ * Seals take 4 bits per square (one per heading) in a long array, grown as the robot finds squares further out.
+ * The robot's square is worked out from its step and collision counts, which go up by one on every step, so
+ * getLocation (a new Point each call) is read only at the start of a run.
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.awt.Point;
+
+/**
+ * Per-maze mask of sealed exits, with the robot's square and heading of the current poll.
+ */
+public class DeadEndSeals {
+    private static final int[] DX = {0, 1, 0, -1}; // x step for NORTH, EAST, SOUTH, WEST
+    private static final int[] DY = {-1, 0, 1, 0}; // y step for NORTH, EAST, SOUTH, WEST
+
+    private long[] masks = new long[0]; // 4 bits per square, bit i set if heading NORTH + i is sealed
+    private int width = 0, height = 0; // Squares covered by the masks
+    private int startX = -1, startY = -1; // The start square, never sealed off
+    private int x, y; // The robot's square at the last observe
+    private int heading; // The robot's heading (0-3) at the last observe
+    private int steps = -2, collisions = 0; // The robot's step and collision counts at the last observe
+    private int sealed = 0; // Number of exits sealed so far
+
+    /**
+     * Notes the robot's square and heading, once per poll before any look, and seals the way back into the square
+     * if it is a dead end.
+     */
+    public void observe(IRobot robot) {
+        heading = robot.getHeading() - IRobot.NORTH; // Also the heading of the last step, as it has not turned yet
+        int steps = robot.getSteps();
+        int collisions = robot.getCollisions();
+        if (steps == this.steps + 1 && collisions == this.collisions) {
+            x += DX[heading]; // One step since the last poll, and it moved the robot
+            y += DY[heading];
+        } else if (steps != this.steps + 1 || collisions != this.collisions + 1) {
+            locate(robot); // A new run, or polls that were not one step apart
+        }
+        this.steps = steps;
+        this.collisions = collisions;
+        if (startX == -1) start(robot);
+        if (x + 2 > width || y + 2 > height) cover(x + 2, y + 2);
+        if (x != startX || y != startY) sealDeadEnd(robot);
+    }
+
+    /**
+     * Reads the robot's square, kept out of observe as each call returns a new Point.
+     */
+    private void locate(IRobot robot) {
+        Point location = robot.getLocation();
+        x = location.x;
+        y = location.y;
+    }
+
+    /**
+     * Takes the observed square as the start of the maze and covers the squares up to the target.
+     */
+    private void start(IRobot robot) {
+        startX = x;
+        startY = y;
+        Point target = robot.getTargetLocation();
+        cover(Math.max(x, target.x) + 2, Math.max(y, target.y) + 2); // Most mazes end near their target
+    }
+
+    /**
+     * Seals the neighbour's exit back into the observed square if the square has only one way out.
+     */
+    private void sealDeadEnd(IRobot robot) {
+        int exit = -1;
+        for (int h = 0; h < 4; h++) {
+            if (isSealed(IRobot.NORTH + h) || robot.look(relative(h)) == IRobot.WALL) continue;
+            if (exit != -1) return; // Two ways out, not a dead end
+            exit = h;
+        }
+        if (exit == -1 || x + DX[exit] < 0 || y + DY[exit] < 0) return;
+        int index = (y + DY[exit]) * width + x + DX[exit];
+        long bit = 1L << ((index & 15) * 4 + ((exit + 2) & 3));
+        if ((masks[index >>> 4] & bit) == 0) {
+            masks[index >>> 4] |= bit; // The neighbour's exit back into this square
+            sealed++;
+        }
+    }
+
+    /**
+     * Looks in a relative direction (AHEAD, RIGHT, BEHIND, LEFT) from the observed square.
+     * return : IRobot.WALL for a sealed exit, otherwise what the robot sees.
+     */
+    public int look(IRobot robot, int direction) {
+        int absolute = IRobot.NORTH + ((heading + direction - IRobot.AHEAD) & 3);
+        return isSealed(absolute) ? IRobot.WALL : robot.look(direction);
+    }
+
+    /**
+     * True if the observed square's exit in the given absolute heading is sealed.
+     */
+    public boolean isSealed(int absolute) {
+        int index = y * width + x;
+        return (masks[index >>> 4] >>> ((index & 15) * 4 + absolute - IRobot.NORTH) & 1) != 0;
+    }
+
+    /**
+     * The observed square, without the new Point of robot.getLocation().
+     */
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * True if the observed square is the start of the maze.
+     */
+    public boolean isAtStart() {
+        return x == startX && y == startY;
+    }
+
+    public int getSealed() {
+        return sealed;
+    }
+
+    /**
+     * Converts an absolute heading (0-3) to the robot's relative direction at the observed square.
+     */
+    private int relative(int absolute) {
+        return IRobot.AHEAD + ((absolute - heading) & 3);
+    }
+
+    /**
+     * Grows the masks so that they cover at least the given number of columns and rows.
+     */
+    private void cover(int columns, int rows) {
+        if (columns <= width && rows <= height) return;
+        int newWidth = columns <= width ? width : Math.max(columns, width * 2); // Only the side that is short
+        int newHeight = rows <= height ? height : Math.max(rows, height * 2);
+        long[] grown = new long[(newWidth * newHeight + 15) / 16];
+        for (int row = 0; row < height; row++) {
+            for (int column = 0; column < width; column++) {
+                int from = row * width + column;
+                int to = row * newWidth + column;
+                grown[to >>> 4] |= ((masks[from >>> 4] >>> ((from & 15) * 4)) & 15) << ((to & 15) * 4);
+            }
+        }
+        masks = grown;
+        width = newWidth;
+        height = newHeight;
+    }
+
+    /**
+     * Heap bytes of the seals: the object and its mask array.
+     */
+    public long retainedBytes() {
+        return MemoryFootprint.object(MemoryFootprint.REFERENCE + 10 * 4) + MemoryFootprint.array(masks.length, 8);
+    }
+}
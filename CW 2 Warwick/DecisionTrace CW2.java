@@ -0,0 +1,95 @@
+/**
+ * Decision Trace Format
+ *
+ * A decision trace is a flat binary file that records every decision a controller makes.
+ * It starts with an 8 byte header (the MAGIC number followed by the VERSION), and is then
+ * a sequence of fixed-size 12 byte records, one per poll, in the order the polls happened:
+ *
+ *   int   x        - x coordinate of the robot when the decision was made
+ *   int   y        - y coordinate of the robot when the decision was made
+ *   short run      - robot.getRuns() at the time of the decision
+ *   byte  heading  - chosen absolute heading, stored as (heading - IRobot.NORTH)
+ *   byte  state    - DEADEND, CORRIDOR or JUNCTION, based on the number of non-wall exits
+ *
+ * Because every record has the same size, the n-th decision always lives at
+ * HEADER_BYTES + n * RECORD_BYTES, so traces can be streamed or seeked without an index.
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes decision traces in the format described above.
+ * Records are collected in a direct buffer and written to the file channel in large blocks.
+ */
+public class DecisionTrace {
+    public static final int MAGIC = 0x4D5A5452; // "MZTR"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 8;
+    public static final int RECORD_BYTES = 12;
+
+    public static final byte DEADEND = 1; // One non-wall exit
+    public static final byte CORRIDOR = 2; // Two non-wall exits
+    public static final byte JUNCTION = 3; // Three or four non-wall exits
+
+    private static final int BUFFER_RECORDS = 4096; // Records buffered before each write
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES);
+
+    /**
+     * Creates (or truncates) a trace file and writes its header.
+     * file : The trace file to write.
+     */
+    public DecisionTrace(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC).putInt(VERSION);
+    }
+
+    /**
+     * Maps a count of non-wall exits onto a decision state.
+     */
+    public static byte classify(int exits) {
+        if (exits <= 1) return DEADEND;
+        return exits == 2 ? CORRIDOR : JUNCTION;
+    }
+
+    /**
+     * Appends a single decision to the trace.
+     * run : The run the decision was made in.
+     * x, y : The robot's location.
+     * heading : The absolute heading that was chosen.
+     * exits : The number of non-wall exits around the robot.
+     */
+    public void record(int run, int x, int y, int heading, int exits) throws IOException {
+        if (buffer.remaining() < RECORD_BYTES) {
+            flush();
+        }
+        buffer.putInt(x).putInt(y).putShort((short) run)
+                .put((byte) (heading - IRobot.NORTH)).put(classify(exits));
+    }
+
+    /**
+     * Writes all buffered records to the file.
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Flushes the remaining records and closes the file.
+     */
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
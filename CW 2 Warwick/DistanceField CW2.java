@@ -0,0 +1,282 @@
+/**
+ * Distance Field Preamble
+ *
+ * GrandFinale's repeat runs replay the junction headings of the first run, which only make sense from the
+ * square that run started on. A DistanceField instead stores, for every square of a LearnedMap, its distance to
+ * the target, found with one breadth-first search outward from the target. A robot standing on any square of the
+ * field reaches the target on a shortest route of the learned map by always stepping to a neighbour one square
+ * closer. Each step is O(1), and nothing is replanned when the start square changes.
+ *
+ * The field is rebuilt only when it is needed and the map has changed since it was built (the field listens to the
+ * map): at the first poll of a run, or when no neighbour is one square closer because a wall has appeared.
+ * A square the field does not cover (never seen, or cut off from the target) has no descent; the caller then
+ * explores, and the squares it sees join the field the next time it is built.
+ *
+ * **Moving targets:** The map does not depend on the target, only the field does, so a new target costs one
+ * rebuild. If the new target lies inside the explored part of the map the descent is a shortest known route to
+ * it. If it does not, approach leads the robot over the map to the frontier square (an open square next to
+ * unknown ones) with the shortest estimated route to the target: the steps to the frontier square plus its
+ * Manhattan distance to the target. The squares seen there join the map, and the next frontier is chosen, until
+ * the target joins the field and the robot descends to it. So only the frontier nearest the target is explored.
+ *
+ * **Speculation:** A field made with an Executor works ahead of the robot. After a descent on a stale field the next
+ * one is computed on the executor for the square the robot is about to step onto, while the step itself executes,
+ * and at the end of a run a stale field is rebuilt for the next run. A descent on a field that is up to date is a
+ * few array reads, cheaper than handing it to the executor, so it is not speculated and a repeat run over known
+ * squares hands nothing off. The speculation is for the map as it was: if the robot is not on the predicted square,
+ * or sensing it changed the map, the speculative heading is discarded and the descent is computed again. Every
+ * public method first waits for work in progress, so the field is only ever used by one thread at a time; the
+ * caller still drives a field from one thread.
+ *
+ * **Allocation:** descend and approach take the robot's square, and setTarget the target, from the caller, which
+ * reads the target once per run: getLocation and getTargetLocation each return a new Point. The field and its
+ * search queue are kept from build to build, and the speculative tasks are made once per field.
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Distance-to-target field over a learned map.
+ */
+public class DistanceField implements LearnedMap.Listener {
+    private final LearnedMap map = new LearnedMap();
+    private int[] distance = new int[0]; // Distance to the target per square, -1 if not reachable
+    private int[] queue = new int[0]; // Search queue of the builds
+    private int width, height; // Size of the map when the field was built
+    private int targetX = -1, targetY = -1; // Target the field was built for
+    private boolean stale = true; // True if the map has changed since the field was built
+    private long changes = 0; // Number of map squares changed so far
+
+    private final ExecutorService speculator; // Computes descents ahead of the robot, null when synchronous
+    private Future<?> pending; // Speculation in progress, null if none
+    private int aheadX = -1, aheadY = -1; // Square the speculative heading is for, -1 if none
+    private int aheadHeading; // Speculative heading for that square
+    private long aheadChanges; // Map changes when the speculation was made
+    private final Runnable speculation = () -> aheadHeading = step(aheadX, aheadY); // Made once, not per descent
+    private final Runnable rebuilding = () -> rebuild(targetX, targetY);
+    private int runTargetX = -1, runTargetY = -1; // Target of the current run, set by the caller
+
+    private int[] approach = new int[0]; // Headings to the frontier square chosen by approach
+    private int approachStep = 0; // Next heading of the approach
+    private int approachX = -1, approachY = -1; // Square the next heading of the approach starts from
+
+    /**
+     * Creates a field that computes every descent when it is asked for.
+     */
+    public DistanceField() {
+        this(null);
+    }
+
+    /**
+     * Creates a field that speculates on the given executor (null for none).
+     */
+    public DistanceField(ExecutorService speculator) {
+        this.speculator = speculator;
+        map.addListener(this);
+    }
+
+    @Override
+    public void changed(int x, int y) {
+        stale = true;
+        changes++;
+    }
+
+    /**
+     * Records what the robot senses on its square.
+     */
+    public void observe(IRobot robot) {
+        settle();
+        map.observe(robot);
+    }
+
+    /**
+     * Records what the robot senses, for a caller that already knows the robot's square (x, y).
+     */
+    public void observe(IRobot robot, int x, int y) {
+        settle();
+        map.observe(robot, x, y);
+    }
+
+    /**
+     * Sets the target of the current run, before its first descent.
+     */
+    public void setTarget(int x, int y) {
+        settle();
+        runTargetX = x;
+        runTargetY = y;
+    }
+
+    /**
+     * Chooses the heading that takes the robot on square (x, y) one square closer to the target.
+     * firstPoll : True on the first poll of a run, when a stale field is rebuilt.
+     * return : The absolute heading, or -1 if the robot's square is not covered by the field.
+     */
+    public int descend(int x, int y, boolean firstPoll) {
+        settle();
+        int heading;
+        if (x == aheadX && y == aheadY && changes == aheadChanges && runTargetX == targetX && runTargetY == targetY
+                && !(firstPoll && stale)) {
+            heading = aheadHeading; // The square is as predicted, take the speculative descent
+        } else {
+            if (runTargetX != targetX || runTargetY != targetY || (firstPoll && stale)) {
+                rebuild(runTargetX, runTargetY);
+            }
+            heading = step(x, y);
+        }
+        aheadX = -1;
+        if (speculator != null && heading >= 0 && stale) {
+            aheadX = x + LearnedMap.DX[heading - IRobot.NORTH];
+            aheadY = y + LearnedMap.DY[heading - IRobot.NORTH];
+            aheadChanges = changes;
+            pending = speculator.submit(speculation);
+        }
+        return heading;
+    }
+
+    /**
+     * Chooses the heading toward a target the field does not reach from the robot's square: along a shortest route
+     * of the map to the frontier square with the shortest estimated route to the target (see the preamble). The
+     * route is kept until the robot has walked it, then the next frontier square is chosen.
+     * return : The absolute heading, or -1 if no frontier square can be reached from the robot's square (x, y).
+     */
+    public int approach(int x, int y) {
+        settle();
+        if (approachStep < approach.length && x == approachX && y == approachY) {
+            int heading = approach[approachStep++];
+            approachX += LearnedMap.DX[heading - IRobot.NORTH];
+            approachY += LearnedMap.DY[heading - IRobot.NORTH];
+            return heading;
+        }
+        int[] steps = map.distances(x, y, -1, -1);
+        int best = -1;
+        long bestCost = Long.MAX_VALUE;
+        for (int cell = 0; cell < steps.length; cell++) {
+            int fx = cell % map.getWidth();
+            int fy = cell / map.getWidth();
+            if (steps[cell] <= 0 || !map.isFrontier(fx, fy)) continue;
+            int estimate = steps[cell] + Math.abs(runTargetX - fx) + Math.abs(runTargetY - fy);
+            long cost = (long) estimate << 32 | steps[cell]; // Ties go to the nearer frontier square
+            if (cost < bestCost) {
+                best = cell;
+                bestCost = cost;
+            }
+        }
+        if (best == -1) return -1;
+        approach = map.route(x, y, best % map.getWidth(), best / map.getWidth(), -1, -1);
+        approachStep = 0;
+        approachX = x;
+        approachY = y;
+        return approach(x, y);
+    }
+
+    /**
+     * Prepares the field for the next run: with a speculator a stale field is rebuilt on it in the meantime.
+     */
+    public void endRun() {
+        settle();
+        aheadX = -1;
+        approachX = -1; // The next run starts somewhere else
+        if (speculator != null && stale && targetX >= 0) {
+            pending = speculator.submit(rebuilding);
+        }
+    }
+
+    /**
+     * Distance from a square to the target, -1 if the field does not cover it.
+     */
+    public int distanceAt(int x, int y) {
+        settle();
+        return distanceOf(x, y);
+    }
+
+    /**
+     * Heap bytes of the field and its map.
+     */
+    public long retainedBytes() {
+        settle();
+        return MemoryFootprint.object(8 * MemoryFootprint.REFERENCE + 12 * 4 + 2 * 8 + 1)
+                + 2 * MemoryFootprint.object(MemoryFootprint.REFERENCE)
+                + 2 * MemoryFootprint.array(distance.length, 4) + MemoryFootprint.array(approach.length, 4)
+                + map.retainedBytes();
+    }
+
+    public LearnedMap getMap() {
+        settle();
+        return map;
+    }
+
+    /**
+     * Waits for the speculation in progress, if any. Its results are published by the Future.
+     */
+    private void settle() {
+        if (pending == null) return;
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    pending.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true; // The worker still uses the field, so it must be waited for
+                }
+            }
+        } catch (ExecutionException e) {
+            aheadX = -1;
+            throw new IllegalStateException("Speculative descent failed", e.getCause());
+        } finally {
+            pending = null;
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Descent from a square, rebuilding the field once if it fails because a wall may have cut it.
+     */
+    private int step(int x, int y) {
+        int heading = downhill(x, y);
+        if (heading < 0 && stale) {
+            rebuild(targetX, targetY);
+            heading = downhill(x, y);
+        }
+        return heading;
+    }
+
+    /**
+     * Builds the field with one breadth-first search from the target.
+     */
+    private void rebuild(int x, int y) {
+        int size = map.getWidth() * map.getHeight();
+        if (distance.length < size) { // Kept between builds, as a new field per run is garbage
+            distance = new int[size];
+            queue = new int[size];
+        }
+        map.distances(x, y, -1, -1, distance, queue);
+        width = map.getWidth();
+        height = map.getHeight();
+        targetX = x;
+        targetY = y;
+        stale = false;
+    }
+
+    /**
+     * Heading to an open neighbour one square closer to the target, or -1 if there is none.
+     */
+    private int downhill(int x, int y) {
+        int d = distanceOf(x, y);
+        if (d <= 0) return -1;
+        for (int h = 0; h < 4; h++) {
+            int nx = x + LearnedMap.DX[h];
+            int ny = y + LearnedMap.DY[h];
+            if (map.isOpen(nx, ny) && distanceOf(nx, ny) == d - 1) return IRobot.NORTH + h;
+        }
+        return -1;
+    }
+
+    private int distanceOf(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return -1;
+        return distance[y * width + x];
+    }
+}
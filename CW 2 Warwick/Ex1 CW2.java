@@ -4,20 +4,20 @@
  * and backtracking strategies. The robot alternates between exploration mode and backtrack mode.
  * Key Design Considerations:
  * - `passageExits` and `nonwallExits` methods accurately count potential moves.
- * - Backtracking is managed through a junction recording system (`RobotData`), enabling systematic exploration.
+ * - Backtracking is managed through a junction recording system (`JunctionRecorder`), enabling systematic exploration.
  * - Repeated code was minimized by modular functions like `corridor` and `junctionOrCrossroads`.
  *
  * Efficiency Considerations:
  * - Efficiency is achieved by switching modes and exploring only necessary paths.
  * - Efficient Backtracking: The robot only records junctions if there are multiple exits and unexplored paths, reducing unnecessary storage.
  * - By distinguishing between walls, passages, and previously visited locations, the robot minimizes re-exploration.
- * - Memory Management: The RobotData class efficiently stores junctions using arrays, limiting memory usage to 10,000 entries.
+ * - Memory Management: The JunctionRecorder class efficiently stores junctions using arrays, limiting memory usage to 10,000 entries.
  * 
  * Design Reasoning : 
  * - Explorer Design: The explorer mode focuses on finding new paths while minimizing repeated visits using passage prioritization.
  * - Backtracker Design: The backtracker ensures systematic path completion by revisiting junctions only when necessary.
  * 
- * Use of RobotData : 
+ * Use of JunctionRecorder : 
  * - Data Storage: It records junction coordinates, arrival headings, and uses these records during backtracking.
  * - Backtracking Utilization: The robot looks up junction data when backtracking, ensuring it only revisits relevant junctions.
  * 
@@ -34,6 +34,12 @@
  * - **Maximum Steps:** If the maze has N squares, the robot could theoretically traverse each
  *   square multiple times due to dead ends and revisits. This results in a worst-case complexity of O.
  *
+ * Sessions:
+ * All state of a run (poll counter, mode and junction records) lives in an Ex1.Session, so one Ex1 can
+ * drive many robots at once from a thread pool. controlRobot(IRobot) looks the session up in a SessionTable
+ * keyed by the robot; callers that manage sessions themselves use controlRobot(IRobot, Session).
+ * (The junction class used to be called RobotData, which clashed with GrandFinale's RobotData.)
+ *
  * Conclusion:
  * This implementation balances exploration and backtracking, ensuring that the robot navigates the maze
  * efficiently while avoiding unnecessary revisits.
@@ -47,62 +53,126 @@
  * records visited locations for efficient navigation.
  */
 public class Ex1 {
-    private int pollRun = 0; // Tracks controlRobot calls
-    private RobotData robotData; // Stores junction data for backtracking
-    private boolean startingSquareHandled = false; // Tracks if the start square logic is complete
-    private int explorerMode = 1; // 1 = explore, 0 = backtrack
+    private final SessionTable<Session> sessions = new SessionTable<>(Session::new); // Session of each robot
+
+    private static final int[] DIRECTIONS = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
+    private static final int[] FORWARD_DIRECTIONS = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT}; // Never back
+
+    /**
+     * The state of one robot's runs through one maze.
+     */
+    public static class Session {
+        private int pollRun = 0; // Tracks controlRobot calls
+        private JunctionRecorder robotData; // Stores junction data for backtracking
+        private boolean startingSquareHandled = false; // Tracks if the start square logic is complete
+        private int explorerMode = 1; // 1 = explore, 0 = backtrack
+        private DeadEndSeals seals; // Dead ends sealed off in the current maze
+    }
+
+    /**
+     * Creates a session for a caller that manages sessions itself.
+     */
+    public Session newSession() {
+        return new Session();
+    }
+
+     /**
+      * Controls the robot's movement using the robot's own session.
+      */
+    public void controlRobot(IRobot robot) {
+        controlRobot(robot, sessions.get(robot));
+    }
  
      /**
       * Controls the robot's movement by alternating between exploration and backtracking.
-      * Initializes RobotData on the first call and ensures correct exploration strategy.
+      * Initializes the JunctionRecorder on the first call and ensures correct exploration strategy.
       * Manages initialization, exploration, and backtracking.
       */
-      public void controlRobot(IRobot robot) {
-        if (robot.getRuns() == 0 && pollRun == 0) {
-            robotData = new RobotData(); // Initialize robot data on first run
-            explorerMode = 1; // Start in explore mode
+      public void controlRobot(IRobot robot, Session session) {
+        if (robot.getRuns() == 0 && session.pollRun == 0) {
+            session.robotData = new JunctionRecorder(); // Initialize robot data on first run
+            session.explorerMode = 1; // Start in explore mode
+            if (!session.startingSquareHandled) session.seals = new DeadEndSeals(); // A new maze has no seals yet
         }
+        session.seals.observe(robot); // Seals the way back into a dead end
 
-        if (!startingSquareHandled) {
-            int direction = handleStartSquare(robot); // Ensure valid start
+        if (!session.startingSquareHandled) {
+            int direction = handleStartSquare(robot, session.seals); // Ensure valid start
             robot.face(direction);
-            startingSquareHandled = true;
-        } else if (explorerMode == 1) {
-            exploreControl(robot); // Explore unexplored paths
-        } else {
-            backtrackControl(robot); // Backtrack to previous junctions
+            session.startingSquareHandled = true;
+        } else if (session.explorerMode == 1 || !backtrackControl(robot, session)) {
+            exploreControl(robot, session); // Explore unexplored paths
         }
 
-        pollRun++; // Increment polling counter
+        session.pollRun++; // Increment polling counter
     }
  
      /**
-     * Resets robot state for a new maze run.
+     * Resets the default session for a new maze run: the environment only drives one robot and names none.
+     * Callers that drive several robots reset each one with reset(Session), so other robots keep their runs.
      */
      public void reset() {
-         pollRun = 0;
-         startingSquareHandled = false;
-         explorerMode = 1;
-         if (robotData != null) {
-             robotData.resetJunctionCounter();
+         Session session = sessions.getDefault();
+         if (session != null) reset(session);
+     }
+ 
+     /**
+     * Resets a session for a new maze run.
+     */
+     public void reset(Session session) {
+         session.pollRun = 0;
+         session.startingSquareHandled = false;
+         session.explorerMode = 1;
+         if (session.robotData != null) {
+             session.robotData.resetJunctionCounter();
          }
      }
  
+     /**
+      * Forgets a robot that will not be driven again.
+      */
+     public void endSession(IRobot robot) {
+         sessions.remove(robot);
+     }
+
+     /**
+      * Heap bytes retained by every session of this controller, for sizing heaps of large batches.
+      */
+     public MemoryFootprint memoryFootprint() {
+         MemoryFootprint footprint = new MemoryFootprint().add("sessionTable", sessions.retainedBytes());
+         sessions.forEach(session -> footprint.add(memoryFootprint(session)));
+         return footprint;
+     }
+
+     /**
+      * Heap bytes retained by one session: the session object, its junction recorder and its dead-end seals.
+      */
+     public MemoryFootprint memoryFootprint(Session session) {
+         MemoryFootprint footprint = new MemoryFootprint()
+                 .add("session", MemoryFootprint.object(4 + 2 * MemoryFootprint.REFERENCE + 1 + 4));
+         if (session.robotData != null) {
+             footprint.add("junctionRecorder", session.robotData.retainedBytes())
+                     .junctions(session.robotData.getJunctionCount());
+         }
+         if (session.seals != null) footprint.add("seals", session.seals.retainedBytes());
+         return footprint;
+     }
+ 
      /**
       * Handles exploration when the robot is not backtracking.
       * Chooses direction based on available exits.
       */
-     private void exploreControl(IRobot robot) {
-         int exits = nonwallExits(robot);
+     private void exploreControl(IRobot robot, Session session) {
+         int exits = nonwallExits(robot, session.seals);
          int direction;
  
          if (exits == 1) {
-             direction = deadEnd(robot); // Turn around at dead ends
-             explorerMode = 0;
+             direction = deadEnd(robot, session); // Turn around at dead ends
+             session.explorerMode = 0;
          } else if (exits == 2) {
-             direction = corridor(robot); // Move forward in corridors
+             direction = corridor(robot, session.seals); // Move forward in corridors
          } else {
-             direction = junctionOrCrossroads(robot, exits); // Handle complex junctions and crossroads
+             direction = junctionOrCrossroads(robot, session, exits); // Handle complex junctions and crossroads
          }
  
          robot.face(direction);
@@ -110,28 +180,30 @@ public class Ex1 {
  
      /**
       * Manages backtracking to the nearest unexplored junction using stored data.
+      * return : False if backtracking gave up facing a wall or a sealed exit, so the robot explores instead.
       */
-     private void backtrackControl(IRobot robot) {
-         int x = robot.getLocation().x;
-         int y = robot.getLocation().y;
+     private boolean backtrackControl(IRobot robot, Session session) {
+         int x = session.seals.getX(); // The square observed this poll, no new Point
+         int y = session.seals.getY();
  
-         int direction = robotData.searchJunction(x, y); // Find the correct backtracking direction
+         int direction = session.robotData.searchJunction(x, y); // Find the correct backtracking direction
  
          if (robot.look(direction) == IRobot.WALL || direction == IRobot.BEHIND) {
-             explorerMode = 1; // Resume exploration if backtracking fails
+             session.explorerMode = 1; // Resume exploration if backtracking fails
          } else {
              robot.face(direction);
          }
+         return session.explorerMode == 0 || session.seals.look(robot, IRobot.AHEAD) != IRobot.WALL;
      }
  
      /**
       * Determines the starting direction by checking available paths.
       * Ensures the robot starts in a valid direction.
       */
-     private int handleStartSquare(IRobot robot) {
-         int[] directions = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
+     private int handleStartSquare(IRobot robot, DeadEndSeals seals) {
+         int[] directions = DIRECTIONS;
          for (int direction : directions) {
-             if (robot.look(direction) != IRobot.WALL) {
+             if (seals.look(robot, direction) != IRobot.WALL) {
                  return direction; // Move in the first available non-wall direction
              }
          }
@@ -142,11 +214,11 @@ public class Ex1 {
       * Counts all available non-wall exits from the current location.
       * Helps determine navigation strategies.
       */
-     private int nonwallExits(IRobot robot) {
+     private int nonwallExits(IRobot robot, DeadEndSeals seals) {
          int count = 0;
-         int[] directions = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
+         int[] directions = DIRECTIONS;
          for (int direction : directions) {
-             if (robot.look(direction) != IRobot.WALL) {
+             if (seals.look(robot, direction) != IRobot.WALL) {
                  count++;
              }
          }
@@ -156,23 +228,33 @@ public class Ex1 {
      /**
       * Handles movement at dead ends by turning around.
       */
-     private int deadEnd(IRobot robot) {
-         explorerMode = 0; // Switch to backtrack mode
+     private int deadEnd(IRobot robot, Session session) {
+         session.explorerMode = 0; // Switch to backtrack mode
+         return onlyExit(robot, session.seals); // BEHIND, unless the square is a dead end because of seals
+     }
+
+     /**
+      * Returns the one exit of a dead end that is neither a wall nor sealed.
+      */
+     private int onlyExit(IRobot robot, DeadEndSeals seals) {
+         for (int direction : DIRECTIONS) {
+             if (seals.look(robot, direction) != IRobot.WALL) return direction;
+         }
          return IRobot.BEHIND;
      }
  
      /**
       * Chooses a direction in a corridor based on available passages.
       */
-     private int corridor(IRobot robot) {
-         int[] directions = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT};
+     private int corridor(IRobot robot, DeadEndSeals seals) {
+         int[] directions = FORWARD_DIRECTIONS;
          for (int direction : directions) {
-             if (robot.look(direction) == IRobot.PASSAGE) {
+             if (seals.look(robot, direction) == IRobot.PASSAGE) {
                  return direction; // Prioritize passages
              }
          }
          for (int direction : directions) {
-             if (robot.look(direction) != IRobot.WALL) {
+             if (seals.look(robot, direction) != IRobot.WALL) {
                  return direction; // Choose a non-wall path
              }
          }
@@ -183,41 +265,43 @@ public class Ex1 {
       * Decides how to navigate junctions and crossroads.
       * Prioritizes unexplored passages and records junctions for backtracking.
       */
-     private int junctionOrCrossroads(IRobot robot, int exits) {
-         int[] directions = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
-         if (beenbeforeExits(robot) <= 1) {
-             robotData.recordJunction(robot.getLocation().x, robot.getLocation().y, robot.getHeading());
+     private int junctionOrCrossroads(IRobot robot, Session session, int exits) {
+         int[] directions = DIRECTIONS;
+         if (beenbeforeExits(robot, session.seals) <= 1) {
+             session.robotData.recordJunction(session.seals.getX(), session.seals.getY(), robot.getHeading());
          }
          for (int direction : directions) {
-             if (robot.look(direction) == IRobot.PASSAGE) {
+             if (session.seals.look(robot, direction) == IRobot.PASSAGE) {
                  return direction; // Choose unexplored path
              }
          }
-         return chooseRandomDirection(robot, directions, IRobot.WALL); // Choose random path if no unexplored paths
+         return chooseRandomDirection(robot, session.seals, directions, IRobot.WALL); // Random if none unexplored
      }
  
      /**
       * Chooses a random available direction, avoiding specified types.
       */
-     private int chooseRandomDirection(IRobot robot, int[] directions, int avoidType) {
-         int[] available = new int[4];
+     private int chooseRandomDirection(IRobot robot, DeadEndSeals seals, int[] directions, int avoidType) {
          int count = 0;
          for (int direction : directions) {
-             if (robot.look(direction) != avoidType) {
-                 available[count++] = direction;
-             }
+             if (seals.look(robot, direction) != avoidType) count++;
          }
-         return count == 0 ? IRobot.AHEAD : available[(int) (Math.random() * count)];
+         if (count == 0) return IRobot.AHEAD;
+         int chosen = (int) (ControllerRandom.nextDouble() * count); // Index among the allowed directions
+         for (int direction : directions) {
+             if (seals.look(robot, direction) != avoidType && chosen-- == 0) return direction;
+         }
+         return IRobot.AHEAD;
      }
  
      /**
       * Counts previously visited exits to assist in decision-making.
       */
-     private int beenbeforeExits(IRobot robot) {
+     private int beenbeforeExits(IRobot robot, DeadEndSeals seals) {
          int count = 0;
-         int[] directions = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
+         int[] directions = DIRECTIONS;
          for (int direction : directions) {
-             if (robot.look(direction) == IRobot.BEENBEFORE) {
+             if (seals.look(robot, direction) == IRobot.BEENBEFORE) {
                  count++;
              }
          }
@@ -225,7 +309,7 @@ public class Ex1 {
      }
  }
  
- class RobotData {
+ class JunctionRecorder {
     private static final int maxJunctions = 10000; // Maximum number of junctions that can be recorded
     private int junctionCounter = 0; // Tracks the number of recorded junctions
     private int[] juncX = new int[maxJunctions]; // Stores x-coordinates of junctions
@@ -247,6 +331,17 @@ public class Ex1 {
         }
     }
 
+    public int getJunctionCount() {
+        return junctionCounter;
+    }
+
+    /**
+     * Heap bytes of the recorder: its three arrays are allocated at full capacity up front.
+     */
+    public long retainedBytes() {
+        return MemoryFootprint.object(4 + 3 * MemoryFootprint.REFERENCE) + 3 * MemoryFootprint.array(maxJunctions, 4);
+    }
+
     /**
      * Searches for a previously recorded junction at the specified coordinates.
      * x : The x-coordinate of the current location.
@@ -5,72 +5,149 @@
  * This minimizes memory usage compared to storing full coordinate data.
  * Additionally, the robot dynamically clears the stack when backtracking completes,
  * further reducing space requirements.
+ * The stack is a SpillStack, so in bounded-memory mode (-Dmaze.residentBlocks) its oldest blocks are
+ * spilled to a temp file and heap usage stays flat however large the maze is.
+ * All state of a run lives in an Ex2.Session, so one Ex2 can drive many robots at once (see SessionTable).
+ * The session reports its mode (modeState), so a Watchdog can stop a run that goes round a loop forever.
  */ 
 import uk.ac.warwick.dcs.maze.logic.IRobot;
-import java.util.Stack;
 
 /**
  * The Ex2 class manages the robot's movement through a maze using exploration
  * and backtracking strategies with an emphasis on Stack-based backtracking.
  */
 public class Ex2 {
-    private int pollRun = 0; // Tracks controlRobot calls
-    private boolean startingSquareHandled = false; // Tracks if the start square logic is complete
-    private int explorerMode = 1; // 1 = explore, 0 = backtrack
-    private Stack<Integer> backtrackStack = new Stack<>(); // Stack for storing backtrack headings
+    private final SessionTable<Session> sessions = new SessionTable<>(Session::new); // Session of each robot
+
+    private static final int[] DIRECTIONS = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
+    private static final int[] FORWARD_DIRECTIONS = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT}; // Never back
+
+    /**
+     * The state of one robot's runs through one maze.
+     */
+    public static class Session {
+        private int pollRun = 0; // Tracks controlRobot calls
+        private boolean startingSquareHandled = false; // Tracks if the start square logic is complete
+        private int explorerMode = 1; // 1 = explore, 0 = backtrack
+        private DeadEndSeals seals; // Dead ends sealed off in the current maze
+        private final SpillStack backtrackStack = SpillStack.create(1); // Stack for storing backtrack headings
+    }
+
+    /**
+     * Creates a session for a caller that manages sessions itself.
+     */
+    public Session newSession() {
+        return new Session();
+    }
+
+    /**
+     * Controls the robot using the robot's own session.
+     */
+    public void controlRobot(IRobot robot) {
+        controlRobot(robot, sessions.get(robot));
+    }
 
     /**
      * Main robot control method called on each polling cycle.
      * Manages initialization, exploration, and backtracking.
      */
-    public void controlRobot(IRobot robot) {
+    public void controlRobot(IRobot robot, Session session) {
         // Initialize only on the first run
-        if (robot.getRuns() == 0 && pollRun == 0) {
-            explorerMode = 1; // Start in explore mode
+        if (robot.getRuns() == 0 && session.pollRun == 0) {
+            session.explorerMode = 1; // Start in explore mode
+            if (!session.startingSquareHandled) session.seals = new DeadEndSeals(); // A new maze has no seals yet
         }
+        session.seals.observe(robot); // Seals the way back into a dead end
 
         // Handle the starting square to avoid collisions
-        if (!startingSquareHandled) {
-            int direction = handleStartSquare(robot); // Ensure valid start
+        if (!session.startingSquareHandled) {
+            int direction = handleStartSquare(robot, session.seals); // Ensure valid start
             robot.face(direction);
-            startingSquareHandled = true;
+            session.startingSquareHandled = true;
             return;
         }
 
-        if (explorerMode == 1) {
-            exploreControl(robot); // Explore unexplored paths
-        } else {
-            backtrackControl(robot); // Backtrack to previous junctions
+        if (session.explorerMode == 1 || !backtrackControl(robot, session)) {
+            exploreControl(robot, session); // Explore unexplored paths
         }
 
-        pollRun++; // Increment polling counter
+        session.pollRun++; // Increment polling counter
     }
 
     /**
-     * Resets robot state for a new maze run.
+     * Resets the default session for a new maze run: the environment only drives one robot and names none.
+     * Callers that drive several robots reset each one with reset(Session), so other robots keep their runs.
      */
     public void reset() {
-        pollRun = 0; // Reset poll counter
-        startingSquareHandled = false; // Reset starting square handling
-        explorerMode = 1; // Reset to explorer mode
-        backtrackStack.clear(); // Clear stack for fresh exploration
+        Session session = sessions.getDefault();
+        if (session != null) reset(session);
+    }
+
+    /**
+     * Forgets a robot that will not be driven again and deletes any spilled stack blocks.
+     */
+    public void endSession(IRobot robot) {
+        Session session = sessions.remove(robot);
+        if (session != null) session.backtrackStack.close();
+    }
+
+    /**
+     * Heap bytes retained by every session of this controller, for sizing heaps of large batches.
+     */
+    public MemoryFootprint memoryFootprint() {
+        MemoryFootprint footprint = new MemoryFootprint().add("sessionTable", sessions.retainedBytes());
+        sessions.forEach(session -> footprint.add(memoryFootprint(session)));
+        return footprint;
+    }
+
+    /**
+     * Heap bytes retained by one session: the session object, its backtrack stack (one heading per junction)
+     * and its dead-end seals.
+     */
+    public MemoryFootprint memoryFootprint(Session session) {
+        MemoryFootprint footprint = new MemoryFootprint()
+                .add("session", MemoryFootprint.object(4 + 1 + 4 + 2 * MemoryFootprint.REFERENCE))
+                .add("backtrackStack", session.backtrackStack.retainedBytes())
+                .junctions(session.backtrackStack.size());
+        if (session.seals != null) footprint.add("seals", session.seals.retainedBytes());
+        return footprint;
+    }
+
+    /**
+     * The state the next moves depend on besides what the robot senses: the mode, the number of seals (they hide
+     * exits) and whether the start square has been handled. The backtrack stack is left out because its headings
+     * are never followed: they are absolute headings, which backtrackControl rejects as invalid relative directions.
+     */
+    public long modeState(Session session) {
+        long sealed = session.seals == null ? 0 : session.seals.getSealed();
+        return sealed * 4 + session.explorerMode * 2L + (session.startingSquareHandled ? 1 : 0);
+    }
+
+    /**
+     * Resets a session for a new maze run.
+     */
+    public void reset(Session session) {
+        session.pollRun = 0; // Reset poll counter
+        session.startingSquareHandled = false; // Reset starting square handling
+        session.explorerMode = 1; // Reset to explorer mode
+        session.backtrackStack.clear(); // Clear stack for fresh exploration
     }
 
     /**
      * Handles exploration when the robot is not backtracking.
      * Chooses direction based on available exits.
      */
-    private void exploreControl(IRobot robot) {
-        int exits = nonwallExits(robot);
+    private void exploreControl(IRobot robot, Session session) {
+        int exits = nonwallExits(robot, session.seals);
         int direction;
 
         if (exits == 1) {
-            direction = deadEnd(robot); // Handle dead ends
-            explorerMode = 0; // Switch to backtrack mode
+            direction = deadEnd(robot, session.seals); // Handle dead ends
+            session.explorerMode = 0; // Switch to backtrack mode
         } else if (exits == 2) {
-            direction = corridor(robot); // Handle corridors
+            direction = corridor(robot, session.seals); // Handle corridors
         } else {
-            direction = junctionOrCrossroads(robot, exits); // Handle junctions
+            direction = junctionOrCrossroads(robot, session, exits); // Handle junctions
         }
 
         robot.face(direction); // Set robot's direction
@@ -78,10 +155,11 @@ public class Ex2 {
 
     /**
      * Backtracks through previously stored headings when exploration is complete.
+     * return : False if backtracking gave up facing a wall or a sealed exit, so the robot explores instead.
      */
-    private void backtrackControl(IRobot robot) {
-        if (!backtrackStack.isEmpty()) {
-            int direction = backtrackStack.pop(); // Retrieve last heading
+    private boolean backtrackControl(IRobot robot, Session session) {
+        if (!session.backtrackStack.isEmpty()) {
+            int direction = session.backtrackStack.pop(); // Retrieve last heading
 
             // Check if the direction is valid before making the move
             if (direction == IRobot.AHEAD || direction == IRobot.BEHIND ||
@@ -90,24 +168,25 @@ public class Ex2 {
                 if (robot.look(direction) != IRobot.WALL) {
                     robot.face(direction); // Continue backtracking
                 } else {
-                    explorerMode = 1; // Backtrack failed, resume exploration
+                    session.explorerMode = 1; // Backtrack failed, resume exploration
                 }
             } else {
-                explorerMode = 1; // Invalid direction, resume exploration
+                session.explorerMode = 1; // Invalid direction, resume exploration
             }
         } else {
-            explorerMode = 1; // No backtrack data, return to exploration
+            session.explorerMode = 1; // No backtrack data, return to exploration
         }
+        return session.explorerMode == 0 || session.seals.look(robot, IRobot.AHEAD) != IRobot.WALL;
     }
 
     /**
      * Determines the starting direction by checking available paths.
      * Ensures the robot starts in a valid direction.
      */
-    private int handleStartSquare(IRobot robot) {
-        int[] directions = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
+    private int handleStartSquare(IRobot robot, DeadEndSeals seals) {
+        int[] directions = DIRECTIONS;
         for (int direction : directions) {
-            if (robot.look(direction) != IRobot.WALL) {
+            if (seals.look(robot, direction) != IRobot.WALL) {
                 return direction; // Move in the first available non-wall direction
             }
         }
@@ -118,11 +197,11 @@ public class Ex2 {
      * Counts all available non-wall exits from the current location.
      * Helps determine navigation strategies.
      */
-    private int nonwallExits(IRobot robot) {
+    private int nonwallExits(IRobot robot, DeadEndSeals seals) {
         int count = 0;
-        int[] directions = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
+        int[] directions = DIRECTIONS;
         for (int direction : directions) {
-            if (robot.look(direction) != IRobot.WALL) {
+            if (seals.look(robot, direction) != IRobot.WALL) {
                 count++;
             }
         }
@@ -132,22 +211,32 @@ public class Ex2 {
     /**
      * Handles movement at dead ends by turning around.
      */
-    private int deadEnd(IRobot robot) {
-        return IRobot.BEHIND; // Turn around at a dead end
+    private int deadEnd(IRobot robot, DeadEndSeals seals) {
+        return onlyExit(robot, seals); // Turn around at a dead end, or leave a square sealed off behind
+    }
+
+    /**
+     * Returns the one exit of a dead end that is neither a wall nor sealed.
+     */
+    private int onlyExit(IRobot robot, DeadEndSeals seals) {
+        for (int direction : DIRECTIONS) {
+            if (seals.look(robot, direction) != IRobot.WALL) return direction;
+        }
+        return IRobot.BEHIND;
     }
 
     /**
      * Chooses a direction in a corridor based on available passages.
      */
-    private int corridor(IRobot robot) {
-        int[] directions = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT};
+    private int corridor(IRobot robot, DeadEndSeals seals) {
+        int[] directions = FORWARD_DIRECTIONS;
         for (int direction : directions) {
-            if (robot.look(direction) == IRobot.PASSAGE) {
+            if (seals.look(robot, direction) == IRobot.PASSAGE) {
                 return direction; // Prioritize unexplored passages
             }
         }
         for (int direction : directions) {
-            if (robot.look(direction) != IRobot.WALL) {
+            if (seals.look(robot, direction) != IRobot.WALL) {
                 return direction; // Choose any valid non-wall path
             }
         }
@@ -157,33 +246,34 @@ public class Ex2 {
     /**
      * Manages junction and crossroads navigation, recording unexplored paths.
      */
-    private int junctionOrCrossroads(IRobot robot, int exits) {
-        int[] directions = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
+    private int junctionOrCrossroads(IRobot robot, Session session, int exits) {
+        int[] directions = DIRECTIONS;
 
         // Record the current heading for backtracking
-        backtrackStack.push(robot.getHeading());
+        session.backtrackStack.push(robot.getHeading());
 
         for (int direction : directions) {
-            if (robot.look(direction) == IRobot.PASSAGE) {
+            if (session.seals.look(robot, direction) == IRobot.PASSAGE) {
                 return direction; // Choose unexplored path
             }
         }
-        return chooseRandomDirection(robot, directions, IRobot.WALL); // Random path if no unexplored exits
+        return chooseRandomDirection(robot, session.seals, directions, IRobot.WALL); // Random if none unexplored
     }
 
     /**
      * Chooses a random available direction, avoiding specified types.
      */
-    private int chooseRandomDirection(IRobot robot, int[] directions, int avoidType) {
-        int[] available = new int[4];
+    private int chooseRandomDirection(IRobot robot, DeadEndSeals seals, int[] directions, int avoidType) {
         int count = 0;
-
         for (int direction : directions) {
-            if (robot.look(direction) != avoidType) {
-                available[count++] = direction;
-            }
+            if (seals.look(robot, direction) != avoidType) count++;
+        }
+        if (count == 0) return IRobot.AHEAD;
+        int chosen = (int) (ControllerRandom.nextDouble() * count); // Index among the allowed directions
+        for (int direction : directions) {
+            if (seals.look(robot, direction) != avoidType && chosen-- == 0) return direction;
         }
-        return count == 0 ? IRobot.AHEAD : available[(int) (Math.random() * count)];
+        return IRobot.AHEAD;
     }
 
     /**
@@ -19,10 +19,15 @@
  *   maze traversal even in loopy mazes.
  *
  * This improved design makes the robot capable of handling both simple and loopy mazes efficiently.
+ *
+ * **Memory:** The stack is a SpillStack of (x, y, heading) records. In bounded-memory mode
+ * (-Dmaze.residentBlocks) its oldest blocks are spilled to a temp file, keeping heap usage flat on huge mazes.
+ *
+ * **Sessions:** All state of a run lives in an Ex3.Session, so one Ex3 can drive many robots at once
+ * (see SessionTable).
  */
 
 import uk.ac.warwick.dcs.maze.logic.IRobot;
-import java.util.Stack;
 
 /**
  * Ex3 : Maze Navigation with Loop Handling
@@ -31,61 +36,127 @@ import java.util.Stack;
  * The robot records visited junctions and backtracks when necessary, avoiding infinite loops.
  */
 public class Ex3 {
-    private int pollRun = 0; // Tracks the number of controlRobot calls
-    private boolean startingSquareHandled = false; // Tracks if the start square logic is complete
-    private int explorerMode = 1; // 1 = explore, 0 = backtrack
-    private Stack<int[]> backtrackStack = new Stack<>(); // Stack for backtracking
+    private final SessionTable<Session> sessions = new SessionTable<>(Session::new); // Session of each robot
+
+    private static final int[] DIRECTIONS = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
+    private static final int[] FORWARD_DIRECTIONS = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT}; // Never back
+
+    /**
+     * The state of one robot's runs through one maze.
+     */
+    public static class Session {
+        private int pollRun = 0; // Tracks the number of controlRobot calls
+        private boolean startingSquareHandled = false; // Tracks if the start square logic is complete
+        private int explorerMode = 1; // 1 = explore, 0 = backtrack
+        private DeadEndSeals seals; // Dead ends sealed off in the current maze
+        private final SpillStack backtrackStack = SpillStack.create(3); // Stack of (x, y, heading) records for backtracking
+        private final int[] lastCell = new int[3]; // Record most recently popped from the stack
+    }
+
+    /**
+     * Creates a session for a caller that manages sessions itself.
+     */
+    public Session newSession() {
+        return new Session();
+    }
+
+    /**
+     * Controls the robot using the robot's own session.
+     */
+    public void controlRobot(IRobot robot) {
+        controlRobot(robot, sessions.get(robot));
+    }
 
     /**
      * Main control method for the robot.
      * Manages initialization, exploration, and backtracking.
      */
-    public void controlRobot(IRobot robot) {
-        if (robot.getRuns() == 0 && pollRun == 0) {
-            explorerMode = 1; // Initialize in exploration mode
+    public void controlRobot(IRobot robot, Session session) {
+        if (robot.getRuns() == 0 && session.pollRun == 0) {
+            session.explorerMode = 1; // Initialize in exploration mode
+            if (!session.startingSquareHandled) session.seals = new DeadEndSeals(); // A new maze has no seals yet
         }
+        session.seals.observe(robot); // Seals the way back into a dead end
 
-        if (!startingSquareHandled) {
-            int direction = handleStartSquare(robot); // Ensure valid start
+        if (!session.startingSquareHandled) {
+            int direction = handleStartSquare(robot, session.seals); // Ensure valid start
             robot.face(direction);
-            startingSquareHandled = true;
+            session.startingSquareHandled = true;
             return;
         }
 
-        if (explorerMode == 1) {
-            exploreControl(robot); // Handle exploration
-        } else {
-            backtrackControl(robot); // Handle backtracking
+        if (session.explorerMode == 1 || !backtrackControl(robot, session)) {
+            exploreControl(robot, session); // Handle exploration
         }
 
-        pollRun++; // Increment poll counter
+        session.pollRun++; // Increment poll counter
     }
 
     /**
-     * Resets the robot's state for a new maze run.
+     * Resets the default session for a new maze run: the environment only drives one robot and names none.
+     * Callers that drive several robots reset each one with reset(Session), so other robots keep their runs.
      */
     public void reset() {
-        pollRun = 0;
-        startingSquareHandled = false;
-        explorerMode = 1;
-        backtrackStack.clear(); // Clear backtracking stack
+        Session session = sessions.getDefault();
+        if (session != null) reset(session);
+    }
+
+    /**
+     * Forgets a robot that will not be driven again and deletes any spilled stack blocks.
+     */
+    public void endSession(IRobot robot) {
+        Session session = sessions.remove(robot);
+        if (session != null) session.backtrackStack.close();
+    }
+
+    /**
+     * Heap bytes retained by every session of this controller, for sizing heaps of large batches.
+     */
+    public MemoryFootprint memoryFootprint() {
+        MemoryFootprint footprint = new MemoryFootprint().add("sessionTable", sessions.retainedBytes());
+        sessions.forEach(session -> footprint.add(memoryFootprint(session)));
+        return footprint;
+    }
+
+    /**
+     * Heap bytes retained by one session: the session object, its backtrack stack of (x, y, heading) junction
+     * records, the last popped record and its dead-end seals.
+     */
+    public MemoryFootprint memoryFootprint(Session session) {
+        MemoryFootprint footprint = new MemoryFootprint()
+                .add("session", MemoryFootprint.object(4 + 1 + 4 + 3 * MemoryFootprint.REFERENCE)
+                        + MemoryFootprint.array(session.lastCell.length, 4))
+                .add("backtrackStack", session.backtrackStack.retainedBytes())
+                .junctions(session.backtrackStack.size());
+        if (session.seals != null) footprint.add("seals", session.seals.retainedBytes());
+        return footprint;
+    }
+
+    /**
+     * Resets a session's state for a new maze run.
+     */
+    public void reset(Session session) {
+        session.pollRun = 0;
+        session.startingSquareHandled = false;
+        session.explorerMode = 1;
+        session.backtrackStack.clear(); // Clear backtracking stack
     }
 
     /**
      * Manages exploration based on available exits.
      * Prioritizes unexplored paths, handles dead ends, and navigates corridors.
      */
-    private void exploreControl(IRobot robot) {
-        int exits = nonwallExits(robot);
+    private void exploreControl(IRobot robot, Session session) {
+        int exits = nonwallExits(robot, session.seals);
         int direction;
 
         if (exits == 1) {
-            direction = deadEnd(robot); // Handle dead-end by turning around
-            explorerMode = 0; // Switch to backtracking mode
+            direction = deadEnd(robot, session.seals); // Handle dead-end by turning around
+            session.explorerMode = 0; // Switch to backtracking mode
         } else if (exits == 2) {
-            direction = corridor(robot); // Move through the corridor
+            direction = corridor(robot, session.seals); // Move through the corridor
         } else {
-            direction = junctionOrCrossroads(robot, exits); // Handle junctions and crossroads
+            direction = junctionOrCrossroads(robot, session, exits); // Handle junctions and crossroads
         }
 
         robot.face(direction); // Set robot's direction
@@ -93,10 +164,12 @@ public class Ex3 {
 
     /**
      * Manages backtracking by returning to previously recorded junctions.
+     * return : False if backtracking gave up facing a wall or a sealed exit, so the robot explores instead.
      */
-    private void backtrackControl(IRobot robot) {
-        if (!backtrackStack.isEmpty()) {
-            int[] lastCell = backtrackStack.pop(); // Retrieve last visited cell
+    private boolean backtrackControl(IRobot robot, Session session) {
+        if (!session.backtrackStack.isEmpty()) {
+            int[] lastCell = session.lastCell;
+            session.backtrackStack.pop(lastCell); // Retrieve last visited cell
             int x = lastCell[0];
             int y = lastCell[1];
             int heading = lastCell[2];
@@ -105,24 +178,25 @@ public class Ex3 {
                 if (robot.look(heading) != IRobot.WALL) {
                     robot.face(heading); // Continue backtracking
                 } else {
-                    explorerMode = 1; // Return to exploration if blocked
+                    session.explorerMode = 1; // Return to exploration if blocked
                 }
             } else {
-                explorerMode = 1; // Invalid heading, resume exploration
+                session.explorerMode = 1; // Invalid heading, resume exploration
             }
         } else {
-            explorerMode = 1; // No backtrack data, return to exploration
+            session.explorerMode = 1; // No backtrack data, return to exploration
         }
+        return session.explorerMode == 0 || session.seals.look(robot, IRobot.AHEAD) != IRobot.WALL;
     }
 
     /**
      * Determines a valid starting direction by checking for open paths.
      * return : The first available non-wall direction.
      */
-    private int handleStartSquare(IRobot robot) {
-        int[] directions = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
+    private int handleStartSquare(IRobot robot, DeadEndSeals seals) {
+        int[] directions = DIRECTIONS;
         for (int direction : directions) {
-            if (robot.look(direction) != IRobot.WALL) {
+            if (seals.look(robot, direction) != IRobot.WALL) {
                 return direction; // Return first available direction
             }
         }
@@ -132,11 +206,11 @@ public class Ex3 {
     /**
      * Counts non-wall exits from the robot's current location.
      */
-    private int nonwallExits(IRobot robot) {
+    private int nonwallExits(IRobot robot, DeadEndSeals seals) {
         int count = 0;
-        int[] directions = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
+        int[] directions = DIRECTIONS;
         for (int direction : directions) {
-            if (robot.look(direction) != IRobot.WALL) {
+            if (seals.look(robot, direction) != IRobot.WALL) {
                 count++;
             }
         }
@@ -146,22 +220,32 @@ public class Ex3 {
     /**
      * Handles dead-end scenarios by turning the robot around.
      */
-    private int deadEnd(IRobot robot) {
-        return IRobot.BEHIND; // Turn around at a dead-end
+    private int deadEnd(IRobot robot, DeadEndSeals seals) {
+        return onlyExit(robot, seals); // Turn around at a dead-end, or leave a square sealed off behind
+    }
+
+    /**
+     * Returns the one exit of a dead end that is neither a wall nor sealed.
+     */
+    private int onlyExit(IRobot robot, DeadEndSeals seals) {
+        for (int direction : DIRECTIONS) {
+            if (seals.look(robot, direction) != IRobot.WALL) return direction;
+        }
+        return IRobot.BEHIND;
     }
 
     /**
      * Selects a direction in a corridor based on available paths.
      */
-    private int corridor(IRobot robot) {
-        int[] directions = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT};
+    private int corridor(IRobot robot, DeadEndSeals seals) {
+        int[] directions = FORWARD_DIRECTIONS;
         for (int direction : directions) {
-            if (robot.look(direction) == IRobot.PASSAGE) {
+            if (seals.look(robot, direction) == IRobot.PASSAGE) {
                 return direction; // Prioritize unexplored passages
             }
         }
         for (int direction : directions) {
-            if (robot.look(direction) != IRobot.WALL) {
+            if (seals.look(robot, direction) != IRobot.WALL) {
                 return direction; // Choose any non-wall direction
             }
         }
@@ -171,29 +255,35 @@ public class Ex3 {
     /**
      * Manages junctions and crossroads by recording them for backtracking.
      */
-    private int junctionOrCrossroads(IRobot robot, int exits) {
-        int[] directions = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
-        backtrackStack.push(new int[]{robot.getLocation().x, robot.getLocation().y, robot.getHeading()});
+    private int junctionOrCrossroads(IRobot robot, Session session, int exits) {
+        int[] directions = DIRECTIONS;
+        int[] lastCell = session.lastCell;
+        lastCell[0] = session.seals.getX(); // The square observed this poll, no new Point
+        lastCell[1] = session.seals.getY();
+        lastCell[2] = robot.getHeading();
+        session.backtrackStack.push(lastCell);
 
         for (int direction : directions) {
-            if (robot.look(direction) == IRobot.PASSAGE) {
+            if (session.seals.look(robot, direction) == IRobot.PASSAGE) {
                 return direction; // Prioritize unexplored passages
             }
         }
-        return chooseRandomDirection(robot, directions, IRobot.WALL); // Random choice if no unexplored exits
+        return chooseRandomDirection(robot, session.seals, directions, IRobot.WALL); // Random if none unexplored
     }
 
     /**
      * Selects a random available direction, avoiding walls.
      */
-    private int chooseRandomDirection(IRobot robot, int[] directions, int avoidType) {
-        int[] available = new int[4];
+    private int chooseRandomDirection(IRobot robot, DeadEndSeals seals, int[] directions, int avoidType) {
         int count = 0;
         for (int direction : directions) {
-            if (robot.look(direction) != avoidType) {
-                available[count++] = direction;
-            }
+            if (seals.look(robot, direction) != avoidType) count++;
+        }
+        if (count == 0) return IRobot.AHEAD;
+        int chosen = (int) (ControllerRandom.nextDouble() * count); // Index among the allowed directions
+        for (int direction : directions) {
+            if (seals.look(robot, direction) != avoidType && chosen-- == 0) return direction;
         }
-        return count == 0 ? IRobot.AHEAD : available[(int) (Math.random() * count)];
+        return IRobot.AHEAD;
     }
 }
@@ -18,6 +18,69 @@
  *   pathfinding strategy for faster completion.
  * - **Handling Loopy Mazes:** Since the robot tracks junctions and avoids previously visited dead ends,
  *   it can efficiently navigate and solve loopy mazes.
+ * - **Route Cache:** With -Dgrandfinale.cacheBytes=n (off by default) learned routes are also kept in a
+ *   RouteCache shared by all GrandFinale instances, so a returning maze is replayed on its very first run.
+ *   The key is a fingerprint of the start, the target and the walls of the first FINGERPRINT_SQUARES squares
+ *   the first run stands on; the start square alone is shared by every maze with the same start and target.
+ *   While those squares are sensed the explorer takes the first open exit instead of a random one, so the same
+ *   maze always gives the same squares. On a hit the cached route is replayed over those squares: the robot
+ *   walks back only to where the route leaves its way, or not at all, and replays the route from there. Every
+ *   junction record also keeps the wall mask of its square, so a route of another maze is mostly dropped
+ *   before a step is wasted on it, and cached routes are checked as they are replayed: if a cached heading
+ *   runs into a wall, or is taken on a square whose walls differ from the recorded ones, the entry is dropped.
+ *   The junction log can only be explored from the start square, so the rest of that run explores with a
+ *   TremauxExplorer from where the robot stands, and the next run relearns. Harnesses that need independent
+ *   runs call getRouteCache().clear().
+ *
+ * **Waypoint Tours:**
+ * With waypoints (setWaypoints, or -Dgrandfinale.waypoints=x,y;x,y) the robot runs a WaypointTour instead:
+ * it explores over a learned map until every waypoint is reached, then repeat runs follow the shortest tour
+ * through all waypoints to the target, with the visiting order solved by TourPlanner.
+ * Routes on the learned map use breadth-first search, or Jump Point Search with -Dgrandfinale.planner=jps,
+ * which finds routes of the same length much faster on large open mazes, or hierarchical clusters with
+ * -Dgrandfinale.planner=hpa for very large maps that are replanned often (see RoutePlanner).
+ *
+ * **Dead-End Sealing:**
+ * Every dead end the robot walks out of is sealed off (DeadEndSeals), one square at a time, so a finished branch
+ * closes behind the robot. While exploring, a move into a sealed exit, e.g. after a junction record is popped on a
+ * braid maze, is replaced by one into an exit that is not sealed (unsealedExit). Squares are still classified by
+ * their real exits: the junction log is replayed on repeat runs by counting junctions and corners, so a square
+ * must keep the shape it had when it was recorded. Repeat runs follow that log, which never leads into a sealed
+ * branch.
+ *
+ * **Tremaux Exploration:**
+ * With -Dgrandfinale.explorer=tremaux (or setTremaux) the robot runs a TremauxExplorer instead: it marks every
+ * passage it walks (2 bits each) and never walks one more than twice, so a first run takes at most twice as many
+ * steps as the maze has passages, loops or not. Repeat runs follow the passages marked once, which lead from the
+ * start to the target. Waypoint tours take precedence over it.
+ *
+ * **Shortcut Probing:**
+ * With -Dgrandfinale.shortcuts=true (or setShortcuts) repeat runs follow the loop-free path of the last run that
+ * reached the target (ShortcutProbe) instead of the junction log. On the way they take open exits that skip
+ * part of the route, and probe squares no run has walked, within a budget of extra steps per run. A probe
+ * becomes part of the route only if it is shorter, so repeat runs only ever get shorter. A run with no route to
+ * follow from where it stands explores the rest of the way with a TremauxExplorer, as a run whose cached route
+ * failed does. Waypoint tours, Tremaux exploration and distance fields take precedence over it.
+ *
+ * **Distance Field:**
+ * Outside tour and Tremaux modes the robot also builds a LearnedMap of every square it senses.
+ * With -Dgrandfinale.field=true (or setDistanceField) repeat runs follow a DistanceField over it (distances to
+ * the target from one breadth-first search) instead of the junction memory, so they take a shortest known route
+ * from whatever square they start on, including corridors. A run that starts outside the field heads for the
+ * frontier of the map nearest the target (DistanceField.approach). If there is none it explores with a
+ * TremauxExplorer, which can start mid-maze, and descends again as soon as it is back on the field.
+ * With -Dgrandfinale.async=true (or setAsync) the field speculates: the next descent on a stale field, and the
+ * rebuild for the next run, are computed on a worker thread while the current move executes, and thrown away if the
+ * robot senses something the map did not predict. This hides decision latency when moves take real time
+ * (animation, a remote robot). Junction-memory decisions stay synchronous: they are a few comparisons on
+ * surroundings that cannot be known before the robot gets there.
+ *
+ * **Moving Targets:**
+ * The junction log only leads to the target it was learned for, but the learned map does not depend on the
+ * target. The first poll of every repeat run checks getTargetLocation(), and once the target has moved, repeat
+ * runs use the distance field as in field mode, shortcut mode included: a shortest known route when the new target
+ * lies inside explored territory, otherwise a walk to the frontier nearest the new target and exploration from
+ * there only. Tremaux exploration starts its marks over for a new target; waypoint tours plan on their own map.
  *
  * **Performance on New Mazes:**
  * The robot handles new mazes well due to its adaptive exploration mode. It records new junctions and
@@ -29,38 +92,515 @@
  *
  * **Design Justifications:**
  * - The robot maintains a limited-size junction log to avoid excessive memory usage.
+ *   The log is a SpillStack, so with -Dmaze.residentBlocks its oldest blocks are spilled to disk
+ *   and heap usage stays flat however large the maze is.
+ * - Decisions, mode changes, junction records and route mismatches are emitted as JFR events
+ *   (see ControllerEvents). They are disabled by default and cost next to nothing until enabled.
+ * - All state of a run lives in a GrandFinale.Session, so one GrandFinale can drive many robots at once
+ *   from a thread pool. The environment's controlRobot(IRobot) finds the session in a SessionTable keyed by
+ *   the robot; the route cache is shared by all sessions and is synchronized.
  * - By combining suggested and custom approaches, the robot remains efficient
  *   while reducing potential infinite loops and ensuring target reachability.
  */
 
 import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.awt.Point;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The GrandFinale class manages the robot's maze navigation with an exploration and backtracking approach.
  * It utilizes dynamic decision-making, intelligent backtracking, and passage detection to reach the maze's end efficiently.
  */
 public class GrandFinale {
-    private int pollRun = 0; // Tracks robot control calls
-    private int explorerMode; // Tracks exploration state
-    private int explore = 1; // Mode flag for exploration
+    private final SessionTable<Session> sessions = new SessionTable<>(Session::new); // Session of each robot
+
+    private static final RouteCache routeCache = new RouteCache(Long.getLong("grandfinale.cacheBytes", 0)); // 0 = off
+    static final int FINGERPRINT_SQUARES = 16; // Squares sensed on a first run before the route cache is consulted
+
+    private static final String traceDir = System.getProperty("grandfinale.trace"); // Decision trace directory, null = off
+    private static final String planner = System.getProperty("grandfinale.planner", "bfs"); // Route planner of tours
+    private static final AtomicInteger tracedMazes = new AtomicInteger(); // Mazes traced by all instances in this JVM
+
+    private static final ExecutorService speculator = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "grandfinale-speculator");
+        thread.setDaemon(true); // Never keeps the program alive, idle threads end after a minute
+        return thread;
+    });
+
+    private volatile boolean distanceField = Boolean.getBoolean("grandfinale.field"); // Repeat runs descend a field
+    private volatile boolean async = Boolean.getBoolean("grandfinale.async"); // The field speculates on a worker
+    private volatile boolean tremaux = "tremaux".equals(System.getProperty("grandfinale.explorer")); // Tremaux mode
+    private volatile boolean shortcuts = Boolean.getBoolean("grandfinale.shortcuts"); // Repeat runs probe shortcuts
+    private volatile List<Point> waypoints = parseWaypoints(System.getProperty("grandfinale.waypoints")); // Tour mode if not empty
+
+    /**
+     * The state of one robot's runs through one maze. Every stateful method takes the session it works on,
+     * so one GrandFinale can drive many robots at once.
+     */
+    public static class Session {
+        private int pollRun = 0; // Tracks robot control calls
+        private int explorerMode; // Tracks exploration state
+        private int explore = 1; // Mode flag for exploration
+
+        private RobotData robotData; // Stores junction data for backtracking
+        private DeadEndSeals seals; // Dead ends sealed off in the current maze, consulted while exploring
+
+        private long fingerprint; // Fingerprint of the current maze, once fingerprinted
+        private RouteCache.Fingerprint print; // Fingerprint the first run is still sensing, else null
+        private boolean fingerprinted = false; // True once the fingerprint is complete and the cache was consulted
+        private final int[] prefix = new int[FINGERPRINT_SQUARES]; // Way from the start while the fingerprint is sensed
+        private final int[] prefixWalls = new int[FINGERPRINT_SQUARES]; // Wall mask of the square each move starts from
+        private int rewind = 0; // Headings in prefix, walked back in reverse on a cache hit (see joinRoute)
+        private boolean cachedRoute = false; // True while replaying a route that came from the cache
+        private boolean relearn = false; // True if a cached route was wrong and the maze must be explored again
+        private TremauxExplorer fallback; // Explores the rest of a run whose junction log failed mid-maze, else null
+
+        private DecisionTrace trace; // Trace of the current maze, null when tracing is off
 
-    private RobotData robotData; // Stores junction data for backtracking
+        private WaypointTour tour; // Waypoint tour of the current maze, null when not in tour mode
+
+        private TremauxExplorer tremaux; // Passage marks of the current maze, null when not in Tremaux mode
+
+        private DistanceField field; // Learned map of the current maze, null in tour and Tremaux modes
+        private boolean fieldRuns = false; // True if repeat runs descend the field instead of replaying junctions
+        private int targetX, targetY; // The target the junction log was learned for
+        private boolean fieldExploring = false; // True while a repeat run explores because it started off the field
+
+        private ShortcutProbe shortcuts; // Route of the repeat runs, null when not in shortcut mode
+        private boolean routeExploring = false; // True while a repeat run explores because its route hit a wall
+
+        private final Exits exits = new Exits(); // Non-wall exits of the current square, refilled every poll
+        private final Exits passage = new Exits(); // Unexplored exits of the current square, refilled every poll
+    }
+
+    /**
+     * A short list of absolute headings, filled in place so that polling does not allocate.
+     * Behaves like the List<Integer> it replaces: get and remove take an index and throw if it is out of range.
+     */
+    static final class Exits {
+        private final int[] headings = new int[4];
+        private int size = 0;
+
+        int size() {
+            return size;
+        }
+
+        int get(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+            return headings[index];
+        }
+
+        int indexOf(int heading) {
+            for (int i = 0; i < size; i++) {
+                if (headings[i] == heading) return i;
+            }
+            return -1;
+        }
+
+        void remove(int index) {
+            if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+            System.arraycopy(headings, index + 1, headings, index, size - index - 1);
+            size--;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void add(int heading) {
+            headings[size++] = heading;
+        }
+    }
+
+    /**
+     * Creates a session for a caller that manages sessions itself.
+     */
+    public Session newSession() {
+        return new Session();
+    }
+
+    /**
+     * Main robot control method executed every polling cycle, using the robot's own session.
+     */
+    public void controlRobot(IRobot robot) {
+        controlRobot(robot, sessions.get(robot));
+    }
 
     /**
      * Main robot control method executed every polling cycle.
      * Manages initialization, exploration, and switching between modes.
      */
-    public void controlRobot(IRobot robot) {
-        if ((robot.getRuns() == 0) && (pollRun == 0)) {
-            robotData = new RobotData();
-            explorerMode = 1; // Initialize in exploration mode
-            explore = 1;
-        } else if (robot.getRuns() != 0 && pollRun == 0) {
-            explore = 0; // Disable exploration after first run
+    public void controlRobot(IRobot robot, Session session) {
+        ControllerEvents.Poll poll = ControllerEvents.beginPoll(); // JFR event, null unless a recording runs
+        if (robot.getRuns() == 0 && session.pollRun == 0) {
+            List<Point> points = waypoints;
+            // A new maze starts a new tour
+            session.tour = points.isEmpty() ? null : new WaypointTour(points, RoutePlanner.byName(planner));
+            session.seals = new DeadEndSeals();
+            session.tremaux = tremaux && session.tour == null ? new TremauxExplorer() : null;
+            session.shortcuts = shortcuts && session.tour == null && session.tremaux == null && !distanceField
+                    ? new ShortcutProbe() : null;
+            session.field = session.tour == null && session.tremaux == null
+                    ? new DistanceField(async ? speculator : null) : null; // The map outlives a moving target
+            session.fieldRuns = distanceField;
+        }
+        if (session.tour != null) {
+            int heading = session.tour.nextHeading(robot, session.pollRun == 0);
+            robot.setHeading(heading);
+            session.pollRun++;
+            endPoll(poll, robot, session, "tour", heading);
+            return;
+        }
+        if (session.tremaux != null) {
+            int heading = session.tremaux.nextHeading(robot, session.pollRun == 0);
+            robot.setHeading(heading);
+            session.pollRun++;
+            endPoll(poll, robot, session, "tremaux", heading);
+            return;
+        }
+        session.seals.observe(robot); // Also tracks the robot's square without allocating
+        if (session.field != null) {
+            int x = session.seals.getX();
+            int y = session.seals.getY();
+            session.field.observe(robot, x, y);
+            if (robot.getRuns() != 0 && session.pollRun == 0) {
+                Point target = robot.getTargetLocation(); // Once per run, as each call returns a new Point
+                session.field.setTarget(target.x, target.y);
+                if (target.x != session.targetX || target.y != session.targetY) {
+                    session.fieldRuns = true; // The junction log leads to the old target, the map leads anywhere
+                }
+            }
+            boolean descend = session.fieldRuns && robot.getRuns() != 0;
+            int heading = descend ? session.field.descend(x, y, session.pollRun == 0) : -1;
+            if (heading == -1 && descend && !session.fieldExploring) heading = session.field.approach(x, y);
+            if (heading != -1) {
+                session.explore = 0;
+                robot.setHeading(heading);
+                session.pollRun++;
+                endPoll(poll, robot, session, "field", heading);
+                return;
+            }
+            if (descend && !session.fieldExploring) { // No frontier to head for, explore until back on the field
+                session.fallback = new TremauxExplorer(); // Unlike the junction log, it can start mid-maze
+                session.fieldExploring = true;
+            }
+        }
+        if (session.shortcuts != null && !session.routeExploring && !session.fieldRuns) {
+            int heading = session.shortcuts.nextHeading(robot, session.pollRun == 0);
+            if (heading != -1) {
+                session.explore = 0;
+                robot.setHeading(heading);
+                session.pollRun++;
+                endPoll(poll, robot, session, "shortcuts", heading);
+                return;
+            }
+            if (robot.getRuns() != 0) { // No route to follow from here, explore until the target
+                session.fallback = new TremauxExplorer(); // Unlike the junction log, it can start mid-maze
+                session.routeExploring = true;
+            }
+        }
+
+        if ((robot.getRuns() == 0) && (session.pollRun == 0)) {
+            startMaze(robot, session);
+            openTrace(session); // A new maze gets a new trace file
+        } else if (robot.getRuns() != 0 && session.pollRun == 0 && !session.fieldExploring && !session.routeExploring) {
+            if (session.relearn) {
+                startExploring(session); // The cached route was wrong, learn this maze properly
+                session.relearn = false;
+            } else {
+                session.explore = 0; // Disable exploration after first run
+            }
+        }
+        if (session.print != null) senseFingerprint(robot, session); // First run of a new maze, cache on
+        int mode = session.explorerMode;
+        int counter = session.robotData.junctionCounter;
+        boolean rewinding = session.cachedRoute && session.rewind > 0;
+        int heading = rewinding ? rewindHeading(session)
+                : session.fallback != null ? session.fallback.nextHeading(robot, false)
+                : mainControl(robot, session); // Determine next move
+        if (session.cachedRoute && !rewinding
+                && (lookHeading(heading, robot) == IRobot.WALL || !replayMatches(robot, session, counter, heading))) {
+            ControllerEvents.routeMismatch(robot, session.fingerprint, heading);
+            routeCache.invalidate(session.fingerprint); // Fingerprint collision, the route belongs to another maze
+            session.cachedRoute = false;
+            session.relearn = true;
+            session.fallback = new TremauxExplorer(); // Unlike the junction log, it can start mid-maze
+            heading = session.fallback.nextHeading(robot, true);
+        }
+        heading = avoidSeals(robot, session, heading); // Never back into a finished dead end
+        if (session.print != null) extendPrefix(session, heading); // Walked back on a cache hit
+        if (session.shortcuts != null && !session.fieldRuns) session.shortcuts.step(robot, heading); // Next route
+        recordDecision(robot, session, heading);
+        robot.setHeading(heading);
+        session.pollRun++; // Increment polling counter
+
+        ControllerEvents.modeChanged(robot, mode, session.explorerMode);
+        String state = session.cachedRoute ? "replay" : session.fallback != null ? "fallback"
+                : session.explorerMode == 1 ? "explore" : "backtrack";
+        endPoll(poll, robot, session, state, heading);
+    }
+
+    /**
+     * Ends and, if it passes the recording's threshold, commits the Poll event of this poll.
+     * mode : What made the decision, e.g. "tour", "field" or, for the junction log, "explore".
+     */
+    private void endPoll(ControllerEvents.Poll poll, IRobot robot, Session session, String mode, int heading) {
+        if (poll == null) return;
+        poll.end();
+        if (poll.shouldCommit()) {
+            poll.describe("GrandFinale", robot, nonWallExits(robot, session.exits).size(), mode, heading);
+            poll.commit();
+        }
+    }
+
+    /**
+     * Prepares for a new maze: starts exploring and, with the route cache on, starts sensing the maze's
+     * fingerprint (see senseFingerprint).
+     */
+    private void startMaze(IRobot robot, Session session) {
+        Point start = robot.getLocation();
+        Point target = robot.getTargetLocation();
+        session.relearn = false;
+        session.targetX = target.x;
+        session.targetY = target.y;
+        session.fingerprinted = false;
+        session.rewind = 0;
+        session.print = routeCache.isEnabled()
+                ? new RouteCache.Fingerprint(start.x, start.y, target.x, target.y, FINGERPRINT_SQUARES) : null;
+        startExploring(session);
+    }
+
+    /**
+     * Adds the square the robot stands on to the fingerprint of a new maze. Once FINGERPRINT_SQUARES squares are
+     * in, looks the maze up: on a hit the robot walks back along its way from the start square to where the cached
+     * route leaves it (joinRoute, rewindHeading) and replays the route from there; on a miss it explores on.
+     */
+    private void senseFingerprint(IRobot robot, Session session) {
+        int walls = wallMask(robot);
+        session.print.addSurroundings(walls);
+        session.prefixWalls[session.rewind] = walls; // The next move on the way starts here
+        if (!session.print.isComplete()) return;
+        session.fingerprint = session.print.value();
+        session.fingerprinted = true;
+        session.print = null;
+
+        int[] route = routeCache.get(session.fingerprint);
+        int counter = route == null || route.length == 0 ? -1 : joinRoute(session, route, robot);
+        if (counter == -1) {
+            if (route != null) routeCache.invalidate(session.fingerprint); // Another maze's, by the walls sensed
+            session.rewind = 0; // A new maze, explore on
+            return;
+        }
+        closeJunctions(session);
+        session.robotData = new RobotData(route);
+        session.robotData.junctionCounter = counter;
+        session.cachedRoute = true;
+        session.explorerMode = 1;
+        session.explore = 0; // Skip exploration, replay the cached route
+    }
+
+    /**
+     * Replays the decisions of a cached route over the way from the start square, whose walls were sensed, to find
+     * the square where the route leaves the way. Sets rewind to the number of moves back to that square.
+     *
+     * route : The cached junction records.
+     * return : The junction counter to replay on with from that square, or -1 if the walls recorded with the route
+     *          differ from those of a square on the way, i.e. the route belongs to another maze.
+     */
+    private int joinRoute(Session session, int[] route, IRobot robot) {
+        int way = session.rewind;
+        int heading = robot.getHeading(); // The robot's last move
+        Point location = robot.getLocation(); // Once per maze, the squares of the way are dead-reckoned from it
+        int x = location.x;
+        int y = location.y;
+        for (int i = way - 1; i >= 0; i--) {
+            x -= LearnedMap.DX[session.prefix[i] - IRobot.NORTH];
+            y -= LearnedMap.DY[session.prefix[i] - IRobot.NORTH];
+        }
+        int counter = 0;
+        int decision = 0; // Last square of the way where the replay decides, i.e. not a straight corridor
+        int decisionCounter = 0;
+        for (int i = 0; i < way; i++) {
+            int walls = session.prefixWalls[i];
+            int before = counter;
+            int next;
+            if (i == 0) {
+                next = route[counter++] & 0xFFFF; // FirstMove
+            } else if (straightCorridor(walls, session.prefix[i - 1])) {
+                next = session.prefix[i - 1];
+            } else {
+                decision = i;
+                decisionCounter = before;
+                if (counter <= route.length && route[counter - 1] >>> 16 != walls) return -1;
+                if (counter < route.length) {
+                    next = route[counter++] & 0xFFFF;
+                } else {
+                    if (counter == route.length) counter++; // Passes the last junction once, as getIntelligentDir
+                    next = lastDir(x, y, session.targetX, session.targetY); // Past the records, head for the target
+                }
+            }
+            if (next != session.prefix[i]) {
+                rewindTo(session, i);
+                return before;
+            }
+            x += LearnedMap.DX[next - IRobot.NORTH];
+            y += LearnedMap.DY[next - IRobot.NORTH];
+        }
+        if (way > 0 && heading != session.prefix[way - 1]
+                && straightCorridor(session.prefixWalls[way], session.prefix[way - 1])) {
+            rewindTo(session, decision); // Came back along a corridor, the replay would carry on backwards
+            return decisionCounter;
+        }
+        session.rewind = 0; // The whole way is on the route
+        return counter;
+    }
+
+    /**
+     * Keeps only the moves of the way that start on or after a square of it, so that rewindHeading walks back to
+     * that square.
+     *
+     * square : The square's index on the way, 0 for the start square.
+     */
+    private static void rewindTo(Session session, int square) {
+        session.rewind -= square;
+        System.arraycopy(session.prefix, square, session.prefix, 0, session.rewind);
+    }
+
+    /**
+     * True if a square with these walls is a corridor that goes straight on from the heading the robot arrived with.
+     */
+    private static boolean straightCorridor(int walls, int arrived) {
+        return Integer.bitCount(walls) == 2 && (walls & 1 << (arrived - IRobot.NORTH)) == 0;
+    }
+
+    /**
+     * Adds a move made while the fingerprint is sensed to the way back to the start square. A move that undoes the
+     * last one, e.g. out of a dead end, takes it off instead, so the way back skips finished branches.
+     */
+    private void extendPrefix(Session session, int heading) {
+        int back = IRobot.NORTH + (heading - IRobot.NORTH + 2) % 4;
+        if (session.rewind > 0 && session.prefix[session.rewind - 1] == back) {
+            session.rewind--;
+        } else {
+            session.prefix[session.rewind++] = heading;
+        }
+    }
+
+    /**
+     * The next move back toward the start square after a cache hit: the reverse of the last move still on the way.
+     */
+    private int rewindHeading(Session session) {
+        int heading = session.prefix[--session.rewind];
+        return IRobot.NORTH + (heading - IRobot.NORTH + 2) % 4;
+    }
+
+    /**
+     * Checks a replayed junction heading against the walls recorded with it. The heading taken at junction i
+     * of the log is record i + 1 (the one after the last junction heads for the target), so the square must have
+     * the walls of record i.
+     *
+     * counter : The junction counter before this poll's decision.
+     * heading : The heading the replay chose.
+     * return : False if the decision took a junction record on a square whose walls differ from the recorded ones,
+     *          or if the replay turned back, e.g. in a dead end.
+     */
+    private boolean replayMatches(IRobot robot, Session session, int counter, int heading) {
+        int back = IRobot.NORTH + (robot.getHeading() - IRobot.NORTH + 2) % 4;
+        if (counter != 0 && heading == back) return false; // A learned route never turns back
+        RobotData data = session.robotData;
+        if (counter == 0 || data.junctionCounter == counter) return true; // The first move, or no record taken
+        return data.wallMask(counter - 1) == wallMask(robot);
+    }
+
+    /**
+     * Clears all junction data and switches to exploration mode.
+     */
+    private void startExploring(Session session) {
+        closeJunctions(session);
+        session.robotData = new RobotData();
+        session.explorerMode = 1; // Initialize in exploration mode
+        session.explore = 1;
+    }
+
+    /**
+     * Releases the spill file and blocks of the junction log that is about to be replaced, if there is one.
+     */
+    private void closeJunctions(Session session) {
+        if (session.robotData != null) session.robotData.junctions.close();
+    }
+
+    /**
+     * Returns the surroundings of the robot as a wall mask, bit i set if heading NORTH + i is a wall.
+     */
+    private int wallMask(IRobot robot) {
+        int mask = 0;
+        for (int i = 0; i < 4; i++) {
+            if (lookHeading(IRobot.NORTH + i, robot) == IRobot.WALL) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Switches tour mode on for mazes started from now on: every run visits all waypoints before the target.
+     * An empty list switches tour mode off.
+     */
+    public void setWaypoints(List<Point> waypoints) {
+        this.waypoints = new ArrayList<>(waypoints);
+    }
+
+    /**
+     * Switches Tremaux exploration on or off for mazes started from now on.
+     */
+    public void setTremaux(boolean tremaux) {
+        this.tremaux = tremaux;
+    }
+
+    /**
+     * Switches shortcut probing on repeat runs on or off for mazes started from now on.
+     */
+    public void setShortcuts(boolean shortcuts) {
+        this.shortcuts = shortcuts;
+    }
+
+    /**
+     * Switches distance-field repeat runs on or off for mazes started from now on.
+     */
+    public void setDistanceField(boolean distanceField) {
+        this.distanceField = distanceField;
+    }
+
+    /**
+     * Switches speculative distance-field descents on or off for mazes started from now on.
+     */
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    /**
+     * Parses waypoints written as "x,y;x,y;...", e.g. from -Dgrandfinale.waypoints.
+     */
+    static List<Point> parseWaypoints(String spec) {
+        List<Point> points = new ArrayList<>();
+        if (spec == null || spec.isBlank()) return points;
+        for (String pair : spec.split(";")) {
+            String[] xy = pair.trim().split(",");
+            points.add(new Point(Integer.parseInt(xy[0].trim()), Integer.parseInt(xy[1].trim())));
         }
-        robot.setHeading(mainControl(robot)); // Determine next move
-        pollRun++; // Increment polling counter
+        return points;
+    }
+
+    /**
+     * Returns the cache of learned routes shared by all GrandFinale instances, e.g. to report its metrics.
+     */
+    public static RouteCache getRouteCache() {
+        return routeCache;
     }
 
     /**
@@ -70,23 +610,25 @@ public class GrandFinale {
      * robot - The robot navigating the maze.
      * return - The direction in which the robot should move.
      */
-    public int mainControl(IRobot robot) {
-        ArrayList<Integer> exits = nonWallExits(robot); // Find open paths
+    public int mainControl(IRobot robot, Session session) {
+        Exits exits = nonWallExits(robot, session.exits); // Find open paths
         int exit = exits.size();
         int direction = 0;
 
-        if (robotData.junctions.size() != 0 || explore == 1) {
-            if (explore == 0 && pollRun == 0) return FirstMove(); // Handle first move post-exploration
+        if (session.robotData.junctions.size() != 0 || session.explore == 1) {
+            if (session.explore == 0 && session.robotData.junctionCounter == 0) {
+                return FirstMove(session); // Handle first move post-exploration, also after a rewind to the start
+            }
             switch (exit) {
                 case 1:
-                    direction = deadend(robot, exits); // Handle dead ends
+                    direction = deadend(robot, session, exits); // Handle dead ends
                     break;
                 case 2:
-                    direction = corridor(robot, exits); // Handle corridors
+                    direction = corridor(robot, session, exits); // Handle corridors
                     break;
                 case 3:
                 case 4:
-                    direction = junctionOrCrossroads(robot, exits); // Handle junctions and crossroads
+                    direction = junctionOrCrossroads(robot, session, exits); // Handle junctions and crossroads
                     break;
             }
         } else {
@@ -96,19 +638,172 @@ public class GrandFinale {
     }
 
     /**
-     * Resets the robot state and clears junction data.
+     * While exploring, keeps the chosen heading out of exits sealed behind finished dead ends (the seals observed
+     * the square at the start of the poll). Kept out of mainControl so that mainControl stays small enough to be
+     * inlined.
+     */
+    private int avoidSeals(IRobot robot, Session session, int heading) {
+        if (session.explore != 1 || session.fallback != null) return heading;
+        return session.seals.isSealed(heading) ? unsealedExit(robot, session, heading) : heading;
+    }
+
+    /**
+     * Replaces a move into a sealed exit: an unexplored passage if there is one, otherwise any exit that is not
+     * sealed, leaving the way the robot came for last.
+     *
+     * sealed : The sealed heading that was chosen.
+     * return : A heading that is not sealed, or the sealed one if every exit is sealed.
+     */
+    private int unsealedExit(IRobot robot, Session session, int sealed) {
+        Exits passage = passageExits(robot, session.passage);
+        for (int i = 0; i < passage.size(); i++) {
+            if (!session.seals.isSealed(passage.get(i))) return passage.get(i);
+        }
+        int coming = IRobot.NORTH + (robot.getHeading() - IRobot.NORTH + 2) % 4;
+        int fallback = sealed;
+        Exits exits = nonWallExits(robot, session.exits);
+        for (int i = 0; i < exits.size(); i++) {
+            int exit = exits.get(i);
+            if (session.seals.isSealed(exit)) continue;
+            if (exit != coming) return exit;
+            fallback = exit;
+        }
+        return fallback;
+    }
+
+    /**
+     * Resets the default session for a new maze run: the environment only drives one robot and names none.
+     * Callers that drive several robots reset each one with reset(Session), so other robots keep their runs.
      */
     public void reset() {
-        pollRun = 0;
-        robotData.resetJunctionCounter();
+        Session session = sessions.getDefault();
+        if (session != null) reset(session);
+    }
+
+    /**
+     * Forgets a robot that will not be driven again, closing its trace and any spilled junction blocks.
+     */
+    public void endSession(IRobot robot) {
+        Session session = sessions.remove(robot);
+        if (session == null) return;
+        closeJunctions(session);
+        if (session.trace != null) {
+            try {
+                session.trace.close();
+            } catch (IOException e) {
+                stopTracing(session, e);
+            }
+        }
+    }
+
+    /**
+     * Heap bytes retained by every session of this controller, for sizing heaps of large batches.
+     */
+    public MemoryFootprint memoryFootprint() {
+        MemoryFootprint footprint = new MemoryFootprint().add("sessionTable", sessions.retainedBytes());
+        sessions.forEach(session -> footprint.add(memoryFootprint(session)));
+        return footprint;
+    }
+
+    /**
+     * Heap bytes retained by one session: the session object, its junction log, its dead-end seals, its learned map
+     * and distance field (except in tour and Tremaux modes) and, in those modes, its waypoint tour, Tremaux marks or
+     * probed route. The shared route cache is not included.
+     */
+    public MemoryFootprint memoryFootprint(Session session) {
+        MemoryFootprint footprint = new MemoryFootprint()
+                .add("session", MemoryFootprint.object(6 * 4 + 8 + 6 + 13 * MemoryFootprint.REFERENCE)
+                        + 2 * (MemoryFootprint.object(MemoryFootprint.REFERENCE + 4) + MemoryFootprint.array(4, 4))
+                        + 2 * MemoryFootprint.array(FINGERPRINT_SQUARES, 4));
+        if (session.print != null) footprint.add("fingerprint", MemoryFootprint.object(4 + 4 + 8));
+        if (session.robotData != null) {
+            footprint.add("junctions", session.robotData.retainedBytes()).junctions(session.robotData.junctions.size());
+        }
+        if (session.seals != null) footprint.add("seals", session.seals.retainedBytes());
+        if (session.tour != null) footprint.add("tour", session.tour.retainedBytes());
+        if (session.tremaux != null) footprint.add("tremaux", session.tremaux.retainedBytes());
+        if (session.fallback != null) footprint.add("fallback", session.fallback.retainedBytes());
+        if (session.field != null) footprint.add("field", session.field.retainedBytes());
+        if (session.shortcuts != null) footprint.add("shortcuts", session.shortcuts.retainedBytes());
+        return footprint;
+    }
+
+    /**
+     * Resets a session's state and clears junction data.
+     */
+    public void reset(Session session) {
+        if (session.tour != null) {
+            session.tour.reset();
+            session.pollRun = 0;
+            return;
+        }
+        if (session.tremaux != null) {
+            session.pollRun = 0; // The next poll starts the run, see TremauxExplorer.nextHeading
+            return;
+        }
+        if (session.explore == 1 && session.pollRun != 0 && session.fingerprinted && !session.relearn
+                && !session.fieldExploring && !session.routeExploring) {
+            routeCache.put(session.fingerprint, session.robotData.toRoute()); // Share the freshly learned route
+        }
+        if (session.field != null) session.field.endRun(); // A speculative field starts rebuilding now
+        session.cachedRoute = false;
+        session.print = null; // A first run shorter than the fingerprint leaves its maze uncached
+        session.fallback = null; // The next run starts on the start square, where the junction log works again
+        if (session.relearn) session.seals = new DeadEndSeals(); // Relearning explores like a first run, unsealed
+        session.fieldExploring = false;
+        session.routeExploring = false;
+        session.pollRun = 0;
+        session.robotData.resetJunctionCounter();
+        if (session.trace != null) {
+            try {
+                session.trace.flush(); // Each finished run is on disk before the next one starts
+            } catch (IOException e) {
+                stopTracing(session, e);
+            }
+        }
+    }
+
+    /**
+     * Starts a new decision trace when tracing is enabled with -Dgrandfinale.trace=directory.
+     * Any trace of a previous maze is closed first.
+     */
+    private void openTrace(Session session) {
+        if (traceDir == null) return;
+        try {
+            if (session.trace != null) session.trace.close();
+            session.trace = new DecisionTrace(Paths.get(traceDir, "maze-" + tracedMazes.getAndIncrement() + ".trace"));
+        } catch (IOException e) {
+            stopTracing(session, e);
+        }
+    }
+
+    /**
+     * Appends the decision that was just made to the trace, if tracing is enabled.
+     */
+    private void recordDecision(IRobot robot, Session session, int heading) {
+        if (session.trace == null) return;
+        try {
+            int exits = nonWallExits(robot, session.exits).size();
+            session.trace.record(robot.getRuns(), robot.getLocation().x, robot.getLocation().y, heading, exits);
+        } catch (IOException e) {
+            stopTracing(session, e);
+        }
+    }
+
+    /**
+     * Turns tracing off after an I/O failure; the robot itself keeps running.
+     */
+    private void stopTracing(Session session, IOException e) {
+        System.err.println("Decision tracing disabled: " + e.getMessage());
+        session.trace = null;
     }
 
     /**
      * Retrieves the first recorded junction after backtracking.
      */
-    private int FirstMove() {
-        robotData.junctionCounter++;
-        return robotData.junctions.get(0);
+    private int FirstMove(Session session) {
+        session.robotData.junctionCounter++;
+        return session.robotData.heading(0);
     }
 
     /**
@@ -125,9 +820,9 @@ public class GrandFinale {
     /**
      * Handles dead-end scenarios by forcing the robot to turn around.
      */
-    private int deadend(IRobot robot, ArrayList<Integer> exits) {
-        if (pollRun != 0 && explore == 1) {
-            explorerMode = 0; // Enable backtracking after first move
+    private int deadend(IRobot robot, Session session, Exits exits) {
+        if (session.pollRun != 0 && session.explore == 1) {
+            session.explorerMode = 0; // Enable backtracking after first move
         }
         return exits.get(0);
     }
@@ -144,14 +839,17 @@ public class GrandFinale {
      * heading : Current heading of the robot.
      * return : The next direction to move based on the current situation.
      */
-    private int noPassage(IRobot robot, ArrayList<Integer> exits, int mode, int coming, int passageSize, int heading) {
-        if (explorerMode == 1) {
-            explorerMode = 0; // Switch to backtrack mode
+    private int noPassage(IRobot robot, Session session, Exits exits, int mode, int coming, int passageSize, int heading) {
+        if (session.explorerMode == 1) {
+            session.explorerMode = 0; // Switch to backtrack mode
             return coming; // Return in the direction the robot came from
+        } else if (session.robotData.junctions.isEmpty()) {
+            session.explorerMode = 1; // Nothing left to backtrack to, explore on through any exit
+            return exits.get(chooseRandomIndex(session, exits.size()));
         } else {
-            int dir2 = robotData.junctions.get(robotData.junctions.size() - 1);
+            int dir2 = session.robotData.pop(); // Remove last recorded junction
+            ControllerEvents.junction("popped", dir2, session.robotData.junctions.size());
             int dir = IRobot.NORTH + (((dir2 - IRobot.NORTH) + 2) % 4 + 4) % 4;
-            robotData.junctions.remove(robotData.junctions.size() - 1); // Remove last recorded junction
             return dir; // Return reversed direction
         }
     }
@@ -161,26 +859,26 @@ public class GrandFinale {
      * If the robot is exploring, it prioritizes unexplored passages. If no passages are found,
      * it switches to backtracking using the `noPassage` method. Otherwise, it backtracks intelligently.
      */
-    private int junctionOrCrossroads(IRobot robot, ArrayList<Integer> exits) {
-        if (explore == 1) {
+    private int junctionOrCrossroads(IRobot robot, Session session, Exits exits) {
+        if (session.explore == 1) {
             int heading = robot.getHeading(); // Store current heading
-            ArrayList<Integer> passage = passageExits(robot); // Find unexplored passages
+            Exits passage = passageExits(robot, session.passage); // Find unexplored passages
             int passageSize = passage.size();
 
-            // Record new junctions if exploring
-            if (explorerMode == 1 && passageSize >= 1 && pollRun != 0) {
-                neverBefore(robot, heading); // Save unexplored junction
+            // Record new junctions if exploring, or if backtracking took the robot back past the start
+            if (recording(session) && passageSize >= 1 && session.pollRun != 0) {
+                neverBefore(robot, session, heading); // Save unexplored junction
             }
 
             if (passageSize != 0) {
-                explorerMode = 1; // Continue exploration
-                return passage.get(chooseRandomIndex(passageSize)); // Randomly choose a passage
+                session.explorerMode = 1; // Continue exploration
+                return passage.get(chooseRandomIndex(session, passageSize)); // Randomly choose a passage
             } else {
                 // No passages found, begin backtracking
-                return noPassage(robot, exits, 1, IRobot.NORTH + (((robot.getHeading() - IRobot.NORTH) + 2) % 4 + 4) % 4, passageSize, heading);
+                return noPassage(robot, session, exits, 1, IRobot.NORTH + (((robot.getHeading() - IRobot.NORTH) + 2) % 4 + 4) % 4, passageSize, heading);
             }
         } else {
-            return getIntelligentDir(robot); // Switch to intelligent backtracking
+            return getIntelligentDir(robot, session); // Switch to intelligent backtracking
         }
     }
 
@@ -191,32 +889,48 @@ public class GrandFinale {
      *
      * return - The next intelligent direction.
      */
-    private int getIntelligentDir(IRobot robot) {
-        if (robotData.junctionCounter < robotData.junctions.size()) {
-            int dir = robotData.junctions.get(robotData.junctionCounter); // Get next junction
-            robotData.junctionCounter++; // Increment counter
+    private int getIntelligentDir(IRobot robot, Session session) {
+        if (session.robotData.junctionCounter < session.robotData.junctions.size()) {
+            int dir = session.robotData.heading(session.robotData.junctionCounter); // Get next junction
+            session.robotData.junctionCounter++; // Increment counter
             return dir;
         } else {
+            if (session.robotData.junctionCounter == session.robotData.junctions.size()) {
+                session.robotData.junctionCounter++; // Passes the last junction once, so that its walls are checked
+            }
             return lastDir(robot); // Move toward the target if all junctions are explored
         }
     }
 
+    /**
+     * True if a junction or corner with unexplored passages is a new one to record. While backtracking the robot
+     * only comes back to recorded junctions, except once every record is popped: then it has walked back to the
+     * start, and the next junction past the start is new and must become record 0, the first move of every replay.
+     * The start square itself is never recorded, as replays leave it with record 0.
+     */
+    private boolean recording(Session session) {
+        return session.explorerMode == 1 || session.robotData.junctions.isEmpty() && !session.seals.isAtStart();
+    }
+
     /**
      * Records a previously unexplored junction for backtracking purposes.
      * Increments the junction counter after saving the heading.
      *
      * heading : The direction from which the robot entered the junction.
      */
-    private void neverBefore(IRobot robot, int heading) {
-        robotData.add(heading); // Save current heading
-        robotData.junctionCounter++; // Increment counter
+    private void neverBefore(IRobot robot, Session session, int heading) {
+        session.robotData.add(heading, wallMask(robot)); // Save current heading and the junction's walls
+        ControllerEvents.junction("recorded", heading, session.robotData.junctions.size());
+        session.robotData.junctionCounter++; // Increment counter
     }
 
     /**
-     * Randomly selects an available index from a list of options.
+     * Randomly selects an available index from a list of options. While the fingerprint of a new maze is sensed
+     * it is always the first, so that the same maze always shows the same squares.
      */
-    private int chooseRandomIndex(int n) {
-        return (int) (Math.random() * n); // Generate a random index
+    private int chooseRandomIndex(Session session, int n) {
+        if (session.print != null) return 0;
+        return (int) (ControllerRandom.nextDouble() * n); // Generate a random index
     }
 
     /**
@@ -224,11 +938,20 @@ public class GrandFinale {
      * Considers both x and y coordinates of the robot and the target.
      */
     private int lastDir(IRobot robot) {
-        if (robot.getLocation().x < robot.getTargetLocation().x) {
+        Point location = robot.getLocation(); // One call each, as both return a new Point
+        Point target = robot.getTargetLocation();
+        return lastDir(location.x, location.y, target.x, target.y);
+    }
+
+    /**
+     * Determines the direction from a square toward the target, as lastDir(IRobot) does for the robot's square.
+     */
+    private static int lastDir(int x, int y, int targetX, int targetY) {
+        if (x < targetX) {
             return IRobot.EAST; // Move east if target is further right
-        } else if (robot.getLocation().x > robot.getTargetLocation().x) {
+        } else if (x > targetX) {
             return IRobot.WEST; // Move west if target is further left
-        } else if (robot.getLocation().y < robot.getTargetLocation().y) {
+        } else if (y < targetY) {
             return IRobot.SOUTH; // Move south if target is further down
         } else {
             return IRobot.NORTH; // Move north if target is further up
@@ -239,9 +962,9 @@ public class GrandFinale {
      * Handles movement through a corridor by deciding the appropriate direction based on available exits.
      * If the robot finds unexplored passages, it continues exploring. Otherwise, it backtracks or chooses randomly.
      */
-    private int corridor(IRobot robot, ArrayList<Integer> exits) {
+    private int corridor(IRobot robot, Session session, Exits exits) {
         int heading = robot.getHeading(); // Store current heading
-        ArrayList<Integer> passage = passageExits(robot); // Find unexplored passages
+        Exits passage = passageExits(robot, session.passage); // Find unexplored passages
         int coming = IRobot.NORTH + (((robot.getHeading() - IRobot.NORTH) + 2) % 4 + 4) % 4;
         int indexGo = exits.indexOf(coming); // Index of the direction the robot came from
         int going = exits.indexOf(robot.getHeading()); // Current heading index
@@ -252,41 +975,41 @@ public class GrandFinale {
         int indexEast = exits.indexOf(IRobot.EAST);
         int indexWest = exits.indexOf(IRobot.WEST);
 
-        if (explore == 1) {
+        if (session.explore == 1) {
             int indexTo = exits.indexOf(heading); // Current heading's index in exits
             int passageSize = passage.size();
 
             // Check if robot is in a corridor (two opposite directions exist)
             if ((indexNorth != -1 && indexSouth != -1) || (indexEast != -1 && indexWest != -1)) {
                 if (indexTo != -1) {
-                    if (passageSize >= 1 || explorerMode == 0) {
+                    if (passageSize >= 1 || session.explorerMode == 0) {
                         exits.remove(indexGo); // Remove the coming direction
                         return exits.get(0); // Move in the other direction
                     } else {
-                        explorerMode = 0; // Backtrack if no passage exists
+                        session.explorerMode = 0; // Backtrack if no passage exists
                         return coming;
                     }
                 } else {
-                    return exits.get(chooseRandomIndex(2)); // Choose randomly if heading not found
+                    return exits.get(chooseRandomIndex(session, 2)); // Choose randomly if heading not found
                 }
             }
 
-            if (pollRun == 0) {
-                return exits.get(chooseRandomIndex(2)); // Random choice on first move
+            if (session.pollRun == 0) {
+                return exits.get(chooseRandomIndex(session, 2)); // Random choice on first move
             }
 
             // If the robot is exploring and a new passage is found, record the corner
-            if (explorerMode == 1 && passageSize >= 1 && pollRun != 0) {
-                neverBefore(robot, heading); // Record new junction
+            if (recording(session) && passageSize >= 1 && session.pollRun != 0) {
+                neverBefore(robot, session, heading); // Record new junction
             }
 
             // If the robot finds a passage, move forward and remove the coming direction
             if (passageSize >= 1) {
-                explorerMode = 1;
+                session.explorerMode = 1;
                 exits.remove(indexGo);
                 return exits.get(0);
             } else {
-                return noPassage(robot, exits, 1, coming, passageSize, heading); // Handle no passage scenario
+                return noPassage(robot, session, exits, 1, coming, passageSize, heading); // Handle no passage scenario
             }
         } else if (going != -1) {
             if (indexGo != -1) {
@@ -294,7 +1017,7 @@ public class GrandFinale {
             }
             return exits.get(0); // Continue through the corridor
         } else {
-            return getIntelligentDir(robot); // Intelligent backtracking in complex cases
+            return getIntelligentDir(robot, session); // Intelligent backtracking in complex cases
         }
     }
 
@@ -312,10 +1035,10 @@ public class GrandFinale {
 
     /**
      * Finds all unexplored passages from the robot's current location.
-     * return : A list of directions containing passages.
+     * return : The given list, refilled with the directions containing passages.
      */
-    private ArrayList<Integer> passageExits(IRobot robot) {
-        ArrayList<Integer> passage = new ArrayList<>();
+    private Exits passageExits(IRobot robot, Exits passage) {
+        passage.clear();
         for (int i = 0; i < 4; i++) {
             int direction = IRobot.NORTH + i;
             if (lookHeading(direction, robot) == IRobot.PASSAGE) {
@@ -327,10 +1050,10 @@ public class GrandFinale {
 
     /**
      * Finds all available exits that are not walls from the robot's current location.
-     * return : A list of directions where no walls exist.
+     * return : The given list, refilled with the directions where no walls exist.
      */
-    private ArrayList<Integer> nonWallExits(IRobot robot) {
-        ArrayList<Integer> exits = new ArrayList<>();
+    private Exits nonWallExits(IRobot robot, Exits exits) {
+        exits.clear();
         for (int i = 0; i < 4; i++) {
             int direction = IRobot.NORTH + i;
             int noWall = noWallAhead(direction, robot);
@@ -344,12 +1067,48 @@ public class GrandFinale {
 }
 /**
  * Class to store robot navigation data.
+ * Each junction record holds the heading in its low 16 bits and the wall mask of the junction's square above them.
  */
 class RobotData {
     private static final int maxJunctions = 10000;
-    public ArrayList<Integer> junctions = new ArrayList<>();
+    public SpillStack junctions = SpillStack.create(1); // Junction headings, spilled to disk in bounded-memory mode
     public int junctionCounter = 0;
 
+    /**
+     * Creates empty navigation data.
+     */
+    public RobotData() {
+    }
+
+    /**
+     * Creates navigation data from a previously learned route.
+     *
+     * route : The junction records, in the order they were recorded (see toRoute).
+     */
+    public RobotData(int[] route) {
+        for (int heading : route) {
+            junctions.push(heading);
+        }
+    }
+
+    /**
+     * Copies the junction records (headings and wall masks) into an array, e.g. for the route cache.
+     */
+    public int[] toRoute() {
+        int[] route = new int[(int) junctions.size()];
+        for (int i = 0; i < route.length; i++) {
+            route[i] = junctions.get(i);
+        }
+        return route;
+    }
+
+    /**
+     * Heap bytes of the junction log.
+     */
+    public long retainedBytes() {
+        return MemoryFootprint.object(MemoryFootprint.REFERENCE + 4) + junctions.retainedBytes();
+    }
+
     /**
      * Resets the junction counter to zero.
      */
@@ -361,8 +1120,31 @@ class RobotData {
      * Adds a newly discovered junction.
      *
      * arrived : The heading from which the robot arrived.
+     * wallMask : The walls around the junction, bit i set if heading NORTH + i is a wall.
+     */
+    public void add(int arrived, int wallMask) {
+        this.junctions.push(arrived | wallMask << 16);
+    }
+
+    /**
+     * The heading of a junction record.
+     */
+    public int heading(long index) {
+        return junctions.get(index) & 0xFFFF;
+    }
+
+    /**
+     * The wall mask of a junction record's square.
+     */
+    public int wallMask(long index) {
+        return junctions.get(index) >>> 16;
+    }
+
+    /**
+     * Removes the last junction record.
+     * return : Its heading.
      */
-    public void add(int arrived) {
-        this.junctions.add(arrived);
+    public int pop() {
+        return junctions.pop() & 0xFFFF;
     }
 }
@@ -0,0 +1,356 @@
+/**
+ * Jump Point Planner Preamble
+ *
+ * On mazes with large rooms, breadth-first search expands every open square closer than the goal, so each route
+ * on a 2000 x 2000 map costs millions of expansions. Most of those squares lie on one of many equally short
+ * routes, and Jump Point Search only expands one of them.
+ *
+ * **Canonical routes:** Every shortest route on a 4-connected grid can be rearranged so that it only turns from
+ * horizontal to vertical where it has to, i.e. just past the end of a wall beside it (a "forced" turn). From
+ * vertical it may turn to horizontal anywhere. The search only follows routes of this form:
+ * - A horizontal jump runs along a row until it is blocked, reaches the goal, or passes a square whose neighbour
+ *   above or below is open while the one behind it was not. That square is a jump point.
+ * - A vertical jump runs along a column and stops at the first square from which a horizontal jump, east or west,
+ *   would find a jump point.
+ * Only jump points go on the open list of an A* search with the Manhattan distance as heuristic, so the route
+ * lengths are the same as breadth-first search.
+ *
+ * **Row scanning:** A horizontal jump reads LearnedMap's bitset of OPEN squares 64 squares at a time: the walls,
+ * the forced squares and the goal of one word are combined with a few shifts, and the first one is found with a
+ * single bit count. Walls and unknown squares are both not open, so routes only use squares the robot has seen.
+ * The square a route must avoid is masked out of the words the planner reads (open, openWord), so the shared map
+ * and its listeners never see it.
+ *
+ * The planner keeps its search arrays between calls and clears them with a generation stamp, so one planner must
+ * not be shared between threads.
+ *
+ * Usage (benchmark against breadth-first search on random room maps):
+ *   java JumpPointPlanner size rooms routes seed
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.util.Random;
+
+/**
+ * Jump Point Search (4-connected) on a learned map.
+ */
+public class JumpPointPlanner implements RoutePlanner {
+    private static final int EAST = 1; // Headings as indices of LearnedMap.DX and DY
+    private static final int WEST = 3;
+    private static final int NORTH = 0;
+    private static final int SOUTH = 2;
+    private static final byte START = 4; // Arrival of the start square: every direction is open to it
+
+    private LearnedMap map;
+    private int width;
+    private int goalX, goalY;
+    private int blockedX = -1, blockedY = -1; // The square the current route avoids, -1 for none
+
+    private int[] cost = new int[0]; // Shortest known distance per square index
+    private int[] parent = new int[0]; // Square index of the previous jump point
+    private byte[] arrival = new byte[0]; // Heading of the jump that reached each square
+    private int[] seen = new int[0]; // Generation in which a square was reached, negated once it is expanded
+    private int generation = 0;
+
+    private long[] heap = new long[64]; // Open list: f cost in the high half, square index in the low half
+    private int heapSize;
+
+    @Override
+    public int[] route(LearnedMap map, int fromX, int fromY, int toX, int toY, int avoidX, int avoidY) {
+        if (!map.isOpen(fromX, fromY) || !map.isOpen(toX, toY)) return null;
+        boolean avoid = map.isOpen(avoidX, avoidY) && (avoidX != fromX || avoidY != fromY)
+                && (avoidX != toX || avoidY != toY);
+        blockedX = avoid ? avoidX : -1; // Hidden from the search only, the map is left as it is
+        blockedY = avoid ? avoidY : -1;
+        try {
+            return search(map, fromX, fromY, toX, toY);
+        } finally {
+            this.map = null;
+        }
+    }
+
+    /**
+     * Heap bytes of the search arrays kept between routes.
+     */
+    @Override
+    public long retainedBytes() {
+        return MemoryFootprint.object(6 * MemoryFootprint.REFERENCE + 7 * 4) + 3 * MemoryFootprint.array(seen.length, 4)
+                + MemoryFootprint.array(arrival.length, 1) + MemoryFootprint.array(heap.length, 8);
+    }
+
+    /**
+     * A* over jump points.
+     */
+    private int[] search(LearnedMap map, int fromX, int fromY, int toX, int toY) {
+        this.map = map;
+        this.width = map.getWidth();
+        this.goalX = toX;
+        this.goalY = toY;
+        begin(width * map.getHeight());
+
+        int start = map.index(fromX, fromY);
+        int goal = map.index(toX, toY);
+        heapSize = 0;
+        reach(start, 0, start, START, fromX, fromY);
+        while (heapSize > 0) {
+            int cell = (int) pop();
+            if (seen[cell] != generation) continue; // Already expanded from a shorter entry
+            seen[cell] = -generation;
+            if (cell == goal) return unwind(start, goal);
+            int x = cell % width;
+            int y = cell / width;
+            int a = arrival[cell];
+            if (a == START) {
+                for (int h = 0; h < 4; h++) {
+                    jump(cell, x, y, h);
+                }
+            } else if (a == EAST || a == WEST) {
+                int dx = a == EAST ? 1 : -1;
+                jump(cell, x, y, a);
+                if (open(x, y - 1) && !open(x - dx, y - 1)) jump(cell, x, y, NORTH);
+                if (open(x, y + 1) && !open(x - dx, y + 1)) jump(cell, x, y, SOUTH);
+            } else {
+                jump(cell, x, y, a);
+                jump(cell, x, y, EAST);
+                jump(cell, x, y, WEST);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * True if a square is OPEN on the map and is not the avoided square.
+     */
+    private boolean open(int x, int y) {
+        return map.isOpen(x, y) && (x != blockedX || y != blockedY);
+    }
+
+    /**
+     * Word w of row y of the map's OPEN bitset, with the avoided square cleared.
+     */
+    private long openWord(int y, int w) {
+        long word = map.openWord(y, w);
+        return y == blockedY && w == blockedX >>> 6 ? word & ~(1L << blockedX) : word;
+    }
+
+    /**
+     * Jumps from a square in one direction and puts the jump point found, if any, on the open list.
+     */
+    private void jump(int cell, int x, int y, int h) {
+        int jx = x;
+        int jy = y;
+        if (h == EAST || h == WEST) {
+            jx = jumpHorizontal(x, y, h == EAST ? 1 : -1);
+            if (jx < 0) return;
+        } else {
+            jy = jumpVertical(x, y, h == SOUTH ? 1 : -1);
+            if (jy < 0) return;
+        }
+        reach(map.index(jx, jy), cost[cell] + Math.abs(jx - x) + Math.abs(jy - y), cell, (byte) h, jx, jy);
+    }
+
+    /**
+     * Records a route to a square if it is the shortest so far.
+     */
+    private void reach(int cell, int g, int from, byte h, int x, int y) {
+        if (seen[cell] == -generation) return; // Expanded already
+        if (seen[cell] == generation && cost[cell] <= g) return;
+        seen[cell] = generation;
+        cost[cell] = g;
+        parent[cell] = from;
+        arrival[cell] = h;
+        push(((long) (g + Math.abs(goalX - x) + Math.abs(goalY - y)) << 32) | cell);
+    }
+
+    /**
+     * Scans row y from x in direction dx, a word of the OPEN bitset at a time.
+     * return : The x of the first jump point, or -1 if a wall or the edge of the map comes first.
+     */
+    int jumpHorizontal(int x, int y, int dx) {
+        int words = map.getWordsPerRow();
+        int goalWord = y == goalY ? goalX >>> 6 : -1;
+        if (dx > 0) {
+            for (int w = (x + 1) >>> 6, from = (x + 1) & 63; w < words; w++, from = 0) {
+                long open = openWord(y, w);
+                long up = openWord(y - 1, w);
+                long down = openWord(y + 1, w);
+                // Square i is forced if the square above (or below) it is open and the one before that is not
+                long upBehind = (up << 1) | (openWord(y - 1, w - 1) >>> 63);
+                long downBehind = (down << 1) | (openWord(y + 1, w - 1) >>> 63);
+                long events = ~open | (up & ~upBehind) | (down & ~downBehind);
+                if (w == goalWord) events |= 1L << goalX;
+                events &= -1L << from;
+                if (events != 0) {
+                    int bit = Long.numberOfTrailingZeros(events);
+                    return (open >>> bit & 1) != 0 ? (w << 6) + bit : -1;
+                }
+            }
+        } else {
+            for (int w = (x - 1) >> 6, to = (x - 1) & 63; w >= 0; w--, to = 63) {
+                long open = openWord(y, w);
+                long up = openWord(y - 1, w);
+                long down = openWord(y + 1, w);
+                long upBehind = (up >>> 1) | (openWord(y - 1, w + 1) << 63);
+                long downBehind = (down >>> 1) | (openWord(y + 1, w + 1) << 63);
+                long events = ~open | (up & ~upBehind) | (down & ~downBehind);
+                if (w == goalWord) events |= 1L << goalX;
+                events &= -1L >>> (63 - to);
+                if (events != 0) {
+                    int bit = 63 - Long.numberOfLeadingZeros(events);
+                    return (open >>> bit & 1) != 0 ? (w << 6) + bit : -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Walks column x from y in direction dy until a horizontal jump from the square would find a jump point.
+     * return : The y of that square, or -1 if a wall comes first.
+     */
+    int jumpVertical(int x, int y, int dy) {
+        for (int cy = y + dy; open(x, cy); cy += dy) {
+            if (cy == goalY && x == goalX) return cy;
+            if (jumpHorizontal(x, cy, 1) >= 0 || jumpHorizontal(x, cy, -1) >= 0) return cy;
+        }
+        return -1;
+    }
+
+    /**
+     * Expands the chain of jump points back from the goal into single-square headings.
+     */
+    private int[] unwind(int start, int goal) {
+        int[] headings = new int[cost[goal]];
+        int i = headings.length;
+        for (int cell = goal; cell != start; cell = parent[cell]) {
+            int from = parent[cell];
+            int steps = Math.abs(cell % width - from % width) + Math.abs(cell / width - from / width);
+            for (int s = 0; s < steps; s++) {
+                headings[--i] = IRobot.NORTH + arrival[cell];
+            }
+        }
+        return headings;
+    }
+
+    /**
+     * Starts a new search over a map of the given number of squares.
+     */
+    private void begin(int squares) {
+        if (seen.length < squares) {
+            cost = new int[squares];
+            parent = new int[squares];
+            arrival = new byte[squares];
+            seen = new int[squares];
+            generation = 0;
+        }
+        if (++generation == Integer.MAX_VALUE) { // Stamps would wrap, so clear them
+            java.util.Arrays.fill(seen, 0);
+            generation = 1;
+        }
+    }
+
+    private void push(long entry) {
+        if (heapSize == heap.length) heap = java.util.Arrays.copyOf(heap, heapSize * 2);
+        int i = heapSize++;
+        while (i > 0 && heap[(i - 1) >>> 1] > entry) {
+            heap[i] = heap[(i - 1) >>> 1];
+            i = (i - 1) >>> 1;
+        }
+        heap[i] = entry;
+    }
+
+    /**
+     * Removes the entry with the smallest f cost.
+     * return : Its square index.
+     */
+    private long pop() {
+        long top = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        while (2 * i + 1 < heapSize) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heap[child + 1] < heap[child]) child++;
+            if (heap[child] >= last) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return top & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Builds a fully known size x size map of random rectangular rooms, each with a door in every side.
+     */
+    static LearnedMap roomMap(int size, int rooms, Random random) {
+        LearnedMap map = new LearnedMap();
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                boolean border = x == 0 || y == 0 || x == size - 1 || y == size - 1;
+                map.set(x, y, border ? LearnedMap.WALL : LearnedMap.OPEN);
+            }
+        }
+        for (int r = 0; r < rooms; r++) {
+            int w = 4 + random.nextInt(Math.max(1, size / 8));
+            int h = 4 + random.nextInt(Math.max(1, size / 8));
+            int left = random.nextInt(Math.max(1, size - w - 1));
+            int top = random.nextInt(Math.max(1, size - h - 1));
+            for (int i = 0; i <= w; i++) {
+                map.set(left + i, top, LearnedMap.WALL);
+                map.set(left + i, top + h, LearnedMap.WALL);
+            }
+            for (int i = 0; i <= h; i++) {
+                map.set(left, top + i, LearnedMap.WALL);
+                map.set(left + w, top + i, LearnedMap.WALL);
+            }
+            map.set(left + 1 + random.nextInt(w - 1), top, LearnedMap.OPEN);
+            map.set(left + 1 + random.nextInt(w - 1), top + h, LearnedMap.OPEN);
+            map.set(left, top + 1 + random.nextInt(h - 1), LearnedMap.OPEN);
+            map.set(left + w, top + 1 + random.nextInt(h - 1), LearnedMap.OPEN);
+        }
+        return map;
+    }
+
+    /**
+     * Compares route lengths and times with breadth-first search between random pairs of open squares of a
+     * random room map.
+     */
+    public static void main(String[] args) {
+        int size = Integer.parseInt(args[0]);
+        int rooms = Integer.parseInt(args[1]);
+        int routes = Integer.parseInt(args[2]);
+        Random random = new Random(Long.parseLong(args[3]));
+        LearnedMap map = roomMap(size, rooms, random);
+
+        JumpPointPlanner jps = new JumpPointPlanner();
+        long bfsTime = 0;
+        long jpsTime = 0;
+        int found = 0;
+        for (int r = 0; r < routes; r++) {
+            int fromX, fromY, toX, toY;
+            do {
+                fromX = random.nextInt(size);
+                fromY = random.nextInt(size);
+            } while (!map.isOpen(fromX, fromY));
+            do {
+                toX = random.nextInt(size);
+                toY = random.nextInt(size);
+            } while (!map.isOpen(toX, toY));
+            long t0 = System.nanoTime();
+            int[] bfs = map.route(fromX, fromY, toX, toY, -1, -1);
+            long t1 = System.nanoTime();
+            int[] jump = jps.route(map, fromX, fromY, toX, toY, -1, -1);
+            long t2 = System.nanoTime();
+            bfsTime += t1 - t0;
+            jpsTime += t2 - t1;
+            int bfsLength = bfs == null ? -1 : bfs.length;
+            int jpsLength = jump == null ? -1 : jump.length;
+            if (bfsLength != jpsLength) {
+                throw new IllegalStateException("Route " + r + " from (" + fromX + "," + fromY + ") to (" + toX + ","
+                        + toY + "): breadth-first " + bfsLength + ", jump point " + jpsLength);
+            }
+            if (bfs != null) found++;
+        }
+        System.out.printf("%d routes (%d found), same lengths. Breadth-first %.1fms, jump point %.1fms per route (%.0fx)%n",
+                routes, found, bfsTime / 1e6 / routes, jpsTime / 1e6 / routes, (double) bfsTime / Math.max(1, jpsTime));
+    }
+}
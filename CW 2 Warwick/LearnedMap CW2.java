@@ -0,0 +1,269 @@
+/**
+ * Learned Map Preamble
+ *
+ * The CW2 controllers only remember junction headings, which is enough to retrace one route but not to plan a
+ * different one. LearnedMap is an occupancy grid of what the robot has sensed so far: every square is UNKNOWN,
+ * WALL or OPEN, one byte per square. observe() records the square the robot stands on and its four neighbours.
+ * The maze size is not known in advance, so the grid starts empty and doubles in each direction as needed.
+ *
+ * Planning runs on this map with a breadth-first search over OPEN squares, so routes only use squares the robot
+ * has actually seen. The search can avoid one square, e.g. the target, which ends a run as soon as it is entered.
+ * Alongside the bytes, the OPEN squares are kept as one bitset per row (64 squares per long), so planners such as
+ * JumpPointPlanner can scan a row a word at a time. Listeners are told about every square whose state changes,
+ * so planners that precompute data over the map (ClusterPlanner) can invalidate only what a change touches.
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Growable occupancy grid of the squares a robot has sensed.
+ */
+public class LearnedMap {
+    public static final byte UNKNOWN = 0;
+    public static final byte WALL = 1;
+    public static final byte OPEN = 2;
+
+    static final int[] DX = {0, 1, 0, -1}; // x step for NORTH, EAST, SOUTH, WEST
+    static final int[] DY = {-1, 0, 1, 0}; // y step for NORTH, EAST, SOUTH, WEST
+
+    private byte[] cells = new byte[0];
+    private long[] openBits = new long[0]; // Bit x % 64 of word y * wordsPerRow + x / 64 is set if (x, y) is OPEN
+    private int wordsPerRow = 0;
+    private int width = 0;
+    private int height = 0;
+    private final List<Listener> listeners = new ArrayList<>();
+
+    /**
+     * Receives the squares whose state changes.
+     */
+    public interface Listener {
+        void changed(int x, int y);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * State of a square. Negative coordinates are outside every maze and count as WALL.
+     */
+    public byte get(int x, int y) {
+        if (x < 0 || y < 0) return WALL;
+        if (x >= width || y >= height) return UNKNOWN;
+        return cells[y * width + x];
+    }
+
+    public boolean isOpen(int x, int y) {
+        return get(x, y) == OPEN;
+    }
+
+    public void set(int x, int y, byte state) {
+        if (x < 0 || y < 0) return;
+        if (x >= width || y >= height) grow(x, y);
+        if (cells[y * width + x] == state) return; // Most observations only confirm what is known
+        cells[y * width + x] = state;
+        if (state == OPEN) {
+            openBits[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+        } else {
+            openBits[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+        }
+        for (Listener listener : listeners) {
+            listener.changed(x, y);
+        }
+    }
+
+    /**
+     * Word w of row y of the OPEN bitset: bit i is set if square (64 * w + i, y) is OPEN.
+     * Words outside the grid are 0, i.e. nothing outside the known map is OPEN.
+     */
+    public long openWord(int y, int w) {
+        if (y < 0 || y >= height || w < 0 || w >= wordsPerRow) return 0;
+        return openBits[y * wordsPerRow + w];
+    }
+
+    public int getWordsPerRow() {
+        return wordsPerRow;
+    }
+
+    /**
+     * Heap bytes of the map: the cell bytes, the OPEN bitset and the listener list.
+     */
+    public long retainedBytes() {
+        return MemoryFootprint.object(3 * 4 + 3 * MemoryFootprint.REFERENCE) + MemoryFootprint.array(cells.length, 1)
+                + MemoryFootprint.array(openBits.length, 8) + MemoryFootprint.arrayList(listeners.size());
+    }
+
+    /**
+     * Records the robot's square as OPEN and each neighbour as WALL or OPEN.
+     */
+    public void observe(IRobot robot) {
+        observe(robot, robot.getLocation().x, robot.getLocation().y);
+    }
+
+    /**
+     * Records what the robot senses, for a caller that already knows the robot's square (x, y).
+     */
+    public void observe(IRobot robot, int x, int y) {
+        set(x, y, OPEN);
+        int heading = robot.getHeading() - IRobot.NORTH;
+        for (int h = 0; h < 4; h++) {
+            int look = robot.look(IRobot.AHEAD + ((h - heading) & 3));
+            set(x + DX[h], y + DY[h], look == IRobot.WALL ? WALL : OPEN);
+        }
+    }
+
+    /**
+     * True if an OPEN square still has an UNKNOWN neighbour, i.e. exploring it can reveal more of the maze.
+     */
+    public boolean isFrontier(int x, int y) {
+        if (!isOpen(x, y)) return false;
+        for (int h = 0; h < 4; h++) {
+            if (get(x + DX[h], y + DY[h]) == UNKNOWN) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Index of a square inside the current grid, as used by distances() and the goal of search().
+     */
+    public int index(int x, int y) {
+        return y * width + x;
+    }
+
+    /**
+     * Breadth-first distances over OPEN squares from (x, y).
+     * avoidX, avoidY : A square the search must not pass through (-1, -1 for none).
+     * return : Distance per square index, -1 for squares that cannot be reached.
+     */
+    public int[] distances(int x, int y, int avoidX, int avoidY) {
+        return distances(x, y, avoidX, avoidY, new int[width * height], new int[width * height]);
+    }
+
+    /**
+     * Breadth-first distances as above, into arrays the caller keeps between searches.
+     * distance, queue : Arrays of at least width * height entries; distance is filled by square index.
+     * return : distance.
+     */
+    public int[] distances(int x, int y, int avoidX, int avoidY, int[] distance, int[] queue) {
+        Arrays.fill(distance, 0, width * height, -1);
+        if (!isOpen(x, y)) return distance;
+        int head = 0;
+        int tail = 0;
+        int start = index(x, y);
+        distance[start] = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            int cell = queue[head++];
+            int cx = cell % width;
+            int cy = cell / width;
+            if (cell != start && cx == avoidX && cy == avoidY) continue; // Reached, but not passed through
+            for (int h = 0; h < 4; h++) {
+                int nx = cx + DX[h];
+                int ny = cy + DY[h];
+                if (isOpen(nx, ny) && distance[index(nx, ny)] < 0) {
+                    distance[index(nx, ny)] = distance[cell] + 1;
+                    queue[tail++] = index(nx, ny);
+                }
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Shortest route between two squares over OPEN squares.
+     * return : The absolute headings to follow, or null if the map has no route.
+     */
+    public int[] route(int fromX, int fromY, int toX, int toY, int avoidX, int avoidY) {
+        if (!isOpen(toX, toY)) return null;
+        int goal = index(toX, toY);
+        return search(fromX, fromY, cell -> cell == goal, avoidX, avoidY);
+    }
+
+    /**
+     * Breadth-first search from (x, y) to the nearest square whose index satisfies a goal test.
+     * The goal square itself may be the avoided square; it is only never passed through.
+     * return : The absolute headings to the goal, or null if no goal can be reached.
+     */
+    public int[] search(int x, int y, IntPredicate goal, int avoidX, int avoidY) {
+        if (!isOpen(x, y)) return null;
+        int[] parent = new int[width * height]; // Heading + 1 taken into each square, 0 = not seen
+        int[] queue = new int[width * height];
+        int head = 0;
+        int tail = 0;
+        int start = index(x, y);
+        parent[start] = -1;
+        queue[tail++] = start;
+        while (head < tail) {
+            int cell = queue[head++];
+            if (goal.test(cell)) return unwind(parent, cell);
+            int cx = cell % width;
+            int cy = cell / width;
+            if (cell != start && cx == avoidX && cy == avoidY) continue;
+            for (int h = 0; h < 4; h++) {
+                int nx = cx + DX[h];
+                int ny = cy + DY[h];
+                if (isOpen(nx, ny) && parent[index(nx, ny)] == 0) {
+                    parent[index(nx, ny)] = h + 1;
+                    queue[tail++] = index(nx, ny);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Follows the parent headings back from a square to the start of a search.
+     */
+    private int[] unwind(int[] parent, int cell) {
+        int length = 0;
+        for (int c = cell; parent[c] > 0; length++) {
+            int h = parent[c] - 1;
+            c = index(c % width - DX[h], c / width - DY[h]);
+        }
+        int[] headings = new int[length];
+        for (int c = cell, i = length - 1; i >= 0; i--) {
+            int h = parent[c] - 1;
+            headings[i] = IRobot.NORTH + h;
+            c = index(c % width - DX[h], c / width - DY[h]);
+        }
+        return headings;
+    }
+
+    /**
+     * Doubles the grid until it covers (x, y), keeping what is known.
+     */
+    private void grow(int x, int y) {
+        int newWidth = Math.max(16, width);
+        int newHeight = Math.max(16, height);
+        while (x >= newWidth) newWidth *= 2;
+        while (y >= newHeight) newHeight *= 2;
+        byte[] grown = new byte[newWidth * newHeight];
+        int newWordsPerRow = (newWidth + 63) / 64; // Each row starts on a word of its own
+        long[] grownBits = new long[newWordsPerRow * newHeight];
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(cells, row * width, grown, row * newWidth, width);
+            System.arraycopy(openBits, row * wordsPerRow, grownBits, row * newWordsPerRow, wordsPerRow);
+        }
+        cells = grown;
+        openBits = grownBits;
+        wordsPerRow = newWordsPerRow;
+        width = newWidth;
+        height = newHeight;
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Local Maze Preamble
+ *
+ * LocalMaze is a stand-alone maze for running the CW2 controllers outside the maze environment
+ * (see LocalRobot). As in the environment, the maze is a grid of squares that are either walls or
+ * passages, surrounded by walls. Squares are stored bit-packed, one bit per square.
+ *
+ * Mazes are generated from a seed with a randomised depth-first search (a recursive backtracker, which makes
+ * perfect mazes with long winding corridors) and can be braided into loopy mazes by removing a fraction of
+ * the remaining walls. They can be saved and loaded as plain text, one line per row: '#' for a wall, ' ' for
+ * a passage, 'S' for the start and 'T' for the target.
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A rectangular maze of wall and passage squares with a start and a target.
+ */
+public class LocalMaze implements MazeGrid {
+    public static final int[] DX = {0, 1, 0, -1}; // x step for NORTH, EAST, SOUTH, WEST
+    public static final int[] DY = {-1, 0, 1, 0}; // y step for NORTH, EAST, SOUTH, WEST
+
+    private final int width;
+    private final int height;
+    private final long[] walls; // Bit (y * width + x) is set if the square is a wall
+    private int startX, startY;
+    private int targetX, targetY;
+
+    /**
+     * Creates a maze that is all walls.
+     */
+    public LocalMaze(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.walls = new long[(width * height + 63) / 64];
+        java.util.Arrays.fill(walls, -1L);
+    }
+
+    /**
+     * Creates an independent copy of another maze.
+     */
+    public LocalMaze(LocalMaze other) {
+        this.width = other.width;
+        this.height = other.height;
+        this.walls = other.walls.clone();
+        this.startX = other.startX;
+        this.startY = other.startY;
+        this.targetX = other.targetX;
+        this.targetY = other.targetY;
+    }
+
+    /**
+     * Generates a maze from a seed. Sizes are rounded up to odd numbers.
+     * braid : The chance of removing each wall that separates two passages (0 = perfect maze).
+     * The start and target are placed on random passage squares.
+     */
+    public static LocalMaze generate(int width, int height, long seed, double braid) {
+        width |= 1;
+        height |= 1;
+        LocalMaze maze = new LocalMaze(width, height);
+        Random random = new Random(seed);
+        int cellsX = (width - 1) / 2;
+        int cellsY = (height - 1) / 2;
+
+        int[] stack = new int[cellsX * cellsY]; // Depth-first search over the odd squares
+        int top = 0;
+        stack[top++] = 0;
+        maze.setWall(1, 1, false);
+        int[] options = new int[4];
+        while (top > 0) {
+            int cell = stack[top - 1];
+            int cx = cell % cellsX;
+            int cy = cell / cellsX;
+            int count = 0;
+            for (int heading = 0; heading < 4; heading++) {
+                int nx = cx + DX[heading];
+                int ny = cy + DY[heading];
+                if (nx >= 0 && ny >= 0 && nx < cellsX && ny < cellsY && maze.isWall(2 * nx + 1, 2 * ny + 1)) {
+                    options[count++] = heading;
+                }
+            }
+            if (count == 0) {
+                top--; // Dead end of the search, backtrack
+                continue;
+            }
+            int heading = options[random.nextInt(count)];
+            maze.setWall(2 * cx + 1 + DX[heading], 2 * cy + 1 + DY[heading], false); // Knock through
+            maze.setWall(2 * (cx + DX[heading]) + 1, 2 * (cy + DY[heading]) + 1, false);
+            stack[top++] = (cy + DY[heading]) * cellsX + cx + DX[heading];
+        }
+
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                boolean between = (x % 2 == 1) != (y % 2 == 1); // Walls between two cells of the search
+                if (between && maze.isWall(x, y) && random.nextDouble() < braid) {
+                    maze.setWall(x, y, false);
+                }
+            }
+        }
+
+        maze.setStart(2 * random.nextInt(cellsX) + 1, 2 * random.nextInt(cellsY) + 1);
+        do {
+            maze.setTarget(2 * random.nextInt(cellsX) + 1, 2 * random.nextInt(cellsY) + 1);
+        } while (cellsX * cellsY > 1 && maze.targetX == maze.startX && maze.targetY == maze.startY);
+        return maze;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public boolean isWall(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return true;
+        int bit = y * width + x;
+        return (walls[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    public void setWall(int x, int y, boolean wall) {
+        int bit = y * width + x;
+        if (wall) {
+            walls[bit >>> 6] |= 1L << bit;
+        } else {
+            walls[bit >>> 6] &= ~(1L << bit);
+        }
+    }
+
+    public void setStart(int x, int y) {
+        startX = x;
+        startY = y;
+    }
+
+    public void setTarget(int x, int y) {
+        targetX = x;
+        targetY = y;
+    }
+
+    @Override
+    public int getStartX() {
+        return startX;
+    }
+
+    @Override
+    public int getStartY() {
+        return startY;
+    }
+
+    @Override
+    public int getTargetX() {
+        return targetX;
+    }
+
+    @Override
+    public int getTargetY() {
+        return targetY;
+    }
+
+    /**
+     * Number of passage squares.
+     */
+    public int passageCount() {
+        int walled = 0;
+        for (long word : walls) {
+            walled += Long.bitCount(word);
+        }
+        int padding = walls.length * 64 - width * height; // Unused bits at the end are set
+        return width * height - (walled - padding);
+    }
+
+    /**
+     * Checks with a breadth-first search that the target can be reached from the start.
+     */
+    public boolean isConnected() {
+        if (isWall(startX, startY) || isWall(targetX, targetY)) return false;
+        int[] queue = new int[width * height];
+        boolean[] seen = new boolean[width * height];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = startY * width + startX;
+        seen[queue[0]] = true;
+        int goal = targetY * width + targetX;
+        while (head < tail) {
+            int cell = queue[head++];
+            if (cell == goal) return true;
+            int x = cell % width;
+            int y = cell / width;
+            for (int heading = 0; heading < 4; heading++) {
+                int nx = x + DX[heading];
+                int ny = y + DY[heading];
+                int next = ny * width + nx;
+                if (!isWall(nx, ny) && !seen[next]) {
+                    seen[next] = true;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Saves the maze in the text format described above.
+     */
+    public void write(Path file) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            for (int y = 0; y < height; y++) {
+                StringBuilder row = new StringBuilder(width);
+                for (int x = 0; x < width; x++) {
+                    if (x == startX && y == startY) row.append('S');
+                    else if (x == targetX && y == targetY) row.append('T');
+                    else row.append(isWall(x, y) ? '#' : ' ');
+                }
+                out.write(row.toString());
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Loads a maze saved with write.
+     */
+    public static LocalMaze read(Path file) throws IOException {
+        List<String> rows = Files.readAllLines(file, StandardCharsets.US_ASCII);
+        int width = 0;
+        for (String row : rows) {
+            width = Math.max(width, row.length());
+        }
+        LocalMaze maze = new LocalMaze(width, rows.size());
+        for (int y = 0; y < rows.size(); y++) {
+            String row = rows.get(y);
+            for (int x = 0; x < row.length(); x++) {
+                char square = row.charAt(x);
+                maze.setWall(x, y, square == '#');
+                if (square == 'S') maze.setStart(x, y);
+                if (square == 'T') maze.setTarget(x, y);
+            }
+        }
+        return maze;
+    }
+}
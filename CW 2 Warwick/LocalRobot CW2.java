@@ -0,0 +1,375 @@
+/**
+ * Local Robot Preamble
+ *
+ * LocalRobot implements IRobot on top of a MazeGrid (a LocalMaze, or a memory-mapped maze from a MazeCorpus)
+ * so that controllers can be run headless, many at a time, without the maze environment's GUI. It follows the environment's rules:
+ * - look() takes a relative direction and returns WALL, BEENBEFORE (visited during the current run)
+ *   or PASSAGE.
+ * - face() turns relative to the current heading, setHeading() sets an absolute heading.
+ * - advance() moves one square in the current heading; moving into a wall is a collision and the
+ *   robot stays where it is. Every advance counts as a step.
+ *
+ * run() drives a controller through a number of runs of the same maze, calling controlRobot before
+ * every step and reset at the end of every run, like the environment does. The target is read from the maze,
+ * so a harness can move a LocalMaze's target (setTarget) between calls of run to test moving targets.
+ * A Watchdog stops runs that go over their step budget or round a cycle.
+ * Controllers do not share an interface, so they are wrapped in a LocalRobot.Controller, which can be
+ * created from a class name (any class with controlRobot(IRobot) and reset() methods). Controllers with
+ * per-session state are shared: each LocalRobot gets its own session of one controller instance.
+ * Controllers with a memoryFootprint method (per session, or per instance) report it through the wrapper, and so do
+ * controllers with a modeState method.
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.awt.Point;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.function.Supplier;
+
+/**
+ * Headless IRobot that moves around a MazeGrid.
+ */
+public class LocalRobot implements IRobot {
+    private final MazeGrid maze;
+    private int x, y; // Current location
+    private int heading = IRobot.EAST;
+    private int runs = 0; // Completed runs
+    private int steps = 0; // Steps in the current run
+    private int collisions = 0; // Collisions in the current run
+    private int explored = 0; // Squares visited in the current run
+    private final int[] visited; // Run number + 1 of the last visit of each square
+
+    public LocalRobot(MazeGrid maze) {
+        this.maze = maze;
+        this.visited = new int[maze.getWidth() * maze.getHeight()];
+        startRun();
+    }
+
+    /**
+     * Runs a controller over the maze.
+     * runs : The number of runs to make.
+     * maxSteps : The step budget of each run.
+     * return : The steps taken in each run, negative for runs that did not reach the target (see Watchdog).
+     */
+    public long[] run(Controller controller, int runs, long maxSteps) {
+        return run(controller, runs, new Watchdog(maxSteps));
+    }
+
+    /**
+     * Runs a controller over the maze, stopping runs that go over the watchdog's budget or round a cycle.
+     * return : The steps taken in each run, Watchdog.OVER_BUDGET or Watchdog.CYCLE for runs that were stopped.
+     */
+    public long[] run(Controller controller, int runs, Watchdog watchdog) {
+        long[] result = new long[runs];
+        for (int run = 0; run < runs; run++) {
+            watchdog.startRun();
+            boolean cycle = false;
+            while (!atTarget() && steps < watchdog.getBudget() && !cycle) {
+                controller.controlRobot(this);
+                advance();
+                long mode = controller.modeState();
+                if (mode != Controller.NO_MODE_STATE) {
+                    cycle = watchdog.isCycle(Watchdog.hash(x, y, heading, explored, mode, ControllerRandom.draws()));
+                }
+            }
+            result[run] = atTarget() ? steps : cycle ? Watchdog.CYCLE : Watchdog.OVER_BUDGET;
+            controller.reset();
+            endRun();
+        }
+        return result;
+    }
+
+    /**
+     * Counts the finished run and puts the robot back on the start square for the next one, for drivers that
+     * call the controller themselves (e.g. RemoteController).
+     */
+    public void endRun() {
+        runs++;
+        startRun();
+    }
+
+    /**
+     * Puts the robot back on the start square for the next run.
+     */
+    public void startRun() {
+        x = maze.getStartX();
+        y = maze.getStartY();
+        heading = IRobot.EAST;
+        steps = 0;
+        collisions = 0;
+        explored = 1;
+        visited[y * maze.getWidth() + x] = runs + 1;
+    }
+
+    public boolean atTarget() {
+        return x == maze.getTargetX() && y == maze.getTargetY(); // Read each time, a LocalMaze's target can move
+    }
+
+    public MazeGrid getMaze() {
+        return maze;
+    }
+
+    @Override
+    public void advance() {
+        int h = heading - IRobot.NORTH;
+        int nx = x + LocalMaze.DX[h];
+        int ny = y + LocalMaze.DY[h];
+        steps++;
+        if (maze.isWall(nx, ny)) {
+            collisions++;
+            return;
+        }
+        x = nx;
+        y = ny;
+        int square = y * maze.getWidth() + x;
+        if (visited[square] != runs + 1) {
+            visited[square] = runs + 1;
+            explored++;
+        }
+    }
+
+    @Override
+    public int look(int direction) {
+        int h = absolute(direction) - IRobot.NORTH;
+        int nx = x + LocalMaze.DX[h];
+        int ny = y + LocalMaze.DY[h];
+        if (maze.isWall(nx, ny)) return IRobot.WALL;
+        return visited[ny * maze.getWidth() + nx] == runs + 1 ? IRobot.BEENBEFORE : IRobot.PASSAGE;
+    }
+
+    @Override
+    public void face(int direction) {
+        heading = absolute(direction);
+    }
+
+    @Override
+    public void setHeading(int heading) {
+        if (heading < IRobot.NORTH || heading > IRobot.WEST) {
+            throw new IllegalArgumentException("Not an absolute heading: " + heading);
+        }
+        this.heading = heading;
+    }
+
+    @Override
+    public int getHeading() {
+        return heading;
+    }
+
+    @Override
+    public Point getLocation() {
+        return new Point(x, y);
+    }
+
+    @Override
+    public Point getTargetLocation() {
+        return new Point(maze.getTargetX(), maze.getTargetY());
+    }
+
+    /**
+     * The robot's square, without the new Point of getLocation(), for drivers such as RemoteController.
+     */
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    @Override
+    public int getRuns() {
+        return runs;
+    }
+
+    @Override
+    public int getSteps() {
+        return steps;
+    }
+
+    @Override
+    public int getCollisions() {
+        return collisions;
+    }
+
+    @Override
+    public void reset() {
+        runs = 0;
+        startRun();
+    }
+
+    /**
+     * Converts a relative direction (AHEAD, RIGHT, BEHIND, LEFT) into an absolute heading.
+     */
+    private int absolute(int direction) {
+        if (direction < IRobot.AHEAD || direction > IRobot.LEFT) {
+            throw new IllegalArgumentException("Not a relative direction: " + direction);
+        }
+        return IRobot.NORTH + (heading - IRobot.NORTH + direction - IRobot.AHEAD) % 4;
+    }
+
+    /**
+     * A robot controller as seen by the harness.
+     */
+    public interface Controller {
+        long NO_MODE_STATE = Long.MIN_VALUE; // modeState of controllers that do not report one
+
+        void controlRobot(IRobot robot);
+
+        void reset();
+
+        /**
+         * Heap bytes retained by the controller's state, or null if the controller does no memory accounting.
+         */
+        default MemoryFootprint memoryFootprint() {
+            return null;
+        }
+
+        /**
+         * Hash of the controller's state that its next moves depend on, apart from what the robot senses and the
+         * random numbers it draws, or NO_MODE_STATE if the controller does not report one (see Watchdog).
+         */
+        default long modeState() {
+            return NO_MODE_STATE;
+        }
+
+        /**
+         * Returns a factory of controllers for the named class.
+         * Classes with per-session state (newSession(), controlRobot(IRobot, Session) and reset(Session))
+         * are instantiated once and every call returns a new session of that shared instance, so a thread
+         * pool evaluates with a single controller. Other classes get a new instance for every call; they
+         * need a no-argument constructor, controlRobot(IRobot) and reset().
+         */
+        static Supplier<Controller> byName(String className) {
+            try {
+                Class<?> type = Class.forName(className);
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                MethodHandle create = lookup.findConstructor(type, MethodType.methodType(void.class));
+                Method newSession = sessionFactory(type);
+                if (newSession != null) {
+                    Class<?> session = newSession.getReturnType();
+                    MethodHandle open = lookup.unreflect(newSession);
+                    MethodHandle control = lookup.findVirtual(type, "controlRobot",
+                            MethodType.methodType(void.class, IRobot.class, session));
+                    MethodHandle reset = lookup.findVirtual(type, "reset", MethodType.methodType(void.class, session));
+                    MethodHandle footprint = optional(lookup, type, "memoryFootprint",
+                            MethodType.methodType(MemoryFootprint.class, session));
+                    MethodHandle mode = optional(lookup, type, "modeState", MethodType.methodType(long.class, session));
+                    Object shared = create.invoke();
+                    return () -> {
+                        Object state = invoke(open.bindTo(shared));
+                        return bind(MethodHandles.insertArguments(control, 2, state).bindTo(shared),
+                                MethodHandles.insertArguments(reset, 1, state).bindTo(shared),
+                                footprint == null ? null
+                                        : MethodHandles.insertArguments(footprint, 1, state).bindTo(shared),
+                                mode == null ? null : MethodHandles.insertArguments(mode, 1, state).bindTo(shared));
+                    };
+                }
+                MethodHandle control = lookup.findVirtual(type, "controlRobot",
+                        MethodType.methodType(void.class, IRobot.class));
+                MethodHandle reset = lookup.findVirtual(type, "reset", MethodType.methodType(void.class));
+                MethodHandle footprint = optional(lookup, type, "memoryFootprint",
+                        MethodType.methodType(MemoryFootprint.class));
+                MethodHandle mode = optional(lookup, type, "modeState", MethodType.methodType(long.class));
+                return () -> {
+                    Object instance = invoke(create);
+                    return bind(control.bindTo(instance), reset.bindTo(instance),
+                            footprint == null ? null : footprint.bindTo(instance),
+                            mode == null ? null : mode.bindTo(instance));
+                };
+            } catch (Throwable e) {
+                throw new IllegalArgumentException(className + " is not a usable controller", e);
+            }
+        }
+
+        /**
+         * Returns the public newSession() method of a controller class, or null if it has no sessions.
+         */
+        private static Method sessionFactory(Class<?> type) {
+            try {
+                return type.getMethod("newSession");
+            } catch (NoSuchMethodException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Finds a public method that a controller class may or may not have.
+         * return : Its handle, or null if the class has no such method.
+         */
+        private static MethodHandle optional(MethodHandles.Lookup lookup, Class<?> type, String name,
+                                             MethodType methodType) {
+            try {
+                return lookup.findVirtual(type, name, methodType);
+            } catch (NoSuchMethodException | IllegalAccessException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Wraps bound handles of type (IRobot)void, ()void, ()MemoryFootprint and ()long (the last two may be null)
+         * as a Controller.
+         */
+        private static Controller bind(MethodHandle control, MethodHandle reset, MethodHandle footprint,
+                                       MethodHandle mode) {
+            return new Controller() {
+                @Override
+                public void controlRobot(IRobot robot) {
+                    try {
+                        control.invokeExact(robot);
+                    } catch (RuntimeException | Error e) {
+                        throw e;
+                    } catch (Throwable e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+
+                @Override
+                public void reset() {
+                    try {
+                        reset.invokeExact();
+                    } catch (RuntimeException | Error e) {
+                        throw e;
+                    } catch (Throwable e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+
+                @Override
+                public MemoryFootprint memoryFootprint() {
+                    if (footprint == null) return null;
+                    try {
+                        return (MemoryFootprint) footprint.invokeExact();
+                    } catch (RuntimeException | Error e) {
+                        throw e;
+                    } catch (Throwable e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+
+                @Override
+                public long modeState() {
+                    if (mode == null) return NO_MODE_STATE;
+                    try {
+                        return (long) mode.invokeExact();
+                    } catch (RuntimeException | Error e) {
+                        throw e;
+                    } catch (Throwable e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+        }
+
+        private static Object invoke(MethodHandle factory) {
+            try {
+                return factory.invoke();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/**
+ * Maze Corpus Preamble
+ *
+ * Loading a corpus of thousands of small text mazes had become slower than simulating them. A MazeCorpus keeps
+ * every maze of a corpus in one data file of MazeFile records, plus an index file with the offset of each record:
+ * - index file: magic "MZIX", version, maze count, then one long offset per maze into the data file.
+ * - data file: the records, back to back. No record crosses a SEGMENT_BYTES boundary (the writer pads instead),
+ *   so the data file can be mapped as a few read-only segments of at most 1GB each, whatever its total size.
+ *
+ * Opening the corpus maps both files once. get(i) then reads one offset from the index and returns a
+ * MazeFile.MappedMaze over the mapped data: O(1), with no read or copy of the maze itself. The OS pages in only the
+ * parts of the file that robots actually look at, and the page cache is shared by every process using the corpus.
+ *
+ * Usage:
+ *   java MazeCorpus pack corpus.mazes textMazeDir [compress]
+ *   java MazeCorpus generate corpus.mazes count size braid seed [compress]
+ *   java MazeCorpus run corpus.mazes controller [runs] [memory.csv]
+ *
+ * With a memory.csv file, run mode samples the controller's MemoryFootprint at the end of every run and writes
+ * one row per run: maze, run, steps, retained bytes, junctions, bytes per junction, bytes per maze square and the
+ * bytes of each part.
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * A memory-mapped corpus of binary mazes with O(1) access by number.
+ */
+public class MazeCorpus {
+    public static final int INDEX_MAGIC = 0x4D5A4958; // "MZIX"
+    public static final int INDEX_VERSION = 1;
+    public static final int INDEX_HEADER_BYTES = 12;
+    public static final long SEGMENT_BYTES = 1L << 30; // Largest mapped piece of the data file
+
+    private final MappedByteBuffer index;
+    private final MappedByteBuffer[] segments;
+    private final int count;
+
+    private MazeCorpus(MappedByteBuffer index, MappedByteBuffer[] segments) {
+        this.index = index;
+        this.segments = segments;
+        if (index.getInt(0) != INDEX_MAGIC || index.getInt(4) != INDEX_VERSION) {
+            throw new IllegalArgumentException("Not a maze corpus index");
+        }
+        this.count = index.getInt(8);
+    }
+
+    /**
+     * Maps a corpus. The index is expected next to the data file, with ".idx" appended to its name.
+     */
+    public static MazeCorpus open(Path data) throws IOException {
+        MappedByteBuffer index;
+        try (FileChannel channel = FileChannel.open(indexPath(data), StandardOpenOption.READ)) {
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try (FileChannel channel = FileChannel.open(data, StandardOpenOption.READ)) {
+            long size = channel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_BYTES - 1) / SEGMENT_BYTES)];
+            for (int i = 0; i < segments.length; i++) {
+                long from = i * SEGMENT_BYTES;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(SEGMENT_BYTES, size - from));
+            }
+            return new MazeCorpus(index, segments); // Mappings stay valid after the channel is closed
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns maze number i, read in place from the mapped data file.
+     */
+    public MazeFile.MappedMaze get(int i) {
+        if (i < 0 || i >= count) throw new IndexOutOfBoundsException("Maze " + i + " of " + count);
+        long offset = index.getLong(INDEX_HEADER_BYTES + 8 * i);
+        return MazeFile.open(segments[(int) (offset / SEGMENT_BYTES)], (int) (offset % SEGMENT_BYTES));
+    }
+
+    /**
+     * Writes a corpus from encoded maze records, padding so that no record crosses a segment boundary.
+     */
+    public static void write(Path data, Iterable<byte[]> records) throws IOException {
+        List<Long> offsets = new ArrayList<>();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(data))) {
+            long position = 0;
+            for (byte[] record : records) {
+                if (record.length > SEGMENT_BYTES) throw new IOException("Maze record too large: " + record.length);
+                long room = SEGMENT_BYTES - position % SEGMENT_BYTES;
+                if (record.length > room) {
+                    out.write(new byte[(int) room]); // Start the record in the next segment
+                    position += room;
+                }
+                offsets.add(position);
+                out.write(record);
+                position += record.length;
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexPath(data))))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(offsets.size());
+            for (long offset : offsets) {
+                out.writeLong(offset);
+            }
+        }
+    }
+
+    static Path indexPath(Path data) {
+        return data.resolveSibling(data.getFileName() + ".idx");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path data = Paths.get(args[1]);
+        if (args[0].equals("pack")) {
+            boolean compress = args.length > 3 && args[3].equals("compress");
+            List<byte[]> records = new ArrayList<>();
+            try (Stream<Path> files = Files.list(Paths.get(args[2]))) {
+                for (Path file : (Iterable<Path>) files.filter(f -> f.toString().endsWith(".maze")).sorted()::iterator) {
+                    records.add(MazeFile.encode(LocalMaze.read(file), -1, compress));
+                }
+            }
+            write(data, records);
+            System.out.println("Packed " + records.size() + " mazes into " + data);
+        } else if (args[0].equals("generate")) {
+            int count = Integer.parseInt(args[2]);
+            int size = Integer.parseInt(args[3]);
+            double braid = Double.parseDouble(args[4]);
+            long seed = Long.parseLong(args[5]);
+            boolean compress = args.length > 6 && args[6].equals("compress");
+            List<byte[]> records = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                records.add(MazeFile.encode(LocalMaze.generate(size, size, seed + i, braid), seed + i, compress));
+            }
+            write(data, records);
+            System.out.println("Generated " + count + " mazes into " + data + " (" + Files.size(data) + " bytes)");
+        } else {
+            int runs = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+            Supplier<LocalRobot.Controller> controllers = LocalRobot.Controller.byName(args[2]);
+            PrintWriter memory = args.length > 4 ? new PrintWriter(Files.newBufferedWriter(Paths.get(args[4]))) : null;
+            if (memory != null) {
+                memory.println("maze,run,steps,bytes,junctions,bytesPerJunction,bytesPerCell,parts");
+            }
+            long start = System.nanoTime();
+            MazeCorpus corpus = open(data);
+            long steps = 0;
+            int failed = 0;
+            int cycles = 0;
+            for (int i = 0; i < corpus.size(); i++) {
+                MazeFile.MappedMaze maze = corpus.get(i);
+                LocalRobot robot = new LocalRobot(maze);
+                LocalRobot.Controller controller = controllers.get();
+                if (memory != null) controller = sampled(controller, robot, i, memory);
+                for (long s : robot.run(controller, runs, Watchdog.forMaze(maze))) {
+                    if (s < 0) failed++;
+                    else steps += s;
+                    if (s == Watchdog.CYCLE) cycles++;
+                }
+            }
+            System.out.printf("%d mazes, %d runs failed (%d cycles, %d over budget), %d steps in %.2fs%n",
+                    corpus.size(), failed, cycles, failed - cycles, steps, (System.nanoTime() - start) / 1e9);
+            if (memory != null) memory.close();
+        }
+    }
+
+    /**
+     * Wraps a controller so that its memory footprint is written as a CSV row at the end of every run,
+     * before the controller resets.
+     */
+    private static LocalRobot.Controller sampled(LocalRobot.Controller controller, LocalRobot robot, int maze,
+                                                 PrintWriter memory) {
+        long cells = (long) robot.getMaze().getWidth() * robot.getMaze().getHeight();
+        return new LocalRobot.Controller() {
+            @Override
+            public void controlRobot(IRobot r) {
+                controller.controlRobot(r);
+            }
+
+            @Override
+            public long modeState() {
+                return controller.modeState();
+            }
+
+            @Override
+            public void reset() {
+                MemoryFootprint footprint = controller.memoryFootprint();
+                if (footprint != null) {
+                    memory.printf("%d,%d,%d,%d,%d,%.1f,%.3f,%s%n", maze, robot.getRuns(), robot.getSteps(),
+                            footprint.getTotalBytes(), footprint.getJunctions(), footprint.bytesPerJunction(),
+                            footprint.bytesPerCell(cells), footprint.partsString());
+                }
+                controller.reset();
+            }
+        };
+    }
+}
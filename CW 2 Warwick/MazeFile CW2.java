@@ -0,0 +1,256 @@
+/**
+ * Maze File Preamble
+ *
+ * A compact binary format for one maze, designed to be read in place from a memory-mapped file.
+ *
+ * **Layout (big-endian):**
+ * - Header, 40 bytes: magic "MZBF", version (short), flags (short), width, height, start x, start y,
+ *   target x, target y (ints) and the generator seed (long, -1 if unknown).
+ * - Plain mazes: the wall grid, one bit per square in row-major order (bit i of the grid is bit i % 8 of
+ *   byte i / 8), padded to a whole byte.
+ * - Block-compressed mazes (flag COMPRESSED): the grid is cut into BLOCK_BYTES blocks, each deflated on its own.
+ *   A table of (blocks + 1) int offsets, relative to the start of the record, is followed by the blocks, so any
+ *   block can be found in O(1).
+ *
+ * A plain maze is read straight from the mapped bytes: isWall is one absolute byte read, nothing is copied.
+ * A compressed maze inflates a block when a square in it is first read and keeps the CACHED_BLOCKS most recently
+ * read blocks. A block is BLOCK_BYTES * 8 = 32768 consecutive squares in row-major order, which need not be whole
+ * rows: a block boundary can fall anywhere in a row. The squares a robot looks at lie in its own row and the rows
+ * above and below it, a span of 2 * width + 1 squares, so on mazes up to 16383 squares wide they fall into at most
+ * two neighbouring blocks (three on wider ones). CACHED_BLOCKS holds them all, so a robot walking along a block
+ * boundary never inflates a block on every look. Compression saves about a third on large mazes (e.g. 500KB to
+ * 320KB at 2001 x 2001) and nothing on small ones, and plain mazes are faster to run on, so compression is only
+ * worth it for corpora of large mazes.
+ */
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes the binary maze format.
+ */
+public class MazeFile {
+    public static final int MAGIC = 0x4D5A4246; // "MZBF"
+    public static final short VERSION = 1;
+    public static final short COMPRESSED = 1; // Flag: the grid is block-compressed
+    public static final int HEADER_BYTES = 40;
+    public static final int BLOCK_BYTES = 4096; // Grid bytes per compressed block
+    public static final int CACHED_BLOCKS = 4; // Inflated blocks kept per compressed maze, see the preamble
+
+    /**
+     * Encodes a maze as one record.
+     * seed : The seed the maze was generated from, -1 if unknown.
+     */
+    public static byte[] encode(MazeGrid maze, long seed, boolean compress) {
+        int width = maze.getWidth();
+        int height = maze.getHeight();
+        byte[] grid = new byte[(int) (((long) width * height + 7) / 8)];
+        for (int y = 0, bit = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, bit++) {
+                if (maze.isWall(x, y)) grid[bit >>> 3] |= (byte) (1 << (bit & 7));
+            }
+        }
+        byte[] body = compress ? compressGrid(grid) : grid;
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + body.length);
+        record.putInt(MAGIC).putShort(VERSION).putShort(compress ? COMPRESSED : 0);
+        record.putInt(width).putInt(height);
+        record.putInt(maze.getStartX()).putInt(maze.getStartY());
+        record.putInt(maze.getTargetX()).putInt(maze.getTargetY());
+        record.putLong(seed);
+        record.put(body);
+        return record.array();
+    }
+
+    /**
+     * Opens the maze record that starts at an offset of a buffer, without copying it.
+     * The buffer must stay unchanged while the maze is in use.
+     */
+    public static MappedMaze open(ByteBuffer buffer, int offset) {
+        if (buffer.getInt(offset) != MAGIC) {
+            throw new IllegalArgumentException("Not a maze record at offset " + offset);
+        }
+        if (buffer.getShort(offset + 4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported maze version " + buffer.getShort(offset + 4));
+        }
+        return new MappedMaze(buffer, offset);
+    }
+
+    /**
+     * Cuts the grid into blocks and deflates each one, behind a table of block offsets.
+     */
+    private static byte[] compressGrid(byte[] grid) {
+        int blocks = (grid.length + BLOCK_BYTES - 1) / BLOCK_BYTES;
+        int tableBytes = 4 * (blocks + 1);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ByteBuffer table = ByteBuffer.allocate(tableBytes);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        byte[] chunk = new byte[BLOCK_BYTES + 64];
+        try {
+            for (int block = 0; block < blocks; block++) {
+                table.putInt(HEADER_BYTES + tableBytes + data.size());
+                deflater.reset();
+                deflater.setInput(grid, block * BLOCK_BYTES, Math.min(BLOCK_BYTES, grid.length - block * BLOCK_BYTES));
+                deflater.finish();
+                while (!deflater.finished()) {
+                    data.write(chunk, 0, deflater.deflate(chunk));
+                }
+            }
+        } finally {
+            deflater.end();
+        }
+        table.putInt(HEADER_BYTES + tableBytes + data.size()); // End of the last block
+        byte[] body = new byte[tableBytes + data.size()];
+        System.arraycopy(table.array(), 0, body, 0, tableBytes);
+        System.arraycopy(data.toByteArray(), 0, body, tableBytes, data.size());
+        return body;
+    }
+
+    /**
+     * A maze read in place from a (memory-mapped) buffer.
+     * Plain mazes can be shared between threads; compressed ones keep a block cache, so give each thread its own.
+     */
+    public static class MappedMaze implements MazeGrid {
+        private final ByteBuffer buffer;
+        private final int offset; // Start of the record in the buffer
+        private final int width;
+        private final int height;
+        private final int startX, startY, targetX, targetY;
+        private final long seed;
+        private final boolean compressed;
+
+        private final byte[][] blocks = new byte[CACHED_BLOCKS][]; // Inflated blocks of a compressed grid
+        private final int[] blockNumbers = new int[CACHED_BLOCKS]; // Block number held in each slot, -1 if none
+        private final long[] blockUses = new long[CACHED_BLOCKS]; // Read clock of each slot's last use
+        private long reads = 0; // Block reads so far, the clock of blockUses
+        private int lastSlot = 0; // Slot of the last block read, checked first
+        private Inflater inflater;
+
+        MappedMaze(ByteBuffer buffer, int offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.compressed = (buffer.getShort(offset + 6) & COMPRESSED) != 0;
+            this.width = buffer.getInt(offset + 8);
+            this.height = buffer.getInt(offset + 12);
+            this.startX = buffer.getInt(offset + 16);
+            this.startY = buffer.getInt(offset + 20);
+            this.targetX = buffer.getInt(offset + 24);
+            this.targetY = buffer.getInt(offset + 28);
+            this.seed = buffer.getLong(offset + 32);
+            java.util.Arrays.fill(blockNumbers, -1);
+        }
+
+        @Override
+        public boolean isWall(int x, int y) {
+            if (x < 0 || y < 0 || x >= width || y >= height) return true;
+            long bit = (long) y * width + x;
+            int index = (int) (bit >>> 3);
+            byte b = compressed ? gridByte(index) : buffer.get(offset + HEADER_BYTES + index);
+            return (b & (1 << (bit & 7))) != 0;
+        }
+
+        /**
+         * Reads a byte of a compressed grid, inflating its block into the least recently used slot if it is not
+         * cached.
+         */
+        private byte gridByte(int index) {
+            int number = index / BLOCK_BYTES;
+            int slot = blockNumbers[lastSlot] == number ? lastSlot : cachedSlot(number);
+            if (slot == -1) slot = inflate(number);
+            blockUses[slot] = ++reads;
+            lastSlot = slot;
+            return blocks[slot][index % BLOCK_BYTES];
+        }
+
+        /**
+         * return : The slot holding a block, or -1 if it is not cached.
+         */
+        private int cachedSlot(int number) {
+            for (int slot = 0; slot < CACHED_BLOCKS; slot++) {
+                if (blockNumbers[slot] == number) return slot;
+            }
+            return -1;
+        }
+
+        /**
+         * Inflates a block into the least recently used slot.
+         * return : The slot.
+         */
+        private int inflate(int number) {
+            int slot = 0;
+            for (int s = 1; s < CACHED_BLOCKS; s++) {
+                if (blockUses[s] < blockUses[slot]) slot = s;
+            }
+            if (inflater == null) inflater = new Inflater();
+            if (blocks[slot] == null) blocks[slot] = new byte[BLOCK_BYTES];
+            int from = buffer.getInt(offset + HEADER_BYTES + 4 * number);
+            int to = buffer.getInt(offset + HEADER_BYTES + 4 * (number + 1));
+            inflater.reset();
+            inflater.setInput(buffer.slice(offset + from, to - from));
+            blockNumbers[slot] = -1; // Not valid until fully inflated
+            try {
+                inflater.inflate(blocks[slot]);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("Corrupt maze block " + number, e);
+            }
+            blockNumbers[slot] = number;
+            return slot;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int getStartX() {
+            return startX;
+        }
+
+        @Override
+        public int getStartY() {
+            return startY;
+        }
+
+        @Override
+        public int getTargetX() {
+            return targetX;
+        }
+
+        @Override
+        public int getTargetY() {
+            return targetY;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public boolean isCompressed() {
+            return compressed;
+        }
+
+        /**
+         * Copies the maze onto the heap, e.g. to mutate it.
+         */
+        public LocalMaze toLocalMaze() {
+            LocalMaze maze = new LocalMaze(width, height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    maze.setWall(x, y, isWall(x, y));
+                }
+            }
+            maze.setStart(startX, startY);
+            maze.setTarget(targetX, targetY);
+            return maze;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Maze Grid Preamble
+ *
+ * The read-only view of a maze that LocalRobot needs: its size, its walls and the start and target squares.
+ * LocalMaze implements it on the heap; MazeFile.MappedMaze implements it directly on the bytes of a
+ * memory-mapped maze file, so a robot can run on a corpus maze without copying it.
+ */
+
+/**
+ * A rectangular maze of wall and passage squares with a start and a target.
+ */
+public interface MazeGrid {
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * True if (x, y) is a wall. Squares outside the maze count as walls.
+     */
+    boolean isWall(int x, int y);
+
+    int getStartX();
+
+    int getStartY();
+
+    int getTargetX();
+
+    int getTargetY();
+}
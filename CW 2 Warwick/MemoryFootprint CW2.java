@@ -0,0 +1,128 @@
+/**
+ * Memory Footprint Preamble
+ *
+ * Heaps for large maze batches used to be sized by guesswork. A MemoryFootprint reports the heap bytes retained
+ * by one controller's state, broken down by part (junction log, learned map, planner scratch memory, ...), with
+ * the number of junctions the state holds so that bytes per junction and bytes per maze square can be read off.
+ *
+ * Sizes are worked out from capacities, not by walking the heap: each class adds up its own arrays and objects
+ * with the helpers below, using the layout of a 64-bit HotSpot JVM with compressed references (12-byte object
+ * headers, 16-byte array headers, 4-byte references, everything padded to 8 bytes). That is exact for arrays and
+ * within a few bytes for objects, and cheap enough to sample after every run. Not counted: memory outside the
+ * heap (direct I/O buffers, spill files, mapped mazes) and state shared by all controllers of a class, such as
+ * GrandFinale's RouteCache, which reports its own bytes (RouteCache.getUsedBytes).
+ */
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Analytic heap usage of a controller's state.
+ */
+public class MemoryFootprint {
+    public static final int OBJECT_HEADER = 12;
+    public static final int ARRAY_HEADER = 16;
+    public static final int REFERENCE = 4;
+
+    private final Map<String, Long> parts = new LinkedHashMap<>(); // Bytes per part, in the order added
+    private long totalBytes = 0;
+    private long junctions = 0;
+
+    /**
+     * Heap bytes of an array.
+     * elementBytes : 1 for byte/boolean, 4 for int/reference, 8 for long.
+     */
+    public static long array(long length, int elementBytes) {
+        return align(ARRAY_HEADER + length * elementBytes);
+    }
+
+    /**
+     * Heap bytes of an object whose own fields take fieldBytes (references count REFERENCE each).
+     */
+    public static long object(int fieldBytes) {
+        return align(OBJECT_HEADER + fieldBytes);
+    }
+
+    /**
+     * Heap bytes of an ArrayList and its backing array, not counting the elements. The real capacity is hidden,
+     * so it is taken as the size, or the default 10.
+     */
+    public static long arrayList(int size) {
+        return object(12) + array(Math.max(10, size), REFERENCE);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * Adds bytes to a part, creating the part if it is new.
+     */
+    public MemoryFootprint add(String part, long bytes) {
+        parts.merge(part, bytes, Long::sum);
+        totalBytes += bytes;
+        return this;
+    }
+
+    /**
+     * Adds every part and junction of another footprint, e.g. to sum the sessions of a controller.
+     */
+    public MemoryFootprint add(MemoryFootprint other) {
+        other.parts.forEach(this::add);
+        junctions += other.junctions;
+        return this;
+    }
+
+    /**
+     * Adds to the number of junctions held by the state.
+     */
+    public MemoryFootprint junctions(long count) {
+        junctions += count;
+        return this;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getJunctions() {
+        return junctions;
+    }
+
+    public Map<String, Long> getParts() {
+        return Collections.unmodifiableMap(parts);
+    }
+
+    /**
+     * Total bytes per junction held, NaN if there are none.
+     */
+    public double bytesPerJunction() {
+        return junctions == 0 ? Double.NaN : (double) totalBytes / junctions;
+    }
+
+    /**
+     * Total bytes per maze square, for a maze of the given number of squares.
+     */
+    public double bytesPerCell(long cells) {
+        return cells == 0 ? Double.NaN : (double) totalBytes / cells;
+    }
+
+    /**
+     * The parts as "name:bytes" pairs separated by '|', e.g. for one column of a CSV file.
+     */
+    public String partsString() {
+        StringBuilder text = new StringBuilder();
+        parts.forEach((part, bytes) -> {
+            if (text.length() > 0) text.append('|');
+            text.append(part).append(':').append(bytes);
+        });
+        return text.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MemoryFootprint bytes=%d junctions=%d (%.1f bytes/junction) parts=%s",
+                totalBytes, junctions, bytesPerJunction(), partsString());
+    }
+}
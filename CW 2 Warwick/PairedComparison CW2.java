@@ -0,0 +1,212 @@
+/**
+ * Paired Comparison Preamble
+ *
+ * Deciding whether a change to a randomised controller helps used to mean running both versions over a fixed,
+ * very large number of mazes, because the luck of the random choices drowns small differences. This tool
+ * compares two controllers (e.g. GrandFinale and a changed copy of it compiled under another name) with far fewer
+ * mazes:
+ * - **Common random numbers:** Both variants run the same seeded mazes, and before each variant's runs the
+ *   thread's ControllerRandom is seeded with the same seed, so both see the same random numbers for as long as
+ *   they make the same choices. Only the per-maze difference in steps (B minus A) is analysed, and most of the
+ *   luck cancels out of it.
+ * - **Sequential test:** Pairs of runs are evaluated in batches on a thread pool, and after every batch the mean
+ *   difference gets a confidence sequence: a confidence interval that holds at every batch at once (a normal
+ *   mixture boundary with the variance estimated from the pairs), so looking after each batch does not inflate
+ *   the error rate. The comparison stops as soon as the interval leaves out 0 (B is significantly better or
+ *   worse) or lies inside +-margin of A's mean steps (the difference is negligible), or when maxPairs is reached
+ *   (inconclusive).
+ *
+ * A maze's score is the total steps of all its runs, each made with a fresh controller session. Runs over the
+ * step budget, and runs in which the controller throws, score the whole budget (like in WorstCaseSearch); crashes
+ * are counted and reported. The exit code is 1 if B is significantly worse than A, so a regression fails a build.
+ *
+ * Usage: java PairedComparison controllerA controllerB size braid [runs] [alpha] [margin] [maxPairs] [seed]
+ *   defaults: 3 runs, alpha 0.05, margin 0.01 (1% of A's mean steps), 100000 pairs, seed 1
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Sequential A/B comparison of two controllers with common random numbers.
+ */
+public class PairedComparison {
+    private static final int MIN_PAIRS = 30; // Pairs before any decision, so the variance estimate means something
+    private static final int TUNING_PAIRS = 200; // Number of pairs the confidence sequence is tightest around
+
+    private final Supplier<LocalRobot.Controller> variantA;
+    private final Supplier<LocalRobot.Controller> variantB;
+    private final int size;
+    private final double braid;
+    private final int runs;
+    private final ExecutorService pool;
+    private final AtomicInteger crashesA = new AtomicInteger();
+    private final AtomicInteger crashesB = new AtomicInteger();
+
+    /**
+     * Creates a comparison.
+     * size, braid : The mazes compared on (see LocalMaze.generate).
+     * runs : Runs of each maze per variant; the score of a maze is the total of their steps.
+     */
+    public PairedComparison(Supplier<LocalRobot.Controller> variantA, Supplier<LocalRobot.Controller> variantB,
+                            int size, double braid, int runs, ExecutorService pool) {
+        this.variantA = variantA;
+        this.variantB = variantB;
+        this.size = size;
+        this.braid = braid;
+        this.runs = runs;
+        this.pool = pool;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+        double alpha = args.length > 5 ? Double.parseDouble(args[5]) : 0.05;
+        double margin = args.length > 6 ? Double.parseDouble(args[6]) : 0.01;
+        int maxPairs = args.length > 7 ? Integer.parseInt(args[7]) : 100_000;
+        long seed = args.length > 8 ? Long.parseLong(args[8]) : 1;
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            PairedComparison comparison = new PairedComparison(LocalRobot.Controller.byName(args[0]),
+                    LocalRobot.Controller.byName(args[1]), Integer.parseInt(args[2]), Double.parseDouble(args[3]),
+                    runs, pool);
+            Result result = comparison.compare(alpha, margin, maxPairs, seed, Math.max(16, 4 * threads));
+            System.out.printf("%s vs %s: %s after %d pairs%n", args[0], args[1], result.verdict, result.pairs);
+            System.out.printf("mean steps A %.1f, B %.1f, B - A %.1f +- %.1f (%.2f%% of A), crashes A %d, B %d%n",
+                    result.meanA, result.meanB, result.meanDifference, result.radius,
+                    100 * result.meanDifference / result.meanA, comparison.getCrashesA(), comparison.getCrashesB());
+            System.exit(result.verdict == Verdict.B_WORSE ? 1 : 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The outcome of a comparison.
+     */
+    public enum Verdict {
+        B_BETTER, B_WORSE, NEGLIGIBLE, INCONCLUSIVE
+    }
+
+    /**
+     * Runs pairs in batches until the difference is significant or negligible, or maxPairs pairs have run.
+     * alpha : Chance of a wrong verdict, over the whole sequence of looks.
+     * margin : Differences within this fraction of A's mean steps count as negligible.
+     * seed : Maze i (from 0) is LocalMaze seed + i, and its random numbers are seeded from the same number.
+     * batch : Pairs evaluated between two looks.
+     */
+    public Result compare(double alpha, double margin, int maxPairs, long seed, int batch) throws Exception {
+        long pairs = 0;
+        double sumA = 0, sumB = 0;
+        double mean = 0, squares = 0; // Running mean and sum of squared deviations of the differences (Welford)
+        while (pairs < maxPairs) {
+            List<Future<double[]>> scores = new ArrayList<>();
+            for (int i = 0; i < batch && pairs + i < maxPairs; i++) {
+                long mazeSeed = seed + pairs + i;
+                scores.add(pool.submit(() -> evaluatePair(mazeSeed)));
+            }
+            for (Future<double[]> score : scores) { // In maze order, so the result does not depend on the timing
+                double[] pair = score.get();
+                pairs++;
+                sumA += pair[0];
+                sumB += pair[1];
+                double difference = pair[1] - pair[0];
+                double delta = difference - mean;
+                mean += delta / pairs;
+                squares += delta * (difference - mean);
+            }
+            if (pairs < MIN_PAIRS) continue;
+            double radius = radius(pairs, squares / (pairs - 1), alpha);
+            if (Math.abs(mean) > radius) {
+                return new Result(mean < 0 ? Verdict.B_BETTER : Verdict.B_WORSE, pairs, sumA / pairs, sumB / pairs,
+                        mean, radius);
+            }
+            if (Math.abs(mean) + radius < margin * sumA / pairs) {
+                return new Result(Verdict.NEGLIGIBLE, pairs, sumA / pairs, sumB / pairs, mean, radius);
+            }
+        }
+        double radius = pairs < 2 ? Double.POSITIVE_INFINITY : radius(pairs, squares / (pairs - 1), alpha);
+        return new Result(Verdict.INCONCLUSIVE, pairs, sumA / pairs, sumB / pairs, mean, radius);
+    }
+
+    /**
+     * Half-width of the confidence sequence for the mean difference after n pairs with the given variance.
+     * Two-sided normal mixture boundary for the sum: sqrt((V + rho) * (ln((V + rho) / rho) + 2 ln(1 / alpha))),
+     * with V = n * variance and rho chosen to make it tightest around TUNING_PAIRS pairs.
+     */
+    static double radius(long n, double variance, double alpha) {
+        if (variance == 0) return 0; // Every pair had the same difference
+        double v = n * variance;
+        double rho = TUNING_PAIRS * variance;
+        return Math.sqrt((v + rho) * (Math.log((v + rho) / rho) + 2 * Math.log(1 / alpha))) / n;
+    }
+
+    /**
+     * Scores both variants on one maze, with the same random numbers.
+     * return : {score of A, score of B}.
+     */
+    double[] evaluatePair(long seed) {
+        LocalMaze maze = LocalMaze.generate(size, size, seed, braid);
+        try {
+            ControllerRandom.seed(seed);
+            double a = score(maze, variantA, crashesA);
+            ControllerRandom.seed(seed);
+            double b = score(maze, variantB, crashesB);
+            return new double[]{a, b};
+        } finally {
+            ControllerRandom.unseed(); // The pool thread may run something else next
+        }
+    }
+
+    /**
+     * Total steps of all runs of a maze with a fresh controller session.
+     */
+    private double score(LocalMaze maze, Supplier<LocalRobot.Controller> controllers, AtomicInteger crashes) {
+        long budget = Watchdog.budgetFor(maze); // Step budget per run
+        try {
+            double total = 0;
+            for (long steps : new LocalRobot(maze).run(controllers.get(), runs, budget)) {
+                total += steps < 0 ? budget : steps; // Unfinished runs score the whole budget
+            }
+            return total;
+        } catch (RuntimeException e) {
+            crashes.incrementAndGet();
+            return (double) runs * budget; // A crash fails every run
+        }
+    }
+
+    public int getCrashesA() {
+        return crashesA.get();
+    }
+
+    public int getCrashesB() {
+        return crashesB.get();
+    }
+
+    /**
+     * The verdict of a comparison with the numbers behind it.
+     */
+    public static class Result {
+        public final Verdict verdict;
+        public final long pairs;
+        public final double meanA; // Mean score of A
+        public final double meanB;
+        public final double meanDifference; // Mean of B - A
+        public final double radius; // Half-width of the confidence interval of meanDifference at the last look
+
+        Result(Verdict verdict, long pairs, double meanA, double meanB, double meanDifference, double radius) {
+            this.verdict = verdict;
+            this.pairs = pairs;
+            this.meanA = meanA;
+            this.meanB = meanB;
+            this.meanDifference = meanDifference;
+            this.radius = radius;
+        }
+    }
+}
@@ -0,0 +1,624 @@
+/**
+ * Remote Controller Preamble
+ *
+ * A controller run in the simulator's own process can take the harness down with it, and harnesses written in
+ * other languages cannot drive one at all. RemoteController runs controllers out of process, behind a compact
+ * binary protocol over a local channel: TCP on the loopback interface, or a Unix domain socket (unix:/path).
+ * A round trip per poll would cost far more than the poll itself, so the protocol amortises it:
+ * - **Sessions:** One connection carries many robots, each numbered by the client. The server gives every session
+ *   its own controller session (see LocalRobot.Controller.byName), created on its first poll.
+ * - **Batches:** The client steps a batch of robots in lockstep and sends the polls of all of them in one message.
+ *   The server answers with one heading per poll, so a round trip is paid once per batch, not once per poll.
+ *   The batch is split in two halves that take turns, so the client moves one half while the server decides for
+ *   the other, and a robot that has made all its runs makes room for the next one, so batches stay full.
+ * - **Sensor readings:** A poll carries everything the robot can sense, in 35 bytes: its heading, what lies in each
+ *   absolute direction, its square and the target, and its run, step and collision counts. The server wraps them
+ *   in a RemoteRobot that answers look, getLocation etc. from the poll, so existing controlRobot(IRobot)
+ *   controllers run unchanged, and the heading they leave the robot in is the answer.
+ * Buffers are kept per connection and grown when a message does not fit, and polls are written from the robot's
+ * coordinates, not its Points, so the protocol allocates nothing per poll on either side. getLocation and
+ * getTargetLocation of a RemoteRobot still return a new Point on every call, as in the maze environment, so a
+ * controller that must not allocate per poll reads them once per run (see AllocationBudget).
+ * The server serves each connection on a thread of its own, so a harness that runs several Clients in parallel
+ * uses as many cores on the server.
+ *
+ * Protocol: every message is an int length followed by that many bytes (big-endian, as ByteBuffer writes them).
+ * A client message is a sequence of records, each a kind byte and an int session number:
+ * - POLL (1): then the heading (0-3) byte, the surroundings byte (bits 2h and 2h + 1 hold what look() returns
+ *   for heading h: 0 for WALL, 1 for PASSAGE, 2 for BEENBEFORE; 3 is rejected), and ints x, y, targetX, targetY,
+ *   runs, steps and collisions.
+ * - RESET (2): the session's run has ended, the controller is reset.
+ * - CLOSE (3): the session is finished, and its number may be used again.
+ * The server answers every client message with one byte per POLL record, in order: the heading (0-3) to take, or
+ * FAILED (255) if the controller threw, after which every poll of that session fails. Session numbers index an
+ * array on the server, so clients keep them small (Client numbers its batch slots from 0). A client may send a
+ * message before the answer to the previous one has arrived; the server answers messages in order.
+ *
+ * Usage: java RemoteController serve controller [address]
+ *        java RemoteController run address size mazes [runs] [braid] [batch]
+ *        java RemoteController local controller size mazes [runs] [braid]
+ *   address: a port on the loopback interface (default 7070) or unix:/path; defaults: 3 runs, braid 0, batch 256
+ *   run drives seeded mazes through a server, local runs the same mazes in this process, and both print the steps
+ *   taken and the polls per second.
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.awt.Point;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Out-of-process controllers: the protocol's server, its client and the benchmark around them.
+ */
+public class RemoteController {
+    static final byte POLL = 1, RESET = 2, CLOSE = 3; // Record kinds
+    static final int FAILED = 255; // Answer to the polls of a session whose controller threw
+    static final int POLL_BYTES = 1 + 4 + 2 + 7 * 4; // Size of a POLL record
+    static final int RECORD_BYTES = 1 + 4; // Size of a RESET or CLOSE record
+    static final int MAX_SESSIONS = 1 << 20; // Highest session number + 1 that a server accepts
+    static final int MAX_BATCH = 1 << 13; // Robots a Client drives at once, so a reply is at most 4 KB per half
+
+    public static void main(String[] args) throws Exception {
+        switch (args[0]) {
+            case "serve": {
+                SocketAddress address = address(args.length > 2 ? args[2] : "7070");
+                Server server = new Server(LocalRobot.Controller.byName(args[1]), address);
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> { // Serves until the process is stopped
+                    try {
+                        server.close();
+                    } catch (IOException e) {
+                        System.err.println("Could not close the server: " + e.getMessage());
+                    }
+                }));
+                System.out.println("Serving " + args[1] + " on " + address);
+                break;
+            }
+            case "run": {
+                List<LocalRobot> robots = robots(args);
+                int batch = args.length > 6 ? Integer.parseInt(args[6]) : 256;
+                long budget = Watchdog.budgetFor(robots.get(0).getMaze());
+                int runs = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+                try (Client client = Client.connect(address(args[1]))) {
+                    long start = System.nanoTime();
+                    long[][] results = client.run(robots, runs, budget, batch);
+                    report("remote", Arrays.asList(results), budget, System.nanoTime() - start);
+                }
+                break;
+            }
+            case "local": {
+                List<LocalRobot> robots = robots(args);
+                Supplier<LocalRobot.Controller> controllers = LocalRobot.Controller.byName(args[1]);
+                long budget = Watchdog.budgetFor(robots.get(0).getMaze());
+                int runs = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+                long start = System.nanoTime();
+                List<long[]> results = new ArrayList<>();
+                for (LocalRobot robot : robots) results.add(robot.run(controllers.get(), runs, budget));
+                report("local", results, budget, System.nanoTime() - start);
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown command " + args[0] + ", expected serve, run or local");
+        }
+    }
+
+    /**
+     * Robots on the seeded mazes of the run and local commands: size, mazes and braid are args 2, 3 and 5.
+     */
+    private static List<LocalRobot> robots(String[] args) {
+        int size = Integer.parseInt(args[2]);
+        int mazes = Integer.parseInt(args[3]);
+        double braid = args.length > 5 ? Double.parseDouble(args[5]) : 0;
+        List<LocalRobot> robots = new ArrayList<>();
+        for (int seed = 1; seed <= mazes; seed++) {
+            robots.add(new LocalRobot(LocalMaze.generate(size, size, seed, braid)));
+        }
+        return robots;
+    }
+
+    /**
+     * Prints the steps of the runs and the polls per second. A stopped run counts its budget of polls.
+     */
+    private static void report(String label, List<long[]> results, long budget, long nanos) {
+        long steps = 0, polls = 0;
+        int stopped = 0;
+        for (long[] runs : results) {
+            for (long run : runs) {
+                if (run < 0) stopped++;
+                else steps += run;
+                polls += run < 0 ? budget : run;
+            }
+        }
+        System.out.printf("%s: %d steps in finished runs, %d runs stopped, %.0f polls/s%n", label, steps, stopped,
+                polls * 1e9 / nanos);
+    }
+
+    /**
+     * Parses an address: a port on the loopback interface, or unix:/path for a Unix domain socket.
+     */
+    public static SocketAddress address(String spec) {
+        if (spec.startsWith("unix:")) return UnixDomainSocketAddress.of(spec.substring("unix:".length()));
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(spec));
+    }
+
+    /**
+     * Protocol code (0-2) of what look() returned.
+     */
+    static int lookCode(int look) {
+        switch (look) {
+            case IRobot.WALL:
+                return 0;
+            case IRobot.PASSAGE:
+                return 1;
+            case IRobot.BEENBEFORE:
+                return 2;
+            default:
+                throw new IllegalArgumentException("Not a look() result: " + look);
+        }
+    }
+
+    /**
+     * What look() returns for a protocol code.
+     */
+    static int lookOf(int code) throws IOException {
+        switch (code) {
+            case 0:
+                return IRobot.WALL;
+            case 1:
+                return IRobot.PASSAGE;
+            case 2:
+                return IRobot.BEENBEFORE;
+            default:
+                throw new IOException("Bad surroundings code " + code);
+        }
+    }
+
+    /**
+     * Sends a poll off every message at once rather than waiting to fill a TCP segment.
+     */
+    private static void configure(SocketChannel channel) throws IOException {
+        if (channel.getLocalAddress() instanceof InetSocketAddress) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+    }
+
+    /**
+     * Serves a controller class to any number of connections.
+     */
+    public static class Server implements Closeable {
+        private final Supplier<LocalRobot.Controller> controllers;
+        private final ServerSocketChannel channel;
+        private final SocketAddress address;
+
+        /**
+         * Starts accepting connections on the address, on a thread of its own.
+         * controllers : Creates the controller session of each remote session.
+         */
+        public Server(Supplier<LocalRobot.Controller> controllers, SocketAddress address) throws IOException {
+            this.controllers = controllers;
+            this.address = address;
+            channel = address instanceof UnixDomainSocketAddress
+                    ? ServerSocketChannel.open(StandardProtocolFamily.UNIX) : ServerSocketChannel.open();
+            channel.bind(address);
+            new Thread(this::accept, "remote-controller").start();
+        }
+
+        private void accept() {
+            try {
+                for (int connection = 1; ; connection++) {
+                    SocketChannel client = channel.accept();
+                    Thread thread = new Thread(() -> serve(client), "remote-controller-" + connection);
+                    thread.setDaemon(true); // A client that never hangs up does not keep the process alive
+                    thread.start();
+                }
+            } catch (ClosedChannelException e) {
+                // The server was closed
+            } catch (IOException e) {
+                System.err.println("Remote controller stopped accepting: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Answers the messages of one connection until the client hangs up.
+         */
+        private void serve(SocketChannel client) {
+            try (client) {
+                configure(client);
+                Link link = new Link(client);
+                RemoteRobot[] sessions = new RemoteRobot[16];
+                for (ByteBuffer message = link.receive(); message != null; message = link.receive()) {
+                    link.begin();
+                    while (message.hasRemaining()) {
+                        byte kind = message.get();
+                        int session = message.getInt();
+                        if (session < 0 || session >= MAX_SESSIONS) throw new IOException("Bad session " + session);
+                        if (session >= sessions.length) {
+                            sessions = Arrays.copyOf(sessions, Math.max(session + 1, 2 * sessions.length));
+                        }
+                        if (kind == POLL) {
+                            if (sessions[session] == null) sessions[session] = new RemoteRobot(controllers.get());
+                            sessions[session].read(message);
+                            link.reserve(1).put((byte) sessions[session].poll());
+                        } else if (kind == RESET) {
+                            if (sessions[session] != null) sessions[session].endRun();
+                        } else if (kind == CLOSE) {
+                            sessions[session] = null;
+                        } else {
+                            throw new IOException("Unknown record kind " + kind);
+                        }
+                    }
+                    link.send();
+                }
+            } catch (IOException e) {
+                System.err.println("Remote controller connection lost: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Stops accepting connections; connections already open are served until their clients hang up.
+         */
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            if (address instanceof UnixDomainSocketAddress) {
+                Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath()); // The socket file bind made
+            }
+        }
+    }
+
+    /**
+     * Drives LocalRobots with the controller of a server, one connection per client.
+     */
+    public static class Client implements Closeable {
+        private final Link link;
+        private long polls = 0; // Polls answered by the server so far
+
+        private Client(SocketChannel channel) {
+            link = new Link(channel);
+        }
+
+        public static Client connect(SocketAddress address) throws IOException {
+            SocketChannel channel = SocketChannel.open(address);
+            configure(channel);
+            return new Client(channel);
+        }
+
+        /**
+         * Makes a number of runs with every robot. Up to batch robots are driven at once, in lockstep: their slots
+         * are split into two halves, and while the server decides for one half the client moves the robots of the
+         * other, with one message per step of each half. A robot that has made all its runs hands its slot (and
+         * session number) on to the next robot.
+         * maxSteps : The step budget of each run.
+         * batch : Robots driven at once, at most MAX_BATCH so that replies never fill the socket buffers.
+         * return : The steps taken in each run of each robot, Watchdog.OVER_BUDGET for runs that were stopped.
+         */
+        public long[][] run(List<LocalRobot> robots, int runs, long maxSteps, int batch) throws IOException {
+            if (batch < 1 || batch > MAX_BATCH) throw new IllegalArgumentException("Batch size " + batch);
+            long[][] result = new long[robots.size()][runs];
+            if (runs == 0) return result;
+            Batch state = new Batch(robots, runs, maxSteps, Math.min(batch, Math.max(1, robots.size())), result);
+            boolean[] inFlight = {post(state, 0), post(state, 1)};
+            for (int half = 0; inFlight[0] || inFlight[1]; half ^= 1) {
+                if (!inFlight[half]) continue;
+                ByteBuffer headings = link.receive(); // Replies come in the order the halves were posted
+                if (headings == null) throw new EOFException("The server hung up");
+                for (int slot = half; slot < state.slots.length; slot += 2) {
+                    if (!state.polled[slot]) continue;
+                    int heading = headings.get() & 0xFF;
+                    if (heading == FAILED) {
+                        throw new IllegalStateException("The remote controller failed on robot " + state.slots[slot]);
+                    }
+                    LocalRobot robot = robots.get(state.slots[slot]);
+                    robot.setHeading(IRobot.NORTH + heading);
+                    robot.advance();
+                    polls++;
+                }
+                inFlight[half] = post(state, half);
+            }
+            return result;
+        }
+
+        /**
+         * Sends the next message of one half of the slots: ends the runs that are over, starts robots on free
+         * slots and polls every robot that is still running.
+         * return : False if there was nothing to send, i.e. the half has no robots left.
+         */
+        private boolean post(Batch state, int half) throws IOException {
+            link.begin();
+            for (int slot = half; slot < state.slots.length; slot += 2) {
+                state.polled[slot] = false;
+                while (true) {
+                    int i = state.slots[slot];
+                    if (i == -1) {
+                        if (state.next == state.robots.size()) break; // No robot left for this slot
+                        i = state.slots[slot] = state.next++;
+                    }
+                    LocalRobot robot = state.robots.get(i);
+                    if (!robot.atTarget() && robot.getSteps() < state.maxSteps) {
+                        writePoll(link.reserve(POLL_BYTES), slot, robot);
+                        state.polled[slot] = true;
+                        break;
+                    }
+                    state.result[i][state.run[i]] = robot.atTarget() ? robot.getSteps() : Watchdog.OVER_BUDGET;
+                    link.reserve(RECORD_BYTES).put(RESET).putInt(slot);
+                    robot.endRun();
+                    if (++state.run[i] == state.result[i].length) {
+                        link.reserve(RECORD_BYTES).put(CLOSE).putInt(slot);
+                        state.slots[slot] = -1;
+                    }
+                }
+            }
+            if (link.isEmpty()) return false;
+            link.send();
+            return true;
+        }
+
+        /**
+         * The robots of one call of run and where each of them is.
+         */
+        private static final class Batch {
+            final List<LocalRobot> robots;
+            final long maxSteps;
+            final long[][] result;
+            final int[] run; // Runs each robot has finished
+            final int[] slots; // Robot in each slot (the slot is its session number), -1 if none
+            final boolean[] polled; // True if the robot in the slot is polled in its half's message in flight
+            int next = 0; // Next robot to start
+
+            Batch(List<LocalRobot> robots, int runs, long maxSteps, int batch, long[][] result) {
+                this.robots = robots;
+                this.maxSteps = maxSteps;
+                this.result = result;
+                run = new int[robots.size()];
+                slots = new int[batch];
+                Arrays.fill(slots, -1);
+                polled = new boolean[batch];
+            }
+        }
+
+        /**
+         * Writes a POLL record with what the robot senses on its square.
+         */
+        private static void writePoll(ByteBuffer out, int session, LocalRobot robot) {
+            int heading = robot.getHeading() - IRobot.NORTH;
+            int surroundings = 0;
+            for (int h = 0; h < 4; h++) {
+                surroundings |= lookCode(robot.look(IRobot.AHEAD + ((h - heading) & 3))) << (2 * h);
+            }
+            MazeGrid maze = robot.getMaze();
+            out.put(POLL).putInt(session).put((byte) heading).put((byte) surroundings)
+                    .putInt(robot.getX()).putInt(robot.getY()).putInt(maze.getTargetX()).putInt(maze.getTargetY())
+                    .putInt(robot.getRuns()).putInt(robot.getSteps()).putInt(robot.getCollisions());
+        }
+
+        public long getPolls() {
+            return polls;
+        }
+
+        @Override
+        public void close() throws IOException {
+            link.channel.close();
+        }
+    }
+
+    /**
+     * One side of a connection: reads and writes length-prefixed messages with buffers that are reused, and grown
+     * when a message does not fit.
+     */
+    static final class Link {
+        private final SocketChannel channel;
+        private ByteBuffer in = ByteBuffer.allocateDirect(1 << 16);
+        private ByteBuffer out = ByteBuffer.allocateDirect(1 << 16);
+
+        Link(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        /**
+         * Starts a message, leaving room for its length.
+         */
+        void begin() {
+            out.clear();
+            out.putInt(0);
+        }
+
+        /**
+         * Makes room for the next bytes of the message being written.
+         * return : The buffer to write them to.
+         */
+        ByteBuffer reserve(int bytes) {
+            if (out.remaining() < bytes) {
+                ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(2 * out.capacity(), out.position() + bytes));
+                out.flip();
+                grown.put(out);
+                out = grown;
+            }
+            return out;
+        }
+
+        /**
+         * True if the message being written has no records.
+         */
+        boolean isEmpty() {
+            return out.position() == 4;
+        }
+
+        /**
+         * Sends the message written since begin.
+         */
+        void send() throws IOException {
+            out.putInt(0, out.position() - 4);
+            out.flip();
+            while (out.hasRemaining()) channel.write(out);
+        }
+
+        /**
+         * Reads the next message.
+         * return : The buffer holding it, or null if the other side hung up between messages.
+         */
+        ByteBuffer receive() throws IOException {
+            in.clear().limit(4);
+            if (!fill()) return null;
+            int length = in.getInt(0);
+            if (length < 0) throw new IOException("Bad message length " + length);
+            if (in.capacity() < length) in = ByteBuffer.allocateDirect(Math.max(length, 2 * in.capacity()));
+            in.clear().limit(length);
+            if (length != 0 && !fill()) throw new EOFException("Message cut short");
+            return in.flip();
+        }
+
+        /**
+         * Reads until the input buffer is full.
+         * return : False if the channel ended before the first byte.
+         */
+        private boolean fill() throws IOException {
+            while (in.hasRemaining()) {
+                if (channel.read(in) >= 0) continue;
+                if (in.position() == 0) return false;
+                throw new EOFException("Message cut short");
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The robot a controller sees on the server: everything it senses comes from the last poll of its session.
+     */
+    static final class RemoteRobot implements IRobot {
+        private final LocalRobot.Controller controller;
+        private boolean failed = false; // True once the controller has thrown
+        private int heading;
+        private final int[] looks = new int[4]; // What look() returns per absolute heading (0-3)
+        private int x, y, targetX, targetY;
+        private int runs, steps, collisions;
+
+        RemoteRobot(LocalRobot.Controller controller) {
+            this.controller = controller;
+        }
+
+        /**
+         * Takes the readings of a POLL record, after its kind and session.
+         */
+        void read(ByteBuffer poll) throws IOException {
+            heading = IRobot.NORTH + (poll.get() & 3);
+            int surroundings = poll.get();
+            for (int h = 0; h < 4; h++) looks[h] = lookOf((surroundings >>> (2 * h)) & 3);
+            x = poll.getInt();
+            y = poll.getInt();
+            targetX = poll.getInt();
+            targetY = poll.getInt();
+            runs = poll.getInt();
+            steps = poll.getInt();
+            collisions = poll.getInt();
+        }
+
+        /**
+         * Lets the controller choose a heading.
+         * return : The heading (0-3), or FAILED if the controller has thrown.
+         */
+        int poll() {
+            if (failed) return FAILED;
+            try {
+                controller.controlRobot(this);
+                return heading - IRobot.NORTH;
+            } catch (RuntimeException e) {
+                failed = true; // Its state may be broken half way, so the session is not polled again
+                System.err.println("Remote controller failed: " + e);
+                return FAILED;
+            }
+        }
+
+        /**
+         * Resets the controller at the end of a run.
+         */
+        void endRun() {
+            if (!failed) controller.reset();
+        }
+
+        @Override
+        public int look(int direction) {
+            return looks[absolute(direction) - IRobot.NORTH];
+        }
+
+        @Override
+        public void face(int direction) {
+            heading = absolute(direction);
+        }
+
+        @Override
+        public void setHeading(int heading) {
+            if (heading < IRobot.NORTH || heading > IRobot.WEST) {
+                throw new IllegalArgumentException("Not an absolute heading: " + heading);
+            }
+            this.heading = heading;
+        }
+
+        @Override
+        public int getHeading() {
+            return heading;
+        }
+
+        @Override
+        public Point getLocation() {
+            return new Point(x, y);
+        }
+
+        @Override
+        public Point getTargetLocation() {
+            return new Point(targetX, targetY);
+        }
+
+        @Override
+        public int getRuns() {
+            return runs;
+        }
+
+        @Override
+        public int getSteps() {
+            return steps;
+        }
+
+        @Override
+        public int getCollisions() {
+            return collisions;
+        }
+
+        /**
+         * Controllers only choose headings, the simulator on the other side of the connection moves the robot.
+         */
+        @Override
+        public void advance() {
+            throw new UnsupportedOperationException("A remote robot is moved by the simulator");
+        }
+
+        @Override
+        public void reset() {
+            throw new UnsupportedOperationException("A remote robot is reset by the simulator");
+        }
+
+        /**
+         * Converts a relative direction (AHEAD, RIGHT, BEHIND, LEFT) into an absolute heading.
+         */
+        private int absolute(int direction) {
+            if (direction < IRobot.AHEAD || direction > IRobot.LEFT) {
+                throw new IllegalArgumentException("Not a relative direction: " + direction);
+            }
+            return IRobot.NORTH + (heading - IRobot.NORTH + direction - IRobot.AHEAD) % 4;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Route Cache Preamble
+ *
+ * A service that cycles through a rotating set of mazes would otherwise re-explore every maze the first
+ * time a new controller instance meets it. The route cache keeps the learned junction headings of many
+ * mazes in memory, so a returning maze can be replayed straight away, even when hundreds of other mazes
+ * were run in between.
+ *
+ * **Keys:** A maze is identified by a RouteCache.Fingerprint, a 64-bit hash of the start location, the target
+ * location and the first K surroundings the robot sensed (which squares around it are walls). Every maze with
+ * the same start and target looks the same from the start square, so K should be large enough to tell mazes
+ * apart (GrandFinale senses 16 squares). Different mazes can still share a fingerprint, so a route should carry
+ * enough of its maze (GrandFinale keeps the wall mask of every junction in it) for the caller to notice a route
+ * of another maze while replaying it.
+ *
+ * **Eviction:** Entries are kept in least-recently-used order and charged by their approximate size in
+ * bytes. When the byte budget is exceeded the least recently used routes are evicted until it fits again.
+ *
+ * **Metrics:** Hits, misses, evictions, entry count and bytes in use are tracked and printed by toString.
+ * clear() forgets every route and zeroes the metrics, e.g. between experiments that must not share routes.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Byte-budgeted LRU cache of learned routes, shared between controller instances.
+ * All methods are synchronized so the cache can be used from several robots at once.
+ */
+public class RouteCache {
+    private static final int ENTRY_OVERHEAD = 80; // Map node, boxed key and array header, in bytes
+
+    private final long budgetBytes; // Maximum bytes the cached routes may use
+    private final LinkedHashMap<Long, int[]> routes = new LinkedHashMap<>(16, 0.75f, true); // Access order = LRU
+    private long usedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates an empty cache.
+     * budgetBytes : The maximum number of bytes the cached routes may occupy.
+     */
+    public RouteCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * True if the budget lets the cache hold any route at all; a budget of 0 turns caching off.
+     */
+    public boolean isEnabled() {
+        return budgetBytes > 0;
+    }
+
+    /**
+     * Looks up the route of a maze and marks it as recently used.
+     * return : A copy of the cached route, or null on a miss.
+     */
+    public synchronized int[] get(long fingerprint) {
+        int[] route = routes.get(fingerprint);
+        if (route == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return route.clone(); // Callers may not change the cached copy
+    }
+
+    /**
+     * Stores (or replaces) the route of a maze, evicting old routes if the budget is exceeded.
+     * Routes larger than the whole budget are not cached.
+     */
+    public synchronized void put(long fingerprint, int[] route) {
+        long size = sizeOf(route);
+        if (size > budgetBytes) return;
+        int[] old = routes.put(fingerprint, route.clone());
+        if (old != null) usedBytes -= sizeOf(old);
+        usedBytes += size;
+
+        Iterator<Map.Entry<Long, int[]>> eldest = routes.entrySet().iterator();
+        while (usedBytes > budgetBytes && eldest.hasNext()) {
+            usedBytes -= sizeOf(eldest.next().getValue());
+            eldest.remove(); // Least recently used entries come first
+            evictions++;
+        }
+    }
+
+    /**
+     * Removes a route that turned out to be wrong for its maze.
+     */
+    public synchronized void invalidate(long fingerprint) {
+        int[] old = routes.remove(fingerprint);
+        if (old != null) usedBytes -= sizeOf(old);
+    }
+
+    /**
+     * Removes every route and zeroes the metrics.
+     */
+    public synchronized void clear() {
+        routes.clear();
+        usedBytes = 0;
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Approximate heap size of one cached route.
+     */
+    private static long sizeOf(int[] route) {
+        return ENTRY_OVERHEAD + 4L * route.length;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long lookups = hits + misses;
+        double hitRate = lookups == 0 ? 0 : 100.0 * hits / lookups;
+        return String.format("RouteCache entries=%d bytes=%d/%d hits=%d misses=%d (%.1f%% hit) evictions=%d",
+                routes.size(), usedBytes, budgetBytes, hits, misses, hitRate, evictions);
+    }
+
+    /**
+     * Builds the 64-bit fingerprint of a maze from what a robot can observe.
+     * Start and target are mixed in first, then each sensed surrounding as a 4-bit wall mask
+     * (one bit per absolute direction, NORTH to WEST), until K surroundings have been added.
+     */
+    public static class Fingerprint {
+        private final int k; // Number of surroundings that make up the fingerprint
+        private int added = 0;
+        private long hash;
+
+        /**
+         * Starts a fingerprint.
+         * startX, startY, targetX, targetY : The start and target locations of the maze.
+         * k : How many surroundings to include.
+         */
+        public Fingerprint(int startX, int startY, int targetX, int targetY, int k) {
+            this.k = k;
+            hash = mix(mix(mix(mix(0x9E3779B97F4A7C15L, startX), startY), targetX), targetY);
+        }
+
+        /**
+         * Adds one sensed surrounding; anything beyond the first K is ignored.
+         * wallMask : Bit i is set if the square in direction IRobot.NORTH + i is a wall.
+         */
+        public void addSurroundings(int wallMask) {
+            if (added < k) {
+                hash = mix(hash, wallMask);
+                added++;
+            }
+        }
+
+        /**
+         * True once K surroundings have been added.
+         */
+        public boolean isComplete() {
+            return added == k;
+        }
+
+        public long value() {
+            return mix(hash, added);
+        }
+
+        /**
+         * Folds a value into the hash (SplitMix64 finaliser).
+         */
+        private static long mix(long hash, long value) {
+            long z = hash + value * 0xBF58476D1CE4E5B9L + 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
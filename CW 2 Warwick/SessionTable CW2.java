@@ -0,0 +1,90 @@
+/**
+ * Session Table Preamble
+ *
+ * The maze environment drives a controller through controlRobot(IRobot) and reset(), so a controller
+ * that keeps its state in instance fields can only drive one robot at a time. The CW2 controllers keep
+ * their state in per-session context objects instead, and a SessionTable finds the session of a robot
+ * for the plain controlRobot(IRobot) entry point. The table is a ConcurrentHashMap keyed by the robot
+ * object, so one controller can serve many robots from a thread pool. A robot only ever sees its own
+ * session, so sessions themselves need no locking.
+ *
+ * The environment's reset() names no robot either, so it resets only the table's default session: the session
+ * of the first robot driven through the table, i.e. the environment's only robot. Resetting every session
+ * would wipe the runs of robots on other threads; callers that drive several robots reset each session with
+ * the controller's reset(Session).
+ *
+ * Callers that manage sessions themselves (e.g. LocalRobot) skip the table and pass the session in.
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Thread-safe map from robots to the controller sessions that drive them.
+ */
+public class SessionTable<S> {
+    private final ConcurrentHashMap<IRobot, S> sessions = new ConcurrentHashMap<>();
+    private final Supplier<S> factory;
+    private final AtomicReference<S> defaultSession = new AtomicReference<>(); // Session of the first robot
+
+    /**
+     * factory : Creates the session of a robot the first time it is seen.
+     */
+    public SessionTable(Supplier<S> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the session of a robot, creating it on first use.
+     */
+    public S get(IRobot robot) {
+        return sessions.computeIfAbsent(robot, r -> {
+            S session = factory.get();
+            defaultSession.compareAndSet(null, session); // The first robot is the environment's
+            return session;
+        });
+    }
+
+    /**
+     * Returns the session of the first robot driven through the table, or null if there is none (yet).
+     */
+    public S getDefault() {
+        return defaultSession.get();
+    }
+
+    /**
+     * Applies an action to every session, e.g. to add up their memory footprints.
+     */
+    public void forEach(Consumer<S> action) {
+        sessions.values().forEach(action);
+    }
+
+    /**
+     * Forgets a robot and returns its session, or null if it had none.
+     */
+    public S remove(IRobot robot) {
+        S session = sessions.remove(robot);
+        if (session != null) defaultSession.compareAndSet(session, null); // The next new robot takes its place
+        return session;
+    }
+
+    /**
+     * Heap bytes of the table itself, not of the sessions: the map object, its bucket array (a power of two at
+     * most 75% full), one node per robot and the default session's reference.
+     */
+    public long retainedBytes() {
+        int buckets = 16;
+        while (buckets * 3L / 4 < sessions.size()) buckets *= 2;
+        return MemoryFootprint.object(3 * MemoryFootprint.REFERENCE) + MemoryFootprint.object(64)
+                + MemoryFootprint.object(MemoryFootprint.REFERENCE)
+                + MemoryFootprint.array(buckets, MemoryFootprint.REFERENCE)
+                + (long) sessions.size() * MemoryFootprint.object(4 + 3 * MemoryFootprint.REFERENCE);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+}
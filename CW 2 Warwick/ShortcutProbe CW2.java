@@ -0,0 +1,414 @@
+/**
+ * Shortcut Probe Preamble
+ *
+ * After its first run GrandFinale stops exploring and replays its junction log, so a shortcut one square off the
+ * learned route is never found. With -Dgrandfinale.shortcuts=true (or setShortcuts) repeat runs follow a route
+ * kept by this class instead, and look for shortcuts on the way:
+ * - **Route:** Every passage a run walks is marked. Before each run a breadth-first search from the target over
+ *   the marked passages gives a shortest route from the start over passages the robot knows, whatever order it
+ *   walked them in.
+ * - **Adjacent shortcuts:** If the robot's square has an open exit to a square further along the route than the
+ *   next one, the robot takes it and skips the squares in between.
+ * - **Probes:** If an exit is a passage that no run has walked, and the Manhattan distances from the square it
+ *   leads to to the squares further along the route leave room for a shorter route, the robot walks in, depth
+ *   first over passages no run has walked, where most could be saved first. A probe is taken on only if it comes
+ *   back onto the route further along than the number of steps it took, i.e. it is provably shorter. Otherwise
+ *   the robot walks back the way it went and carries on along the route.
+ * - **Budget:** The probes of a run take at most PROBE_PERCENT percent of the route's length in extra steps
+ *   (-Dgrandfinale.probePercent), there and back: a probe only steps out if what is left of the budget also
+ *   covers the walk back. So a repeat run is at most that much longer than its route, and the route itself never
+ *   gets longer, as the search only gains passages. A passage is probed at most once, so the extra steps stop
+ *   once every promising passage has been tried, and repeat runs settle on the shortest route found.
+ * If the route runs into a wall (the maze is not the one learned) that passage is unmarked and GrandFinale
+ * explores from where the robot stands, with a TremauxExplorer as the junction log only works from the start.
+ *
+ * Every square takes 8 bytes in a long array, grown as the robot finds squares further out: its index on the
+ * route, its index on the path of the current run (the squares walked, with loops erased, so that a probe never
+ * walks into itself) and whether a run has walked its passages to the east and the south. The robot's square is
+ * tracked from the headings it takes, so getLocation (a new Point each call) is read once per run.
+ *
+ * What a probe could save by way of a square only depends on the route, so it is worked out once per plan: an int
+ * array over the route's bounding box holds, for every square, the largest route index less its Manhattan
+ * distance from the square (a city-block distance transform seeded with the indices, two raster passes). Each
+ * candidate exit then costs one lookup instead of a pass over the rest of the route.
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.awt.Point;
+import java.util.Arrays;
+
+/**
+ * Per-session route of repeat runs, with the probes that shorten it.
+ */
+public class ShortcutProbe {
+    public static final int PROBE_PERCENT = Integer.getInteger("grandfinale.probePercent", 10);
+
+    private static final int[] DX = {0, 1, 0, -1}; // x step for NORTH, EAST, SOUTH, WEST
+    private static final int[] DY = {-1, 0, 1, 0}; // y step for NORTH, EAST, SOUTH, WEST
+    private static final long WALKED_EAST = 1L << 31; // Cell bit set once a run has walked the passage east
+    private static final long WALKED_SOUTH = 1L << 63; // Cell bit set once a run has walked the passage south
+    private static final long INDEX = 0x7FFFFFFFL; // Mask of an index + 1, 0 if the square is not on it
+
+    private long[] cells = new long[0]; // Per square: route index + 1 in bits 32-62, path index + 1 in bits 0-30
+    private int width = 0, height = 0; // Squares covered by the cells
+    private boolean changed = false; // True if passages were marked or unmarked since the route was planned
+    private int[] route = new int[0]; // Squares (x << 16 | y) from the start to the target
+    private int[] reach = new int[0]; // Per square of the route's box: the largest route index less the distance to it
+    private int reachX, reachY, reachWidth = 0, reachHeight; // The route's bounding box, reachWidth 0 if no route
+    private int routeLength = 0; // 0 while no route is known
+    private int[] path = new int[16]; // Squares of the current run, loops erased
+    private int pathLength = 0;
+    private int x, y; // The robot's square once the chosen step is taken
+    private int targetX, targetY;
+    private boolean following = false; // True while the run follows the route
+    private int position; // Index on the route of the robot's square while following
+    private int[] probe = new int[16]; // Headings (0-3) of the steps out of the current probe
+    private int depth = 0; // Steps out of the current probe, 0 when not probing
+    private int origin; // Index on the route of the square the current probe left from
+    private int budget; // Extra steps the probes of this run may still take
+
+    /**
+     * Chooses the heading of a repeat run: along the route, out on a probe or back from one.
+     * firstPoll : True on the first poll of a run.
+     * return : The absolute heading, or -1 if the run does not follow a route (none is known yet, or it ran into a
+     *          wall); the caller then chooses the heading itself and reports it with step.
+     */
+    public int nextHeading(IRobot robot, boolean firstPoll) {
+        if (firstPoll) startRun(robot);
+        if (!following) return -1;
+        if (depth != 0 && routeIndex(x, y) > origin + depth) { // Back on the route further along: a shortcut
+            position = routeIndex(x, y);
+            depth = 0;
+        }
+        int heading = depth != 0 ? probeStep(robot) : follow(robot);
+        if (heading == -1) {
+            following = false; // No route from here, the caller explores
+            depth = 0;
+            return -1;
+        }
+        step(robot, IRobot.NORTH + heading);
+        return IRobot.NORTH + heading;
+    }
+
+    /**
+     * Records the step the robot is about to take, for runs that the caller steers.
+     * heading : The absolute heading the robot takes.
+     */
+    public void step(IRobot robot, int heading) {
+        int h = heading - IRobot.NORTH;
+        if (look(robot, h) == IRobot.WALL) return; // A collision, the robot stays where it is
+        if (!walked(x, y, h)) mark(x, y, h, true);
+        x += DX[h];
+        y += DY[h];
+        cover(x + 2, y + 2);
+        arrive();
+    }
+
+    /**
+     * Plans the route if passages were marked since, and starts a path on the start square.
+     */
+    private void startRun(IRobot robot) {
+        for (int i = 0; i < pathLength; i++) setIndex(path[i], 0, 0);
+        pathLength = 0;
+        depth = 0;
+
+        Point location = robot.getLocation(); // One call each, as both return a new Point
+        Point target = robot.getTargetLocation();
+        x = location.x;
+        y = location.y;
+        targetX = target.x;
+        targetY = target.y;
+        cover(Math.max(x, targetX) + 2, Math.max(y, targetY) + 2);
+        if (changed || (routeLength != 0 && route[0] != pack(x, y))) plan();
+        following = routeLength != 0;
+        position = 0;
+        budget = (int) ((long) routeLength * PROBE_PERCENT / 100);
+        arrive();
+    }
+
+    /**
+     * Replaces the route with a shortest one from the robot's square over the marked passages, by a breadth-first
+     * search from the target. Between runs the path is empty, so the search keeps its distances in the path bits
+     * of the cells and its queue in the path array.
+     */
+    private void plan() {
+        changed = false;
+        for (int i = 0; i < routeLength; i++) setIndex(route[i], 32, 0);
+        if (path.length < width * height) path = new int[width * height];
+        int[] queue = path;
+        int head = 0, tail = 0;
+        queue[tail++] = pack(targetX, targetY);
+        setIndex(queue[0], 0, 1);
+        while (head < tail && (cell(x, y) & INDEX) == 0) {
+            int square = queue[head++];
+            int sx = square >>> 16, sy = square & 0xFFFF;
+            int distance = (int) (cell(sx, sy) & INDEX);
+            for (int h = 0; h < 4; h++) {
+                if (!walked(sx, sy, h) || (cell(sx + DX[h], sy + DY[h]) & INDEX) != 0) continue;
+                queue[tail] = pack(sx + DX[h], sy + DY[h]);
+                setIndex(queue[tail++], 0, distance + 1);
+            }
+        }
+        int squares = (int) (cell(x, y) & INDEX); // Squares on the route, 0 if the target cannot be reached
+        if (route.length < squares) route = new int[Math.max(squares, route.length * 2)];
+        int sx = x, sy = y;
+        for (int i = 0; i < squares; i++) {
+            route[i] = pack(sx, sy);
+            for (int h = 0; h < 4 && i + 1 < squares; h++) { // Down the distances, one step nearer the target
+                if (walked(sx, sy, h) && (cell(sx + DX[h], sy + DY[h]) & INDEX) == squares - i - 1) {
+                    sx += DX[h];
+                    sy += DY[h];
+                    break;
+                }
+            }
+        }
+        for (int i = 0; i < tail; i++) setIndex(queue[i], 0, 0);
+        routeLength = squares;
+        for (int i = 0; i < routeLength; i++) setIndex(route[i], 32, i + 1);
+        spread();
+    }
+
+    /**
+     * Fills reach over the bounding box of the route: for every square the largest route index less its Manhattan
+     * distance from the square. A forward and a backward raster pass each take the best of the square's own value
+     * and its neighbours' less one, which is exact for Manhattan distances.
+     */
+    private void spread() {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = -1, maxY = -1;
+        for (int i = 0; i < routeLength; i++) {
+            minX = Math.min(minX, route[i] >>> 16);
+            minY = Math.min(minY, route[i] & 0xFFFF);
+            maxX = Math.max(maxX, route[i] >>> 16);
+            maxY = Math.max(maxY, route[i] & 0xFFFF);
+        }
+        reachWidth = maxX - minX + 1; // 0 if there is no route
+        reachHeight = maxY - minY + 1;
+        if (routeLength == 0) return;
+        reachX = minX;
+        reachY = minY;
+        int size = reachWidth * reachHeight;
+        if (reach.length < size) reach = new int[Math.max(size, reach.length * 2)];
+        Arrays.fill(reach, 0, size, Integer.MIN_VALUE / 2); // Below any index, and still safe to subtract from
+        for (int i = 0; i < routeLength; i++) {
+            reach[((route[i] & 0xFFFF) - reachY) * reachWidth + (route[i] >>> 16) - reachX] = i;
+        }
+        for (int i = 0; i < size; i++) {
+            if (i % reachWidth != 0) reach[i] = Math.max(reach[i], reach[i - 1] - 1);
+            if (i >= reachWidth) reach[i] = Math.max(reach[i], reach[i - reachWidth] - 1);
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            if (i % reachWidth != reachWidth - 1) reach[i] = Math.max(reach[i], reach[i + 1] - 1);
+            if (i + reachWidth < size) reach[i] = Math.max(reach[i], reach[i + reachWidth] - 1);
+        }
+    }
+
+    /**
+     * Steps along the route, taking an adjacent shortcut or starting a probe where there is one.
+     * return : The heading (0-3), -1 if the route runs into a wall.
+     */
+    private int follow(IRobot robot) {
+        int shortcut = -1;
+        int furthest = position + 1;
+        for (int h = 0; h < 4; h++) {
+            int index = routeIndex(x + DX[h], y + DY[h]);
+            if (index > furthest && look(robot, h) != IRobot.WALL) {
+                shortcut = h;
+                furthest = index;
+            }
+        }
+        if (shortcut != -1) {
+            position = furthest;
+            return shortcut;
+        }
+        if (position + 1 >= routeLength) return -1; // At the end of the route but not on the target
+        int next = route[position + 1];
+        int heading = heading(next >>> 16, next & 0xFFFF);
+        if (look(robot, heading) == IRobot.WALL) {
+            mark(x, y, heading, false); // Not the maze that was learned, the next plan goes round the wall
+            return -1;
+        }
+
+        origin = position;
+        int out = probeExit(robot);
+        if (out != -1) return out;
+        position++;
+        return heading;
+    }
+
+    /**
+     * Takes the next step of a probe: back onto the route where that is shorter, further out, or one step back.
+     * return : The heading (0-3).
+     */
+    private int probeStep(IRobot robot) {
+        int shortcut = -1;
+        int furthest = origin + depth + 1; // Route squares up to here are no shorter by way of the probe
+        for (int h = 0; h < 4; h++) {
+            int index = routeIndex(x + DX[h], y + DY[h]);
+            if (index > furthest && look(robot, h) != IRobot.WALL) {
+                shortcut = h;
+                furthest = index;
+            }
+        }
+        if (shortcut != -1) return push(shortcut);
+        int out = probeExit(robot);
+        if (out != -1) return out;
+        budget--;
+        return (probe[--depth] + 2) & 3; // Walk back the way the probe came
+    }
+
+    /**
+     * Finds a passage to probe from the robot's square: one no run has walked, within the budget, to a square off
+     * the route and the path through which a shorter route could still exist. The one that could save most first.
+     * return : The heading (0-3) taken out, -1 if there is none.
+     */
+    private int probeExit(IRobot robot) {
+        if (budget < depth + 2) return -1; // One step out and the walk back from there
+        int best = -1;
+        int bestGain = 0;
+        for (int h = 0; h < 4; h++) {
+            int nx = x + DX[h];
+            int ny = y + DY[h];
+            if (walked(x, y, h) || (cell(nx, ny) & (INDEX | INDEX << 32)) != 0) continue;
+            int gain = gain(nx, ny, depth + 1);
+            if (gain > bestGain && look(robot, h) != IRobot.WALL) {
+                best = h;
+                bestGain = gain;
+            }
+        }
+        return best == -1 ? -1 : push(best);
+    }
+
+    /**
+     * Most steps a probe could still save by way of a square: over the route squares after its origin, the steps
+     * along the route from the origin less the probe's steps and the Manhattan distance from the square. Route
+     * squares up to the origin would give less than 0, so the best over the whole route (reach) is the same.
+     * steps : Steps of the probe from its origin to the square.
+     */
+    private int gain(int squareX, int squareY, int steps) {
+        if (reachWidth == 0) return 0;
+        int boxX = Math.max(reachX, Math.min(squareX, reachX + reachWidth - 1));
+        int boxY = Math.max(reachY, Math.min(squareY, reachY + reachHeight - 1));
+        // Nearest square of the box: the distance from a route square to one outside the box is the distance to it
+        // plus the distance on from it
+        int furthest = reach[(boxY - reachY) * reachWidth + boxX - reachX]
+                - Math.abs(squareX - boxX) - Math.abs(squareY - boxY);
+        return Math.max(0, furthest - origin - steps);
+    }
+
+    private int push(int heading) {
+        if (depth == probe.length) probe = Arrays.copyOf(probe, depth * 2);
+        probe[depth++] = heading;
+        budget--;
+        return heading;
+    }
+
+    /**
+     * Adds the robot's square to the path, or cuts the path back to it if it is already on it.
+     */
+    private void arrive() {
+        int index = (int) (cell(x, y) & INDEX);
+        if (index != 0) {
+            for (int i = index; i < pathLength; i++) setIndex(path[i], 0, 0); // Erase the loop
+            pathLength = index;
+        } else {
+            if (pathLength == path.length) path = Arrays.copyOf(path, pathLength * 2);
+            path[pathLength++] = pack(x, y);
+            setIndex(pack(x, y), 0, pathLength);
+        }
+    }
+
+    /**
+     * True if a run has walked the passage from a square in the given heading (0-3).
+     */
+    private boolean walked(int x, int y, int heading) {
+        if (heading == 0) return (cell(x, y - 1) & WALKED_SOUTH) != 0; // The passage south of the square above
+        if (heading == 3) return (cell(x - 1, y) & WALKED_EAST) != 0; // The passage east of the square to the left
+        return (cell(x, y) & (heading == 1 ? WALKED_EAST : WALKED_SOUTH)) != 0;
+    }
+
+    /**
+     * Marks or unmarks the passage from a square in the given heading (0-3) as walked.
+     */
+    private void mark(int x, int y, int heading, boolean walked) {
+        if (heading == 0) y--;
+        if (heading == 3) x--;
+        if (x < 0 || y < 0) return; // Off the grid, a border wall
+        long bit = heading == 0 || heading == 2 ? WALKED_SOUTH : WALKED_EAST;
+        cells[y * width + x] = walked ? cells[y * width + x] | bit : cells[y * width + x] & ~bit;
+        changed = true;
+    }
+
+    /**
+     * Index on the route of a square, -1 if it is not on the route.
+     */
+    private int routeIndex(int x, int y) {
+        return (int) ((cell(x, y) >>> 32) & INDEX) - 1;
+    }
+
+    private long cell(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) return 0;
+        return cells[y * width + x];
+    }
+
+    /**
+     * Stores an index + 1 (0 to clear it) in a square's route (shift 32) or path (shift 0) bits.
+     */
+    private void setIndex(int square, int shift, int value) {
+        int index = (square & 0xFFFF) * width + (square >>> 16);
+        cells[index] = (cells[index] & ~(INDEX << shift)) | ((long) value << shift);
+    }
+
+    /**
+     * Heading (0-3) from the robot's square to a neighbouring square.
+     */
+    private int heading(int toX, int toY) {
+        if (toY < y) return 0;
+        if (toX > x) return 1;
+        if (toY > y) return 2;
+        return 3;
+    }
+
+    /**
+     * What the robot sees in the given absolute heading (0-3).
+     */
+    private int look(IRobot robot, int heading) {
+        return robot.look(IRobot.AHEAD + ((heading - (robot.getHeading() - IRobot.NORTH) + 4) & 3));
+    }
+
+    private static int pack(int x, int y) {
+        return x << 16 | y;
+    }
+
+    /**
+     * Grows the cells so that they cover at least the given number of columns and rows.
+     */
+    private void cover(int columns, int rows) {
+        if (columns <= width && rows <= height) return;
+        int newWidth = Math.max(columns, width * 2); // Both sides, as probes find squares further out in any direction
+        int newHeight = Math.max(rows, height * 2);
+        long[] grown = new long[newWidth * newHeight];
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(cells, row * width, grown, row * newWidth, width);
+        }
+        cells = grown;
+        width = newWidth;
+        height = newHeight;
+    }
+
+    /**
+     * Length of the route in steps, 0 while no route is known.
+     */
+    public int getRouteSteps() {
+        return Math.max(0, routeLength - 1);
+    }
+
+    /**
+     * Heap bytes of the probe's state: the object and its arrays.
+     */
+    public long retainedBytes() {
+        return MemoryFootprint.object(5 * MemoryFootprint.REFERENCE + 16 * 4 + 2)
+                + MemoryFootprint.array(cells.length, 8) + MemoryFootprint.array(route.length, 4)
+                + MemoryFootprint.array(reach.length, 4)
+                + MemoryFootprint.array(path.length, 4) + MemoryFootprint.array(probe.length, 4);
+    }
+}
@@ -0,0 +1,295 @@
+/**
+ * Spill Stack Preamble
+ *
+ * The backtrack stacks of Ex2/Ex3 and the junction log of GrandFinale grow with the size of the maze.
+ * SpillStack is a LIFO of fixed-width int records that can keep its heap usage flat on any maze:
+ *
+ * - Records are stored in blocks of a fixed number of records.
+ * - In bounded-memory mode only the newest few blocks stay on the heap. When another block is needed,
+ *   the oldest resident block is appended to a temp file, so spilling is always a sequential write.
+ * - When popping empties the heap, the newest spilled block is read back from the end of the file,
+ *   so blocks come back in LIFO order and paging is a sequential read backwards through the file.
+ * - Indexed reads of spilled records (GrandFinale replays its log from the front) go through a single
+ *   one-block window, so a front-to-back replay reads the file block by block.
+ *
+ * Emptied blocks are kept and reused, also across clear(), so a stack that is refilled run after run only
+ * allocates when it grows past its largest size so far.
+ *
+ * Bounded-memory mode is turned on with -Dmaze.residentBlocks=N (N blocks kept on the heap) and the block
+ * size can be changed with -Dmaze.blockRecords=R. Without these the stack simply grows on the heap.
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * A stack of fixed-width int records that can spill its oldest blocks to disk.
+ */
+public class SpillStack {
+    private final int width; // Ints per record
+    private final int blockRecords; // Records per block
+    private final int blockInts; // Ints per block
+    private final int maxResident; // Blocks kept on the heap (Integer.MAX_VALUE = never spill)
+
+    private final ArrayList<int[]> resident = new ArrayList<>(); // Heap blocks, oldest first
+    private final ArrayList<int[]> spares = new ArrayList<>(); // Emptied blocks kept for reuse
+    private long size = 0; // Number of records
+    private long spilled = 0; // Number of blocks in the spill file (always the oldest ones)
+
+    private FileChannel file; // Spill file, created on the first spill
+    private ByteBuffer io; // Transfer buffer for one block
+    private int[] window; // A spilled block loaded for indexed reads
+    private long windowBlock = -1; // Which block is in the window (-1 = none)
+
+    /**
+     * Creates a stack configured from the maze.residentBlocks and maze.blockRecords system properties.
+     * width : The number of ints in each record.
+     */
+    public static SpillStack create(int width) {
+        int residentBlocks = Integer.getInteger("maze.residentBlocks", 0);
+        int blockRecords = Integer.getInteger("maze.blockRecords", 4096);
+        return new SpillStack(width, blockRecords, residentBlocks <= 0 ? Integer.MAX_VALUE : residentBlocks);
+    }
+
+    /**
+     * Creates an empty stack.
+     * width : The number of ints in each record.
+     * blockRecords : The number of records in each block.
+     * maxResident : The number of blocks kept on the heap before the oldest one is spilled (at least 1).
+     */
+    public SpillStack(int width, int blockRecords, int maxResident) {
+        this.width = width;
+        this.blockRecords = blockRecords;
+        this.blockInts = width * blockRecords;
+        this.maxResident = Math.max(1, maxResident);
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Pushes a single-int record.
+     */
+    public void push(int value) {
+        int offset = slotForPush();
+        top()[offset] = value;
+        size++;
+    }
+
+    /**
+     * Pushes a record; the array must hold at least width ints.
+     */
+    public void push(int[] record) {
+        int offset = slotForPush();
+        System.arraycopy(record, 0, top(), offset, width);
+        size++;
+    }
+
+    /**
+     * Pops a single-int record.
+     */
+    public int pop() {
+        int value = peek();
+        removeLast();
+        return value;
+    }
+
+    /**
+     * Pops a record into the given array, avoiding an allocation per pop.
+     */
+    public void pop(int[] into) {
+        int offset = slotForTop();
+        System.arraycopy(top(), offset, into, 0, width);
+        removeLast();
+    }
+
+    /**
+     * Returns the newest single-int record without removing it.
+     */
+    public int peek() {
+        int offset = slotForTop(); // Must run first, it may page the top block in
+        return top()[offset];
+    }
+
+    /**
+     * Removes the newest record, paging in a spilled block if the heap has run empty.
+     */
+    public void removeLast() {
+        if (size == 0) throw new IllegalStateException("Stack is empty");
+        slotForTop();
+        size--;
+        if (size % blockRecords == 0) {
+            spares.add(resident.remove(resident.size() - 1)); // Top block is now empty
+        }
+    }
+
+    /**
+     * Reads field 0 of the record at the given index (0 = oldest).
+     */
+    public int get(long index) {
+        return get(index, 0);
+    }
+
+    /**
+     * Reads one field of the record at the given index (0 = oldest).
+     */
+    public int get(long index, int field) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        long block = index / blockRecords;
+        int offset = (int) (index % blockRecords) * width + field;
+        if (block >= spilled) {
+            return resident.get((int) (block - spilled))[offset];
+        }
+        if (block != windowBlock) {
+            if (window == null) window = new int[blockInts];
+            readBlock(block, window);
+            windowBlock = block;
+        }
+        return window[offset];
+    }
+
+    /**
+     * Removes all records and forgets the spill file contents.
+     */
+    public void clear() {
+        for (int i = resident.size() - 1; i >= 0; i--) {
+            spares.add(resident.get(i)); // Not addAll, which would copy the list into a new array
+        }
+        resident.clear();
+        size = 0;
+        spilled = 0;
+        windowBlock = -1;
+    }
+
+    /**
+     * Releases the spill file. The stack can still be used afterwards.
+     */
+    public void close() {
+        clear();
+        if (file != null) {
+            try {
+                file.close(); // The file is deleted on close
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            file = null;
+        }
+    }
+
+    /**
+     * Number of ints currently held on the heap, for memory accounting.
+     */
+    public long residentInts() {
+        return (long) (resident.size() + spares.size() + (window == null ? 0 : 1)) * blockInts;
+    }
+
+    /**
+     * Heap bytes of the stack: the object, its block lists and every block array it holds, including spare
+     * blocks and the read window. The spill file and the direct transfer buffer are off the heap.
+     */
+    public long retainedBytes() {
+        long blocks = resident.size() + spares.size() + (window == null ? 0 : 1);
+        return MemoryFootprint.object(4 * 4 + 5 * MemoryFootprint.REFERENCE + 3 * 8)
+                + MemoryFootprint.arrayList(resident.size()) + MemoryFootprint.arrayList(spares.size())
+                + blocks * MemoryFootprint.array(blockInts, 4);
+    }
+
+    /**
+     * Number of blocks currently spilled to disk.
+     */
+    public long spilledBlocks() {
+        return spilled;
+    }
+
+    /**
+     * Makes sure the next record has a resident slot and returns its offset in the top block.
+     */
+    private int slotForPush() {
+        int offset = (int) (size % blockRecords);
+        if (offset == 0) {
+            if (resident.size() == maxResident) {
+                int[] oldest = resident.remove(0);
+                writeBlock(spilled, oldest); // Oldest block goes to the end of the file
+                spilled++;
+                spares.add(oldest); // Its array is reused for the new top block
+            }
+            resident.add(takeBlock());
+        }
+        return offset * width;
+    }
+
+    /**
+     * Makes sure the newest record is resident and returns its offset in the top block.
+     */
+    private int slotForTop() {
+        if (size == 0) throw new IllegalStateException("Stack is empty");
+        if (resident.isEmpty()) {
+            spilled--;
+            int[] block = takeBlock();
+            readBlock(spilled, block); // Newest spilled block comes back first
+            resident.add(block);
+            if (windowBlock == spilled) windowBlock = -1;
+        }
+        return (int) ((size - 1) % blockRecords) * width;
+    }
+
+    private int[] top() {
+        return resident.get(resident.size() - 1);
+    }
+
+    /**
+     * Reuses a spare block if there is one.
+     */
+    private int[] takeBlock() {
+        return spares.isEmpty() ? new int[blockInts] : spares.remove(spares.size() - 1);
+    }
+
+    private void writeBlock(long block, int[] data) {
+        try {
+            if (file == null) {
+                Path path = Files.createTempFile("maze-spill", ".blk");
+                file = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                        StandardOpenOption.DELETE_ON_CLOSE);
+                io = ByteBuffer.allocateDirect(blockInts * 4);
+            }
+            io.clear();
+            io.asIntBuffer().put(data);
+            long pos = block * blockInts * 4L;
+            while (io.hasRemaining()) {
+                pos += file.write(io, pos);
+            }
+            if (windowBlock == block) windowBlock = -1;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not spill backtrack block", e);
+        }
+    }
+
+    private void readBlock(long block, int[] into) {
+        try {
+            io.clear();
+            long pos = block * blockInts * 4L;
+            while (io.hasRemaining()) {
+                int read = file.read(io, pos);
+                if (read < 0) throw new IOException("Spill file is truncated");
+                pos += read;
+            }
+            io.flip();
+            IntBuffer ints = io.asIntBuffer();
+            ints.get(into);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not page in backtrack block", e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Tour Planner Preamble
+ *
+ * Chooses the order in which to visit a set of waypoints on the way from the start to the target, given the
+ * shortest distance between every pair of points. This is the path version of the travelling salesman problem
+ * with both ends fixed:
+ * - Up to EXACT_LIMIT waypoints are solved exactly with the Held-Karp dynamic programme, O(2^n * n^2).
+ * - Larger sets start from a nearest-neighbour order and are improved with 2-opt moves (reversing a section of
+ *   the tour) until no move shortens it. This is not always optimal but is usually within a few percent.
+ */
+
+/**
+ * Visiting order for waypoints between a fixed start and target.
+ */
+public class TourPlanner {
+    public static final int EXACT_LIMIT = 13; // Largest number of waypoints solved exactly
+    public static final int UNREACHABLE = Integer.MAX_VALUE / 4; // Distance between points with no known route
+
+    /**
+     * Solves the visiting order.
+     * distance : (n + 2) x (n + 2) distances; point 0 is the start, 1..n are the waypoints and n + 1 the target.
+     * return : The waypoints (1..n) in visiting order.
+     */
+    public static int[] order(int[][] distance) {
+        int n = distance.length - 2;
+        if (n <= 0) return new int[0];
+        return n <= EXACT_LIMIT ? exact(distance) : twoOpt(distance, nearestNeighbour(distance));
+    }
+
+    /**
+     * Total length of start -> waypoints in order -> target.
+     */
+    public static long length(int[][] distance, int[] order) {
+        long total = 0;
+        int previous = 0;
+        for (int point : order) {
+            total += distance[previous][point];
+            previous = point;
+        }
+        return total + distance[previous][distance.length - 1];
+    }
+
+    /**
+     * Held-Karp: best[mask][j] is the shortest path from the start through the waypoints in mask, ending at j.
+     */
+    static int[] exact(int[][] distance) {
+        int n = distance.length - 2;
+        int target = n + 1;
+        int full = (1 << n) - 1;
+        long[][] best = new long[1 << n][n];
+        int[][] previous = new int[1 << n][n];
+        for (long[] row : best) {
+            java.util.Arrays.fill(row, Long.MAX_VALUE);
+        }
+        for (int j = 0; j < n; j++) {
+            best[1 << j][j] = distance[0][j + 1];
+            previous[1 << j][j] = -1;
+        }
+        for (int mask = 1; mask <= full; mask++) {
+            for (int j = 0; j < n; j++) {
+                long cost = best[mask][j];
+                if (cost == Long.MAX_VALUE) continue;
+                for (int k = 0; k < n; k++) {
+                    if ((mask & (1 << k)) != 0) continue;
+                    int next = mask | (1 << k);
+                    long extended = cost + distance[j + 1][k + 1];
+                    if (extended < best[next][k]) {
+                        best[next][k] = extended;
+                        previous[next][k] = j;
+                    }
+                }
+            }
+        }
+
+        int last = 0;
+        long shortest = Long.MAX_VALUE;
+        for (int j = 0; j < n; j++) {
+            long total = best[full][j] + distance[j + 1][target];
+            if (total < shortest) {
+                shortest = total;
+                last = j;
+            }
+        }
+        int[] order = new int[n];
+        for (int mask = full, j = last, i = n - 1; i >= 0; i--) {
+            order[i] = j + 1;
+            int before = previous[mask][j];
+            mask &= ~(1 << j);
+            j = before;
+        }
+        return order;
+    }
+
+    /**
+     * Greedy order: always go to the closest waypoint not visited yet.
+     */
+    static int[] nearestNeighbour(int[][] distance) {
+        int n = distance.length - 2;
+        boolean[] used = new boolean[n + 1];
+        int[] order = new int[n];
+        int current = 0;
+        for (int i = 0; i < n; i++) {
+            int closest = -1;
+            for (int p = 1; p <= n; p++) {
+                if (!used[p] && (closest < 0 || distance[current][p] < distance[current][closest])) closest = p;
+            }
+            used[closest] = true;
+            order[i] = closest;
+            current = closest;
+        }
+        return order;
+    }
+
+    /**
+     * Improves an order with 2-opt moves until none shortens it. The start and target stay fixed.
+     */
+    static int[] twoOpt(int[][] distance, int[] order) {
+        int n = order.length;
+        int[] tour = new int[n + 2]; // Start, waypoints, target
+        tour[n + 1] = n + 1;
+        System.arraycopy(order, 0, tour, 1, n);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int i = 1; i < n; i++) {
+                for (int j = i + 1; j <= n; j++) {
+                    // Reversing tour[i..j] replaces edges (i-1, i) and (j, j+1) with (i-1, j) and (i, j+1)
+                    long before = (long) distance[tour[i - 1]][tour[i]] + distance[tour[j]][tour[j + 1]];
+                    long after = (long) distance[tour[i - 1]][tour[j]] + distance[tour[i]][tour[j + 1]];
+                    if (after < before) {
+                        for (int a = i, b = j; a < b; a++, b--) {
+                            int swap = tour[a];
+                            tour[a] = tour[b];
+                            tour[b] = swap;
+                        }
+                        improved = true;
+                    }
+                }
+            }
+        }
+        return java.util.Arrays.copyOfRange(tour, 1, n + 1);
+    }
+}
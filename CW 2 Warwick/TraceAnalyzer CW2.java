@@ -0,0 +1,306 @@
+/**
+ * Trace Analyzer Preamble
+ *
+ * The analyzer mines decision traces (see DecisionTrace) to find out where a controller wastes steps.
+ * Traces can be far larger than the heap, so nothing is ever loaded whole: each file is read
+ * sequentially through a FileChannel into a small direct buffer, and only per-cell counters are kept.
+ *
+ * For every trace file it reports:
+ * - **Heatmap:** how many times each cell was visited over all runs (the hottest cells are printed).
+ * - **Corridor re-walks:** corridor decisions made on a cell already visited in the same run.
+ *   These are the steps `corridor` spends walking back down corridors it has already explored.
+ * - **Backtrack segments:** maximal stretches of consecutive decisions on already-visited cells,
+ *   i.e. the walks back to the last junction after `noPassage`. Count, mean and longest are reported.
+ * - **Divergence:** the first decision at which the last run leaves the path taken in run 0.
+ *
+ * Files are independent, so many of them are analysed in parallel on a fixed thread pool and the
+ * compact one-line summaries are printed in the order the files were given.
+ *
+ * Usage: java TraceAnalyzer trace1.bin trace2.bin ...
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streams decision trace files and produces a compact summary for each one.
+ */
+public class TraceAnalyzer {
+    private static final int BUFFER_RECORDS = 8192; // Records read per channel read
+    private static final int HOT_CELLS = 5; // Number of hottest cells listed in a summary
+
+    /**
+     * Analyses every trace given on the command line in parallel and prints one summary per file.
+     */
+    public static void main(String[] args) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Future<TraceSummary>> results = new ArrayList<>();
+            for (String arg : args) {
+                Path file = Paths.get(arg);
+                results.add(pool.submit(() -> analyze(file)));
+            }
+            for (Future<TraceSummary> result : results) {
+                System.out.println(result.get()); // Printed in input order
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Analyses a single trace file.
+     * The first pass collects the heatmap, re-walk and backtrack figures and notes where each run starts.
+     * The second pass walks run 0 and the last run side by side to find their divergence point.
+     *
+     * file : The trace to analyse.
+     * return : The summary of the trace.
+     */
+    public static TraceSummary analyze(Path file) throws IOException {
+        TraceSummary summary = new TraceSummary(file);
+        CellGrid grid = new CellGrid();
+        long firstRunStart = 0; // Record index where run 0 starts
+        long lastRunStart = 0; // Record index where the last run starts
+        long firstRunEnd = 0; // Record index just after run 0 ends
+        int currentRun = -1;
+        long segment = 0; // Length of the backtrack segment in progress
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * DecisionTrace.RECORD_BYTES);
+            readHeader(channel, file);
+            long index = 0;
+            while (fill(channel, buffer)) {
+                while (buffer.remaining() >= DecisionTrace.RECORD_BYTES) {
+                    int x = buffer.getInt();
+                    int y = buffer.getInt();
+                    int run = buffer.getShort();
+                    buffer.get(); // Heading is not needed for these figures
+                    byte state = buffer.get();
+
+                    if (run != currentRun) {
+                        if (currentRun == 0) firstRunEnd = index;
+                        if (currentRun == -1) firstRunStart = index;
+                        summary.endSegment(segment);
+                        segment = 0;
+                        currentRun = run;
+                        lastRunStart = index;
+                        summary.runs++;
+                    }
+
+                    boolean revisit = grid.visit(x, y, run); // True if already visited in this run
+                    if (revisit) {
+                        segment++;
+                        if (state == DecisionTrace.CORRIDOR) summary.corridorRewalks++;
+                    } else {
+                        summary.endSegment(segment);
+                        segment = 0;
+                    }
+                    index++;
+                }
+                buffer.compact();
+            }
+            summary.endSegment(segment);
+            if (currentRun == 0) firstRunEnd = index;
+            summary.steps = index;
+
+            if (summary.runs > 1) {
+                summary.divergence = divergence(channel, firstRunStart, firstRunEnd,
+                        lastRunStart, index);
+            }
+        }
+        summary.hotCells = grid.hottest(HOT_CELLS);
+        return summary;
+    }
+
+    /**
+     * Walks two record ranges of the same file in lockstep and returns the first offset
+     * (relative to the start of each range) at which the positions differ.
+     * Returns -1 if both ranges have the same length and never differ.
+     */
+    private static long divergence(FileChannel channel, long aStart, long aEnd, long bStart, long bEnd) throws IOException {
+        ByteBuffer a = ByteBuffer.allocateDirect(BUFFER_RECORDS * DecisionTrace.RECORD_BYTES);
+        ByteBuffer b = ByteBuffer.allocateDirect(BUFFER_RECORDS * DecisionTrace.RECORD_BYTES);
+        long aLength = aEnd - aStart;
+        long bLength = bEnd - bStart;
+        long common = Math.min(aLength, bLength);
+        long aPos = position(aStart);
+        long bPos = position(bStart);
+        a.flip();
+        b.flip();
+
+        for (long i = 0; i < common; i++) {
+            while (a.remaining() < DecisionTrace.RECORD_BYTES) aPos = refill(channel, a, aPos);
+            while (b.remaining() < DecisionTrace.RECORD_BYTES) bPos = refill(channel, b, bPos);
+            long aCell = a.getLong(); // x and y read together
+            long bCell = b.getLong();
+            a.position(a.position() + 4); // Skip run, heading and state
+            b.position(b.position() + 4);
+            if (aCell != bCell) return i;
+        }
+        return aLength == bLength ? -1 : common;
+    }
+
+    /**
+     * Byte offset of a record index in a trace file.
+     */
+    private static long position(long record) {
+        return DecisionTrace.HEADER_BYTES + record * DecisionTrace.RECORD_BYTES;
+    }
+
+    /**
+     * Reads the next block of a range into the buffer using positional reads.
+     * return : The file position after the block.
+     */
+    private static long refill(FileChannel channel, ByteBuffer buffer, long pos) throws IOException {
+        buffer.compact();
+        int read = channel.read(buffer, pos);
+        buffer.flip();
+        if (read < 0) {
+            throw new IOException("Trace ended in the middle of a run");
+        }
+        return pos + read;
+    }
+
+    /**
+     * Reads and validates the trace header.
+     */
+    private static void readHeader(FileChannel channel, Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(DecisionTrace.HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header) >= 0) {
+            // Keep reading until the header is complete or the file ends
+        }
+        header.flip();
+        if (header.remaining() < DecisionTrace.HEADER_BYTES || header.getInt() != DecisionTrace.MAGIC) {
+            throw new IOException(file + " is not a decision trace");
+        }
+        if (header.getInt() != DecisionTrace.VERSION) {
+            throw new IOException(file + " has an unsupported trace version");
+        }
+    }
+
+    /**
+     * Tops up the buffer from the channel and flips it for reading.
+     * return : False once the file is exhausted and no whole record is left.
+     */
+    private static boolean fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        int read = channel.read(buffer);
+        buffer.flip();
+        return read > 0 || buffer.remaining() >= DecisionTrace.RECORD_BYTES;
+    }
+}
+
+/**
+ * Compact per-file result of a trace analysis.
+ */
+class TraceSummary {
+    final Path file;
+    int runs = 0; // Number of runs in the trace
+    long steps = 0; // Total number of decisions
+    long corridorRewalks = 0; // Corridor decisions on cells already visited in the same run
+    long backtracks = 0; // Number of backtrack segments
+    long backtrackSteps = 0; // Total length of all backtrack segments
+    long longestBacktrack = 0; // Length of the longest backtrack segment
+    long divergence = -1; // First decision where the last run leaves run 0's path (-1 = never)
+    String hotCells = "";
+
+    TraceSummary(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Closes a backtrack segment of the given length (zero lengths are ignored).
+     */
+    void endSegment(long length) {
+        if (length == 0) return;
+        backtracks++;
+        backtrackSteps += length;
+        longestBacktrack = Math.max(longestBacktrack, length);
+    }
+
+    @Override
+    public String toString() {
+        double mean = backtracks == 0 ? 0 : (double) backtrackSteps / backtracks;
+        return String.format("%s runs=%d steps=%d corridorRewalks=%d backtracks=%d meanBacktrack=%.1f "
+                + "maxBacktrack=%d divergence=%d hot=[%s]", file, runs, steps, corridorRewalks, backtracks,
+                mean, longestBacktrack, divergence, hotCells);
+    }
+}
+
+/**
+ * Growable grid of per-cell counters used by the analyzer.
+ * Traces do not store the maze size, so the grid doubles whenever a coordinate falls outside it.
+ */
+class CellGrid {
+    private int width = 64;
+    private int height = 64;
+    private int[] visits = new int[width * height]; // Heatmap: visits over all runs
+    private int[] lastRun = new int[width * height]; // Run + 1 of the latest visit (0 = never)
+
+    /**
+     * Counts a visit to a cell.
+     * return : True if the cell had already been visited in the same run.
+     */
+    boolean visit(int x, int y, int run) {
+        if (x < 0 || y < 0) return false; // Corrupt coordinates are ignored
+        if (x >= width || y >= height) grow(x, y);
+        int cell = y * width + x;
+        visits[cell]++;
+        boolean revisit = lastRun[cell] == run + 1;
+        lastRun[cell] = run + 1;
+        return revisit;
+    }
+
+    /**
+     * Returns the most visited cells formatted as "(x,y)xcount" separated by spaces.
+     */
+    String hottest(int n) {
+        int[] best = new int[n];
+        java.util.Arrays.fill(best, -1);
+        for (int cell = 0; cell < visits.length; cell++) {
+            if (visits[cell] == 0) continue;
+            for (int i = 0; i < n; i++) {
+                if (best[i] == -1 || visits[cell] > visits[best[i]]) {
+                    System.arraycopy(best, i, best, i + 1, n - i - 1); // Insert, keeping the list sorted
+                    best[i] = cell;
+                    break;
+                }
+            }
+        }
+        StringBuilder out = new StringBuilder();
+        for (int cell : best) {
+            if (cell == -1) break;
+            if (out.length() > 0) out.append(' ');
+            out.append('(').append(cell % width).append(',').append(cell / width).append(")x").append(visits[cell]);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Doubles the grid until it contains (x, y), copying the counters row by row.
+     */
+    private void grow(int x, int y) {
+        int newWidth = width;
+        int newHeight = height;
+        while (x >= newWidth) newWidth *= 2;
+        while (y >= newHeight) newHeight *= 2;
+        int[] newVisits = new int[newWidth * newHeight];
+        int[] newLastRun = new int[newWidth * newHeight];
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(visits, row * width, newVisits, row * newWidth, width);
+            System.arraycopy(lastRun, row * width, newLastRun, row * newWidth, width);
+        }
+        width = newWidth;
+        height = newHeight;
+        visits = newVisits;
+        lastRun = newLastRun;
+    }
+}
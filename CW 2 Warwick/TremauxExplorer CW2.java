@@ -0,0 +1,220 @@
+/**
+ * Tremaux Explorer Preamble
+ *
+ * GrandFinale's exploration decides with the environment's BEENBEFORE marks and random choices, which say that a
+ * square was visited but not which of its passages were walked, so on braid mazes (mazes with loops) it walks
+ * some passages many times. This engine explores with Tremaux's algorithm instead. Every passage between two
+ * neighbouring squares carries a mark count (0, 1 or 2) that is raised each time the robot walks it:
+ * - On a square that has not been visited before, take an unmarked passage (the one that heads most directly for
+ *   the target, to get there sooner).
+ * - On arriving at a visited square through an unmarked passage, i.e. after going round a loop, turn straight
+ *   back.
+ * - Otherwise take an unmarked passage if there is one, else the passage marked once, which leads back the way
+ *   the square was first entered. Passages marked twice are never taken again.
+ * So no passage is walked more than twice, and a first run takes at most 2 x (number of passages) steps on any
+ * maze. When the target is reached the passages marked exactly once form a path from the start to the target, so
+ * repeat runs simply follow the marked-once passages, and no other route memory is needed.
+ *
+ * Marks take 2 bits per passage. Each square owns the passages to its east and south neighbours, so the marks
+ * take 4 bits per square in a long array, grown as the robot finds squares further out. If a run ends without
+ * reaching the target (e.g. it was stopped), the marks no longer describe a path from the start, so the next run
+ * explores again from scratch, and so does the first run after the target has moved, as the marks lead to the old
+ * target. If the route of a repeat run ever runs into a wall, the robot explores again from where it stands.
+ *
+ * Like DeadEndSeals, the engine works out the robot's square from its heading and its step and collision counts,
+ * which go up by one on every step, so getLocation and getTargetLocation (a new Point each call) are read only on
+ * the first poll of a run, and polls do not allocate.
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.awt.Point;
+
+/**
+ * Per-session state of Tremaux exploration: the passage marks and what the robot did last.
+ */
+public class TremauxExplorer {
+    private static final int[] DX = {0, 1, 0, -1}; // x step for NORTH, EAST, SOUTH, WEST
+    private static final int[] DY = {-1, 0, 1, 0}; // y step for NORTH, EAST, SOUTH, WEST
+
+    private long[] marks = new long[0]; // 2 bits per passage, 2 passages (east, south) per square
+    private int width = 0, height = 0; // Squares covered by the marks
+    private int last = -1; // Heading (0-3) of the last step of this run, -1 at the start of a run
+    private boolean arrived = false; // True if the last step of the run was onto the target
+    private boolean routeKnown = false; // True once the marked-once passages lead from the start to the target
+    private int targetX = -1, targetY = -1; // The target the marks lead to
+    private int x, y; // The robot's square at the last poll
+    private int steps = -2, collisions = 0; // The robot's step and collision counts at the last poll
+
+    /**
+     * Chooses the absolute heading for the robot's next step.
+     * firstPoll : True on the first poll of a run.
+     */
+    public int nextHeading(IRobot robot, boolean firstPoll) {
+        locate(robot, firstPoll);
+        int x = this.x;
+        int y = this.y;
+        if (firstPoll) {
+            Point target = robot.getTargetLocation();
+            if (target.x != targetX || target.y != targetY) {
+                routeKnown = false; // A new maze or a moved target, start over
+                arrived = false;
+                targetX = target.x;
+                targetY = target.y;
+            }
+            if (arrived) {
+                routeKnown = true;
+            } else if (!routeKnown) {
+                java.util.Arrays.fill(marks, 0); // The last run was stopped on the way, start over
+            }
+            last = -1;
+            arrived = false;
+        }
+        cover(x + 1, y + 1);
+
+        int heading = routeKnown ? follow(robot, x, y) : -1;
+        if (heading == -1) {
+            routeKnown = false; // No route here (the maze is not the one learned), explore from this square
+            heading = explore(robot, x, y);
+        }
+        if (!routeKnown) mark(x, y, heading, marks(x, y, heading) + 1);
+        last = heading;
+        arrived = x + DX[heading] == targetX && y + DY[heading] == targetY;
+        return IRobot.NORTH + heading;
+    }
+
+    /**
+     * Works out the robot's square: one step on from the last poll's square if exactly one step moved the robot
+     * since, else (a new run, or polls that were not one step apart) read from the robot.
+     */
+    private void locate(IRobot robot, boolean firstPoll) {
+        int steps = robot.getSteps();
+        int collisions = robot.getCollisions();
+        if (!firstPoll && steps == this.steps + 1 && collisions == this.collisions) {
+            int heading = robot.getHeading() - IRobot.NORTH; // The heading of the last step, as it has not turned yet
+            x += DX[heading];
+            y += DY[heading];
+        } else if (firstPoll || steps != this.steps + 1 || collisions != this.collisions + 1) {
+            Point location = robot.getLocation();
+            x = location.x;
+            y = location.y;
+        }
+        this.steps = steps;
+        this.collisions = collisions;
+    }
+
+    /**
+     * Tremaux's rules, see the preamble.
+     * return : The heading (0-3) to take.
+     */
+    private int explore(IRobot robot, int x, int y) {
+        int back = last == -1 ? -1 : (last + 2) & 3; // The passage the robot arrived through
+        boolean visited = false;
+        for (int h = 0; h < 4; h++) {
+            if (h != back && open(robot, h) && marks(x, y, h) > 0) visited = true;
+        }
+        if (back != -1 && visited && marks(x, y, back) == 1) return back; // Went round a loop, turn back
+
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        int once = -1;
+        for (int h = 0; h < 4; h++) {
+            if (!open(robot, h)) continue;
+            int count = marks(x, y, h);
+            if (count == 0) {
+                int distance = Math.abs(targetX - x - DX[h]) + Math.abs(targetY - y - DY[h]);
+                if (distance < bestDistance) {
+                    best = h;
+                    bestDistance = distance;
+                }
+            } else if (count == 1) {
+                once = h;
+            }
+        }
+        if (best != -1) return best;
+        if (once != -1) return once;
+        for (int h = 0; h < 4; h++) {
+            if (open(robot, h)) return h; // Everything walked twice: the target cannot be reached from here
+        }
+        return 0;
+    }
+
+    /**
+     * Follows the marked-once passages, never straight back.
+     * return : The heading (0-3) to take, -1 if there is none.
+     */
+    private int follow(IRobot robot, int x, int y) {
+        int back = last == -1 ? -1 : (last + 2) & 3;
+        for (int h = 0; h < 4; h++) {
+            if (h != back && marks(x, y, h) == 1 && open(robot, h)) return h;
+        }
+        return -1;
+    }
+
+    /**
+     * True if the robot can step in the given absolute heading (0-3).
+     */
+    private boolean open(IRobot robot, int heading) {
+        int relative = (heading - (robot.getHeading() - IRobot.NORTH) + 4) & 3;
+        return robot.look(IRobot.AHEAD + relative) != IRobot.WALL;
+    }
+
+    /**
+     * Mark count of the passage leaving (x, y) in the given heading.
+     */
+    private int marks(int x, int y, int heading) {
+        int bit = bit(x, y, heading);
+        return bit < 0 ? 0 : (int) (marks[bit >>> 6] >>> (bit & 63)) & 3;
+    }
+
+    private void mark(int x, int y, int heading, int count) {
+        int bit = bit(x, y, heading);
+        if (bit < 0) return; // Off the grid, a border wall
+        marks[bit >>> 6] = (marks[bit >>> 6] & ~(3L << (bit & 63))) | ((long) Math.min(count, 2) << (bit & 63));
+    }
+
+    /**
+     * Index of the first bit of a passage's marks: the passage belongs to the square west or north of it.
+     * return : The bit index, -1 if the passage leaves the covered squares.
+     */
+    private int bit(int x, int y, int heading) {
+        if (heading == 0) y--; // NORTH is the south passage of the square above
+        if (heading == 3) x--; // WEST is the east passage of the square to the left
+        if (x < 0 || y < 0 || x >= width || y >= height) return -1;
+        return ((y * width + x) * 2 + (heading == 0 || heading == 2 ? 1 : 0)) * 2;
+    }
+
+    /**
+     * Grows the marks so that they cover at least the given number of columns and rows.
+     */
+    private void cover(int columns, int rows) {
+        if (columns <= width && rows <= height) return;
+        int newWidth = Math.max(columns, Math.max(width, 1) * 2);
+        int newHeight = Math.max(rows, Math.max(height, 1) * 2);
+        long[] grown = new long[(newWidth * newHeight * 4 + 63) / 64];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int from = (y * width + x) * 4;
+                int to = (y * newWidth + x) * 4;
+                long square = (marks[from >>> 6] >>> (from & 63)) & 15; // 4 bits never straddle two longs
+                grown[to >>> 6] |= square << (to & 63);
+            }
+        }
+        marks = grown;
+        width = newWidth;
+        height = newHeight;
+    }
+
+    /**
+     * True once repeat runs follow the route found by the first run that reached the target.
+     */
+    public boolean isRouteKnown() {
+        return routeKnown;
+    }
+
+    /**
+     * Heap bytes of the engine: the object and its mark array.
+     */
+    public long retainedBytes() {
+        return MemoryFootprint.object(MemoryFootprint.REFERENCE + 9 * 4 + 2) + MemoryFootprint.array(marks.length, 8);
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Watchdog Preamble
+ *
+ * Some controllers never reach the target on some mazes: Ex2, by its own preamble, can go round a loop of a
+ * cyclic maze forever. In a batch run such a maze used to hold its worker until the step budget ran out, and the
+ * budget was picked by each tool on its own. The watchdog watches every run that LocalRobot drives:
+ * - **Step budget:** Each run gets a budget derived from the maze size (STEPS_PER_SQUARE steps per square,
+ *   -Dmaze.stepsPerSquare to change it). A run that goes over it is stopped and classified OVER_BUDGET.
+ * - **Cycle detection:** After every step the robot's state is hashed: location, heading, the number of squares
+ *   visited in the run, the number of random numbers drawn (ControllerRandom) and the mode state the controller
+ *   reports (LocalRobot.Controller.modeState). If the same state comes round again, the run will repeat the
+ *   same steps forever: no new square was visited in between, so every look() answers the same, no random number
+ *   was drawn, and the controller is in the same mode. The run is stopped straight away and classified CYCLE.
+ *   Repeats are found with Brent's algorithm, which keeps a single saved state and a step counter (O(1) memory)
+ *   and finds a cycle within about twice the steps it takes to enter it and go round it once.
+ * Controllers that report no mode state (NO_MODE_STATE) are not checked for cycles, as their next move may depend
+ * on state the watchdog cannot see; only the budget applies to them. States are compared by 64-bit hash, so two
+ * different states are taken for the same one with a chance of about 2^-64 per comparison.
+ */
+
+/**
+ * Step budget and cycle detector for the runs of one LocalRobot.
+ */
+public class Watchdog {
+    public static final long OVER_BUDGET = -1; // Result of a run stopped by the step budget
+    public static final long CYCLE = -2; // Result of a run stopped because it was going round a cycle
+    public static final long STEPS_PER_SQUARE = Long.getLong("maze.stepsPerSquare", 50);
+
+    private final long budget; // Step budget of each run
+    private long saved; // Brent's saved state, compared with every later state
+    private long power = 1; // Steps the saved state is kept for before the next one is saved
+    private long length = 0; // Steps since the state was saved
+    private boolean started = false; // True once the first state of the run has been saved
+    private long cycleLength = 0; // Length of the last cycle found, 0 if none
+
+    /**
+     * Creates a watchdog with the given step budget per run.
+     */
+    public Watchdog(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Creates a watchdog with a budget derived from the size of a maze.
+     */
+    public static Watchdog forMaze(MazeGrid maze) {
+        return new Watchdog(budgetFor(maze));
+    }
+
+    /**
+     * Step budget of one run of a maze.
+     */
+    public static long budgetFor(MazeGrid maze) {
+        return STEPS_PER_SQUARE * maze.getWidth() * maze.getHeight();
+    }
+
+    /**
+     * Forgets the states of the last run.
+     */
+    public void startRun() {
+        started = false;
+        power = 1;
+        length = 0;
+        cycleLength = 0;
+    }
+
+    /**
+     * Checks the state after a step (see hash).
+     * return : True if the state was seen before, i.e. the run is going round a cycle.
+     */
+    public boolean isCycle(long state) {
+        if (!started) {
+            saved = state;
+            started = true;
+            return false;
+        }
+        length++;
+        if (state == saved) {
+            cycleLength = length;
+            return true;
+        }
+        if (length == power) { // Save this state and keep it twice as long
+            saved = state;
+            power <<= 1;
+            length = 0;
+        }
+        return false;
+    }
+
+    /**
+     * 64-bit hash of a robot's state after a step.
+     */
+    public static long hash(int x, int y, int heading, int explored, long mode, long draws) {
+        long h = mix(((long) x << 32) | (y & 0xFFFFFFFFL));
+        h = mix(h ^ (((long) heading << 32) | (explored & 0xFFFFFFFFL)));
+        h = mix(h ^ mode);
+        return mix(h ^ draws);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Steps in the cycle found by the last isCycle call that returned true.
+     */
+    public long getCycleLength() {
+        return cycleLength;
+    }
+
+    /**
+     * Describes the result of a run: its steps, or how it was stopped.
+     */
+    public static String describe(long result) {
+        if (result == CYCLE) return "cycle";
+        if (result == OVER_BUDGET) return "over budget";
+        return result + " steps";
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * Waypoint Tour Preamble
+ *
+ * The tour mode of GrandFinale: the robot must visit every waypoint before it enters the target.
+ *
+ * **First run (exploring):** The robot builds a LearnedMap as it moves. Each time it finishes a leg it plans
+ * a new one with a breadth-first search over the learned map to the nearest square that is either a waypoint it
+ * has not reached yet or a frontier (an open square next to unknown squares). Once all waypoints are reached the
+ * goal becomes the target. Until then the target square is never entered, as that would end the run.
+ *
+ * **Repeat runs (touring):** Shortest distances between the start, the waypoints and the target are computed on
+ * the learned map, TourPlanner chooses the visiting order (exact for small sets, 2-opt for large ones), and the
+ * legs are joined into one list of headings that the robot replays. Distances and legs come from the tour's
+ * RoutePlanner, so large open mazes can use Jump Point Search instead of breadth-first search. The tour is kept
+ * for as long as the runs start on the square it was planned from and the target stays put, and planned again
+ * otherwise. If a heading ever runs into a wall, or some waypoint has not been found yet, the robot goes back to
+ * exploring. A waypoint that is still missing when nothing is left to explore can only be reached through the
+ * target, so it is left out of the tour (until the target moves) instead of being looked for on every run.
+ *
+ * The robot's square is worked out from its heading and its step and collision counts (as in DeadEndSeals), and
+ * the target is read on the first poll of a run, so polls that follow a leg or the tour do not allocate.
+ */
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per-session state of a waypoint tour: the learned map, the waypoints reached and the planned tour.
+ */
+public class WaypointTour {
+    private final List<Point> waypoints;
+    private final RoutePlanner planner; // Plans the legs of repeat runs
+    private final LearnedMap map = new LearnedMap();
+    private final boolean[] reached; // Waypoints reached in the current run
+    private final boolean[] found; // Waypoints reached in any run so far
+    private final boolean[] unreachable; // Waypoints that cannot be reached without entering the target
+
+    private int[] leg; // Headings of the current exploring leg
+    private int legStep;
+    private int[] tour; // Headings of the planned tour, null until one is planned
+    private int tourStep;
+    private int tourStartX, tourStartY, tourTargetX, tourTargetY; // The start and target the tour was planned for
+    private boolean touring = false; // True while the current run follows the tour
+    private int x, y; // The robot's square at the last poll
+    private int steps = -2, collisions = 0; // The robot's step and collision counts at the last poll
+    private int targetX, targetY; // The target of the current run
+
+    public WaypointTour(List<Point> waypoints, RoutePlanner planner) {
+        this.waypoints = new ArrayList<>(waypoints);
+        this.planner = planner;
+        this.reached = new boolean[waypoints.size()];
+        this.found = new boolean[waypoints.size()];
+        this.unreachable = new boolean[waypoints.size()];
+    }
+
+    /**
+     * Chooses the absolute heading for the robot's next step.
+     */
+    public int nextHeading(IRobot robot, boolean firstPoll) {
+        locate(robot, firstPoll);
+        int x = this.x;
+        int y = this.y;
+        map.observe(robot, x, y);
+        for (int i = 0; i < waypoints.size(); i++) {
+            if (waypoints.get(i).x == x && waypoints.get(i).y == y) {
+                reached[i] = true;
+                found[i] = true;
+            }
+        }
+
+        if (firstPoll) {
+            Point target = robot.getTargetLocation();
+            if (target.x != targetX || target.y != targetY) {
+                java.util.Arrays.fill(unreachable, false); // A moved target may open up other waypoints
+            }
+            targetX = target.x;
+            targetY = target.y;
+            touring = robot.getRuns() > 0 && allFound() && planTour(robot);
+            tourStep = 0;
+            leg = null;
+        }
+        if (touring && tourStep < tour.length) {
+            int heading = tour[tourStep++];
+            if (map.isOpen(x + LearnedMap.DX[heading - IRobot.NORTH], y + LearnedMap.DY[heading - IRobot.NORTH])) {
+                return heading;
+            }
+            touring = false; // The tour does not fit the maze, explore instead and plan again next run
+            tour = null;
+            leg = null;
+        }
+        return explore(robot, x, y);
+    }
+
+    /**
+     * Works out the robot's square: one step on from the last poll's square if exactly one step moved the robot
+     * since, else (a new run, or polls that were not one step apart) read from the robot.
+     */
+    private void locate(IRobot robot, boolean firstPoll) {
+        int steps = robot.getSteps();
+        int collisions = robot.getCollisions();
+        if (!firstPoll && steps == this.steps + 1 && collisions == this.collisions) {
+            int heading = robot.getHeading() - IRobot.NORTH; // The heading of the last step, as it has not turned yet
+            x += LearnedMap.DX[heading];
+            y += LearnedMap.DY[heading];
+        } else if (firstPoll || steps != this.steps + 1 || collisions != this.collisions + 1) {
+            Point location = robot.getLocation();
+            x = location.x;
+            y = location.y;
+        }
+        this.steps = steps;
+        this.collisions = collisions;
+    }
+
+    /**
+     * Prepares for the next run of the same maze.
+     */
+    public void reset() {
+        java.util.Arrays.fill(reached, false);
+        leg = null;
+    }
+
+    /**
+     * Heap bytes of the tour: waypoints, learned map, planned headings and the planner's scratch memory.
+     */
+    public long retainedBytes() {
+        return MemoryFootprint.object(8 * MemoryFootprint.REFERENCE + 12 * 4 + 1)
+                + MemoryFootprint.arrayList(waypoints.size()) + waypoints.size() * MemoryFootprint.object(2 * 4)
+                + 3 * MemoryFootprint.array(waypoints.size(), 1)
+                + (leg == null ? 0 : MemoryFootprint.array(leg.length, 4))
+                + (tour == null ? 0 : MemoryFootprint.array(tour.length, 4))
+                + map.retainedBytes() + planner.retainedBytes();
+    }
+
+    public LearnedMap getMap() {
+        return map;
+    }
+
+    /**
+     * Follows the current leg, planning a new one when it is finished.
+     */
+    private int explore(IRobot robot, int x, int y) {
+        if (leg == null || legStep >= leg.length) {
+            planLeg(x, y);
+            legStep = 0;
+        }
+        if (leg != null && legStep < leg.length) {
+            return leg[legStep++];
+        }
+        for (int h = 0; h < 4; h++) { // No plan at all, take any open exit
+            if (map.isOpen(x + LearnedMap.DX[h], y + LearnedMap.DY[h])) return IRobot.NORTH + h;
+        }
+        return robot.getHeading();
+    }
+
+    /**
+     * Plans a leg to the nearest unreached waypoint or frontier, or to the target once every waypoint is reached.
+     */
+    private void planLeg(int x, int y) {
+        int targetX = this.targetX;
+        int targetY = this.targetY;
+        if (allReached()) {
+            leg = map.route(x, y, targetX, targetY, -1, -1);
+            if (leg != null) return;
+        }
+        int[] waypointCells = new int[waypoints.size()];
+        for (int i = 0; i < waypoints.size(); i++) {
+            Point p = waypoints.get(i);
+            waypointCells[i] = reached[i] || !map.isOpen(p.x, p.y) ? -1 : map.index(p.x, p.y);
+        }
+        int width = map.getWidth();
+        leg = map.search(x, y, cell -> {
+            for (int waypoint : waypointCells) {
+                if (waypoint == cell) return true;
+            }
+            int cx = cell % width;
+            int cy = cell / width;
+            boolean isTarget = cx == targetX && cy == targetY;
+            return !isTarget && (cx != x || cy != y) && map.isFrontier(cx, cy);
+        }, targetX, targetY);
+        if (leg == null) {
+            for (int i = 0; i < reached.length; i++) {
+                unreachable[i] |= !reached[i]; // Nothing left to explore, only the target leads on
+            }
+            leg = map.route(x, y, targetX, targetY, -1, -1); // Give up on the rest
+        }
+    }
+
+    /**
+     * Plans the tour from the robot's start square on the learned map.
+     * return : False if some leg has no known route.
+     */
+    private boolean planTour(IRobot robot) {
+        int n = 0;
+        for (boolean skip : unreachable) {
+            if (!skip) n++;
+        }
+        Point start = robot.getLocation();
+        Point target = robot.getTargetLocation();
+        if (tour != null && start.x == tourStartX && start.y == tourStartY && target.x == tourTargetX
+                && target.y == tourTargetY) {
+            return true; // The map only changes when exploring, so the tour stays valid
+        }
+        tour = null;
+        Point[] points = new Point[n + 2];
+        points[0] = start;
+        for (int i = 0, k = 1; i < waypoints.size(); i++) {
+            if (!unreachable[i]) points[k++] = waypoints.get(i);
+        }
+        points[n + 1] = target;
+
+        int[] order = TourPlanner.order(planner.distances(map, points, target.x, target.y));
+
+        List<int[]> legs = new ArrayList<>();
+        int length = 0;
+        Point from = start;
+        for (int k = 0; k <= n; k++) {
+            Point to = k < n ? points[order[k]] : target;
+            int[] headings = planner.route(map, from.x, from.y, to.x, to.y, target.x, target.y);
+            if (headings == null) return false;
+            legs.add(headings);
+            length += headings.length;
+            from = to;
+        }
+        tour = new int[length];
+        int offset = 0;
+        for (int[] headings : legs) {
+            System.arraycopy(headings, 0, tour, offset, headings.length);
+            offset += headings.length;
+        }
+        tourStartX = start.x;
+        tourStartY = start.y;
+        tourTargetX = target.x;
+        tourTargetY = target.y;
+        return true;
+    }
+
+    private boolean allReached() {
+        for (boolean r : reached) {
+            if (!r) return false;
+        }
+        return true;
+    }
+
+    private boolean allFound() {
+        for (int i = 0; i < found.length; i++) {
+            if (!found[i] && !unreachable[i]) return false;
+        }
+        return true;
+    }
+}
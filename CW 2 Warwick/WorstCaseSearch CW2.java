@@ -0,0 +1,238 @@
+/**
+ * Worst Case Search Preamble
+ *
+ * The preambles argue about worst cases, but nothing measured them. This tool searches for mazes on which
+ * a given controller takes as many steps as possible, using simulated annealing over maze mutations:
+ *
+ * - The search starts from a seeded LocalMaze.
+ * - Every iteration creates a population of mutants of the current maze. A mutant toggles a few random
+ *   inner squares between wall and passage; mutations that would disconnect the start from the target
+ *   are undone, so every maze stays solvable.
+ * - The mutants are evaluated in parallel on a thread pool. Every evaluation runs a fresh controller
+ *   session (or, for controllers without sessions, a fresh instance) on a LocalRobot. GrandFinale's shared
+ *   route cache is turned off, so no session replays a route another evaluation learned. The score of a maze
+ *   is the mean (over a few samples, as controllers are random) of the total steps of all runs. Runs that do
+ *   not finish within the step budget score the whole budget, and so do runs in which the controller throws
+ *   (these are counted and reported as crashes).
+ * - The best mutant replaces the current maze if it scores higher, or with the usual annealing
+ *   probability exp(delta / temperature) if it scores lower. The temperature cools every iteration.
+ *
+ * The worst maze found is saved into a corpus directory. Its search score is the maximum of noisy scores, so
+ * the maze is scored again under the seed regress mode uses, and that score is appended to corpus.txt.
+ * "regress" mode replays a corpus against a controller and fails if any maze got more than 10% worse,
+ * so the corpus works as a regression suite for GrandFinale, Ex3 and (compiled together with the CW1
+ * sources instead of the CW2 ones) the CW1 homing robot. Before each maze ControllerRandom is seeded from
+ * the seed the maze was searched from (its file name is controller-seed.maze), so a replay is repeatable.
+ *
+ * Usage:
+ *   java WorstCaseSearch search controller size braid seed iterations population [runs] [corpusDir]
+ *   java WorstCaseSearch regress controller corpusDir [runs]
+ */
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Simulated annealing search for the mazes a controller finds hardest.
+ */
+public class WorstCaseSearch {
+    private static final int SAMPLES = 3; // Evaluations averaged per maze
+    private static final int MAX_MUTATIONS = 3; // Squares toggled per mutant (at most)
+    private static final double COOLING = 0.97; // Temperature multiplier per iteration
+    private static final double REGRESSION_MARGIN = 1.10; // Allowed slowdown in regress mode
+
+    private final Supplier<LocalRobot.Controller> controllers;
+    private final int runs;
+    private final ExecutorService pool;
+    private final AtomicInteger crashes = new AtomicInteger(); // Evaluations in which the controller threw
+
+    /**
+     * Creates a search.
+     * controllers : Creates a fresh controller session for every evaluation.
+     * runs : The number of runs of each maze that are scored.
+     */
+    public WorstCaseSearch(Supplier<LocalRobot.Controller> controllers, int runs, ExecutorService pool) {
+        this.controllers = controllers;
+        this.runs = runs;
+        this.pool = pool;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("grandfinale.cacheBytes", "0"); // Before GrandFinale is loaded, sessions share no routes
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            if (args[0].equals("search")) {
+                int runs = args.length > 7 ? Integer.parseInt(args[7]) : 1;
+                Path corpus = Paths.get(args.length > 8 ? args[8] : "worst-case");
+                WorstCaseSearch search = new WorstCaseSearch(LocalRobot.Controller.byName(args[1]), runs, pool);
+                LocalMaze start = LocalMaze.generate(Integer.parseInt(args[2]), Integer.parseInt(args[2]),
+                        Long.parseLong(args[4]), Double.parseDouble(args[3]));
+                Scored worst = search.search(start, Integer.parseInt(args[5]), Integer.parseInt(args[6]),
+                        Long.parseLong(args[4]));
+                String name = args[1] + "-" + args[4] + ".maze";
+                ControllerRandom.seed(mazeSeed(name)); // Record the score regress will reproduce
+                Scored recorded = search.evaluate(worst.maze);
+                ControllerRandom.unseed();
+                save(corpus, name, recorded);
+                System.out.printf("Worst case for %s: %.1f steps (%.1f seeded, started at %.1f), %d crashes during"
+                        + " the search%n", args[1], worst.score, recorded.score, search.evaluate(start).score,
+                        search.getCrashes());
+            } else {
+                int runs = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+                WorstCaseSearch search = new WorstCaseSearch(LocalRobot.Controller.byName(args[1]), runs, pool);
+                System.exit(search.regress(Paths.get(args[2])) ? 0 : 1);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Anneals from a start maze and returns the worst maze found.
+     * iterations : Number of annealing iterations.
+     * population : Mutants evaluated (in parallel) per iteration.
+     */
+    public Scored search(LocalMaze start, int iterations, int population, long seed) throws Exception {
+        Random random = new Random(seed);
+        Scored current = evaluate(start);
+        Scored worst = current;
+        double temperature = Math.max(1.0, current.score * 0.05);
+
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            List<Future<Scored>> mutants = new ArrayList<>();
+            for (int i = 0; i < population; i++) {
+                LocalMaze mutant = mutate(current.maze, new Random(random.nextLong()));
+                mutants.add(pool.submit(() -> evaluate(mutant)));
+            }
+            Scored best = null;
+            for (Future<Scored> mutant : mutants) {
+                Scored scored = mutant.get();
+                if (best == null || scored.score > best.score) best = scored;
+            }
+
+            double delta = best.score - current.score;
+            if (delta > 0 || random.nextDouble() < Math.exp(delta / temperature)) {
+                current = best; // Accept uphill always, downhill sometimes
+            }
+            if (current.score > worst.score) worst = current;
+            temperature *= COOLING;
+        }
+        return worst;
+    }
+
+    /**
+     * Replays every maze of a corpus and compares it with its recorded score.
+     * return : True if no maze got more than REGRESSION_MARGIN worse.
+     */
+    public boolean regress(Path corpus) throws Exception {
+        boolean passed = true;
+        for (String line : Files.readAllLines(corpus.resolve("corpus.txt"), StandardCharsets.US_ASCII)) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 2) continue;
+            ControllerRandom.seed(mazeSeed(fields[0])); // The same random choices on every replay of this maze
+            Scored now = evaluate(LocalMaze.read(corpus.resolve(fields[0])));
+            double recorded = Double.parseDouble(fields[1]);
+            boolean ok = now.score <= recorded * REGRESSION_MARGIN;
+            passed &= ok;
+            System.out.printf("%s recorded=%.1f now=%.1f %s%n", fields[0], recorded, now.score, ok ? "ok" : "REGRESSION");
+        }
+        ControllerRandom.unseed();
+        return passed;
+    }
+
+    /**
+     * The seed a corpus maze was searched from, read from its name (controller-seed.maze).
+     * return : The seed, or a hash of the name if it does not end in one.
+     */
+    static long mazeSeed(String name) {
+        String stem = name.endsWith(".maze") ? name.substring(0, name.length() - ".maze".length()) : name;
+        try {
+            return Long.parseLong(stem.substring(stem.lastIndexOf('-') + 1));
+        } catch (NumberFormatException e) {
+            return stem.hashCode();
+        }
+    }
+
+    /**
+     * Scores a maze: mean total steps over SAMPLES evaluations with fresh controller sessions.
+     */
+    public Scored evaluate(LocalMaze maze) {
+        long budget = Watchdog.budgetFor(maze); // Step budget per run
+        double total = 0;
+        for (int sample = 0; sample < SAMPLES; sample++) {
+            try {
+                long[] steps = new LocalRobot(maze).run(controllers.get(), runs, budget);
+                for (long s : steps) {
+                    total += s < 0 ? budget : s; // Unfinished runs score the whole budget
+                }
+            } catch (RuntimeException e) {
+                crashes.incrementAndGet();
+                total += (double) runs * budget; // A crash fails every run of the sample
+            }
+        }
+        return new Scored(maze, total / SAMPLES);
+    }
+
+    public int getCrashes() {
+        return crashes.get();
+    }
+
+    /**
+     * Toggles 1 to MAX_MUTATIONS inner squares, undoing any toggle that disconnects start and target.
+     */
+    private static LocalMaze mutate(LocalMaze maze, Random random) {
+        LocalMaze mutant = new LocalMaze(maze);
+        int mutations = 1 + random.nextInt(MAX_MUTATIONS);
+        for (int attempt = 0; mutations > 0 && attempt < 100; attempt++) {
+            int x = 1 + random.nextInt(maze.getWidth() - 2);
+            int y = 1 + random.nextInt(maze.getHeight() - 2);
+            boolean start = x == maze.getStartX() && y == maze.getStartY();
+            boolean target = x == maze.getTargetX() && y == maze.getTargetY();
+            if (start || target) continue;
+            boolean wall = mutant.isWall(x, y);
+            mutant.setWall(x, y, !wall);
+            if (!wall && !mutant.isConnected()) {
+                mutant.setWall(x, y, false); // Adding this wall cut the maze in two
+                continue;
+            }
+            mutations--;
+        }
+        return mutant;
+    }
+
+    /**
+     * Writes a maze into the corpus and records its score.
+     */
+    private static void save(Path corpus, String name, Scored scored) throws IOException {
+        Files.createDirectories(corpus);
+        scored.maze.write(corpus.resolve(name));
+        Files.write(corpus.resolve("corpus.txt"),
+                String.format("%s %.1f%n", name, scored.score).getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * A maze together with its score.
+     */
+    public static class Scored {
+        public final LocalMaze maze;
+        public final double score;
+
+        Scored(LocalMaze maze, double score) {
+            this.maze = maze;
+            this.score = score;
+        }
+    }
+}
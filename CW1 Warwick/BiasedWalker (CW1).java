@@ -0,0 +1,163 @@
+/*
+Preamble :
+BiasedWalker is the decision engine behind the biased mode of Ex2. The original Ex2 walker re-rolls a random direction
+in a do-while loop until it misses a wall and has no memory, so it keeps wandering back into places it has already
+been, and its expected time to reach the target grows quickly with the size of the maze.
+The engine keeps the randomised character of Ex2 but changes three things:
+- Every relative direction has a configurable weight (by default AHEAD is the most likely, BEHIND the least).
+- Each square has a compact visit counter (one byte, saturating at 255). Most of the time the robot only considers
+  the exits that lead to the least-visited neighbours, so it is pushed towards parts of the maze it has not seen.
+- Directions are drawn with the alias method. The 16 possible sets of open exits each get a precomputed alias table,
+  so a draw over only the non-wall exits costs one random number and one comparison, with no rejection loop.
+*/
+
+import uk.ac.warwick.dcs.maze.logic.IRobot;
+
+public class BiasedWalker
+{
+
+	private static final int[] DX = {0, 1, 0, -1}; // x step for NORTH, EAST, SOUTH, WEST
+	private static final int[] DY = {-1, 0, 1, 0}; // y step for NORTH, EAST, SOUTH, WEST
+
+	private final double aversion; // Chance of only considering the least-visited exits
+
+	// Alias tables for every set of open exits. Exits are relative quarter turns: 0 AHEAD, 1 RIGHT, 2 BEHIND, 3 LEFT
+	private final int[][] outcome = new int[16][]; // The exits in each set
+	private final double[][] probability = new double[16][];
+	private final int[][] alias = new int[16][];
+
+	private byte[] visits = new byte[0]; // Visit counter per square
+	private int memoryWidth = 0;
+
+	// Default engine: AHEAD 4, RIGHT 2, BEHIND 1, LEFT 2 and least-visited exits 3 times in 4
+	public BiasedWalker() {
+		this(new double[] {4, 2, 1, 2}, 0.75);
+	}
+
+	// weights : weight of AHEAD, RIGHT, BEHIND and LEFT
+	// aversion : chance (0 to 1) of choosing only among the exits to the least-visited neighbours
+	public BiasedWalker(double[] weights, double aversion) {
+		this.aversion = aversion;
+		for (int mask = 1; mask < 16; mask++) {
+			buildAliasTable(mask, weights);
+		}
+	}
+
+	// Chooses the relative direction to face from the robot's current square, and counts the visit
+	public int chooseDirection(IRobot robot) {
+		int x = robot.getLocation().x;
+		int y = robot.getLocation().y;
+		countVisit(x, y);
+
+		//Find the open exits and which of them lead to the least-visited neighbours
+		int heading = robot.getHeading() - IRobot.NORTH;
+		int open = 0;
+		int leastVisited = 0;
+		int fewest = Integer.MAX_VALUE;
+		for (int turn = 0; turn < 4; turn++) {
+			if (robot.look(IRobot.AHEAD + turn) == IRobot.WALL) continue;
+			open |= 1 << turn;
+			int h = (heading + turn) & 3;
+			int count = visitsAt(x + DX[h], y + DY[h]);
+			if (count < fewest) {
+				fewest = count;
+				leastVisited = 1 << turn;
+			} else if (count == fewest) {
+				leastVisited |= 1 << turn;
+			}
+		}
+		if (open == 0) {
+			return IRobot.AHEAD; //Walled in, nowhere to go
+		}
+
+		int mask = Math.random() < aversion ? leastVisited : open;
+		return IRobot.AHEAD + sample(mask, Math.random());
+	}
+
+	// Forgets all visits, e.g. when a new run starts
+	public void reset() {
+		java.util.Arrays.fill(visits, (byte) 0);
+	}
+
+	// Draws an exit from the alias table of a set of exits using one random number in [0, 1)
+	int sample(int mask, double random) {
+		double scaled = random * outcome[mask].length;
+		int column = (int) scaled;
+		return scaled - column < probability[mask][column] ? outcome[mask][column] : alias[mask][column];
+	}
+
+	// Builds the alias table of one set of exits (Vose's method)
+	private void buildAliasTable(int mask, double[] weights) {
+		int n = Integer.bitCount(mask);
+		int[] exits = new int[n];
+		double total = 0;
+		for (int turn = 0, i = 0; turn < 4; turn++) {
+			if ((mask & (1 << turn)) != 0) {
+				exits[i++] = turn;
+				total += weights[turn];
+			}
+		}
+
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int smalls = 0;
+		int larges = 0;
+		for (int i = 0; i < n; i++) {
+			scaled[i] = total > 0 ? weights[exits[i]] * n / total : 1.0; //Average column height is 1
+			if (scaled[i] < 1.0) small[smalls++] = i;
+			else large[larges++] = i;
+		}
+
+		double[] prob = new double[n];
+		int[] other = new int[n];
+		while (smalls > 0 && larges > 0) {
+			int s = small[--smalls];
+			int l = large[--larges];
+			prob[s] = scaled[s];
+			other[s] = exits[l]; //The rest of column s belongs to l
+			scaled[l] -= 1.0 - scaled[s];
+			if (scaled[l] < 1.0) small[smalls++] = l;
+			else large[larges++] = l;
+		}
+		while (larges > 0) prob[large[--larges]] = 1.0;
+		while (smalls > 0) prob[small[--smalls]] = 1.0; //Only rounding errors are left
+
+		for (int i = 0; i < n; i++) {
+			if (prob[i] == 1.0) other[i] = exits[i];
+		}
+		outcome[mask] = exits;
+		probability[mask] = prob;
+		alias[mask] = other;
+	}
+
+	// Visit count of a square (0 if it is outside the memory)
+	private int visitsAt(int x, int y) {
+		if (x < 0 || y < 0 || x >= memoryWidth || y * memoryWidth + x >= visits.length) return 0;
+		return visits[y * memoryWidth + x] & 0xFF;
+	}
+
+	// Adds one to a square's visit count, saturating at 255
+	private void countVisit(int x, int y) {
+		if (x >= memoryWidth || y * memoryWidth + x >= visits.length) growMemory(x, y);
+		int cell = y * memoryWidth + x;
+		if (visits[cell] != (byte) 0xFF) visits[cell]++;
+	}
+
+	// Doubles the memory until it covers (x, y), keeping the counts
+	private void growMemory(int x, int y) {
+		int oldWidth = memoryWidth;
+		int oldHeight = memoryWidth == 0 ? 0 : visits.length / memoryWidth;
+		int width = Math.max(16, oldWidth);
+		int height = Math.max(16, oldHeight);
+		while (x >= width) width *= 2;
+		while (y >= height) height *= 2;
+		byte[] grown = new byte[width * height];
+		for (int row = 0; row < oldHeight; row++) {
+			System.arraycopy(visits, row * oldWidth, grown, row * width, oldWidth);
+		}
+		visits = grown;
+		memoryWidth = width;
+	}
+
+}
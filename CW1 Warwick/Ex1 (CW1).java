@@ -11,38 +11,28 @@ import uk.ac.warwick.dcs.maze.logic.IRobot;
 public class Ex1
 {
 
+	// Directions and their descriptions, indexed by the random number (shared with LockstepSimulator)
+	static final int[] DIRECTIONS = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
+	static final String[] FACING = {"forwards", "right", "left", "backwards"};
+
+	// What the robot says for each random number, built once so that no string is put together on every move
+	private static final String[] AT_DEADEND = messages("I'm going ", " at a deadend");
+	private static final String[] IN_CORRIDOR = messages("I'm going ", " down a corridor");
+	private static final String[] AT_JUNCTION = messages("I'm going ", " at a junction");
+
 	public void controlRobot(IRobot robot) {
 
 		int randno;
 		int direction;
 		int nonWalls = countWalls(robot); //counts the number of non wall spaces around the robot
-		String facing = "";
 
 
 		do{
 
-		// Select a random number
-
-		randno = (int) Math.round(Math.random()*3);
-
-		// Convert this to a direction
+		// Select a random number and convert it to a direction
 
-		if (randno == 0){
-			direction = IRobot.AHEAD;
-			facing = "forwards";
-		}
-		else if (randno == 1){
-			direction = IRobot.RIGHT;
-			facing = "right";
-		}
-		else if (randno == 2){
-			direction = IRobot.LEFT;
-			facing = "left";
-		}
-		else{
-			direction = IRobot.BEHIND;
-			facing = "backwards";
-		}
+		randno = randomIndex(Math.random());
+		direction = DIRECTIONS[randno];
 
 		}while(robot.look(direction) == IRobot.WALL);{
 			robot.face(direction);
@@ -50,13 +40,13 @@ public class Ex1
 			//Determine the type of the current location
 
 			if (nonWalls == 1){
-				System.out.println("I'm going "+ facing + " at a deadend" );
+				System.out.println(AT_DEADEND[randno]);
 			}
 			else if (nonWalls == 2){
-				System.out.println("I'm going "+ facing + " down a corridor" );
+				System.out.println(IN_CORRIDOR[randno]);
 			} 
 			else if(nonWalls >=3){
-				System.out.println("I'm going "+ facing + " at a junction" );
+				System.out.println(AT_JUNCTION[randno]);
 			}
 		}
 		
@@ -65,6 +55,23 @@ public class Ex1
 		
 	}
     
+	// Decision rule: converts a random number in [0, 1) into an index into DIRECTIONS.
+	// Kept static so the lockstep simulator can apply exactly the same rule to thousands of robots
+
+	static int randomIndex(double random){
+		return (int) Math.round(random*3);
+	}
+
+	// Builds one message per entry of FACING, e.g. "I'm going left at a junction"
+
+	private static String[] messages(String before, String after){
+		String[] messages = new String[FACING.length];
+		for(int i=0;i<FACING.length;i++){
+			messages[i] = before + FACING[i] + after;
+		}
+		return messages;
+	}
+
 	// Method to the count the number of empty spaces around the controller
 
 	private int countWalls(IRobot robot){
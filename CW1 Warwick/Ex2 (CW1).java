@@ -1,6 +1,7 @@
 /*
 The challenge in this exercise was to establish equal probabilities for each direction and to incorporate a 1-in-8 chance for the robot to randomly change direction. To avoid collisions, the controlRobot method checks for obstacles in each direction, changing the robot’s heading if a wall is detected. The countWalls method assesses surrounding spaces to determine whether the robot is at a dead-end, in a corridor, or at a junction.The controller uses robot.look(direction) to detect if there is a wall in the chosen direction. If look returns IRobot.WALL, the robot chooses another open direction. If robot.look(direction) confirms an open path, the robot will proceed in that direction, using robot.face(direction) to face towards the chosen heading. On the first run, direction is set based on a random choice from 0 to 3(Between ahead and behind). This random selection ensures each direction is equally likely at the start. 
 Initially, the robot moved with uneven probabilities, as failing to find an obstacle-free path could lead to biased direction selections. The solution was to adjust the Math.random() function from Exercise 1, refining the probability by ensuring a balanced probability across all possible directions Additionally, we implemented a 1-in-8 random movement chance by introducing a probability check, allowing the robot to occasionally pick a direction independently of its path logic. This was done by introducing a new random variable which would give us a number between 0 and 7 and a Boolean check to see if the random number Is equal to ‘1’ (a 1-in-8 chance) 
+Running with -Dex2.biased=true switches the robot to a biased walker (see BiasedWalker): configurable weights for each direction, a preference for the least-visited neighbouring squares and alias-table sampling over only the open exits. It is still random, but it stops revisiting the same squares over and over, so it reaches the target in far fewer steps.
 */
 
 import uk.ac.warwick.dcs.maze.logic.IRobot;
@@ -8,39 +9,37 @@ import uk.ac.warwick.dcs.maze.logic.IRobot;
 public class Ex2
 {
 
+	// Directions and their descriptions, indexed by the random number (shared with LockstepSimulator)
+	static final int[] DIRECTIONS = {IRobot.AHEAD, IRobot.RIGHT, IRobot.LEFT, IRobot.BEHIND};
+	static final String[] FACING = {"forwards", "right", "left", "backwards"};
+
+	// What the robot says for each random number, built once so that no string is put together on every move
+	private static final String[] AT_DEADEND = messages("I'm going ", " at a deadend");
+	private static final String[] IN_CORRIDOR = messages("I'm going ", " down a corridor");
+	private static final String[] AT_JUNCTION = messages("I'm going ", " at a junction");
+
+	private static final boolean BIASED = Boolean.getBoolean("ex2.biased"); // Use the biased walker engine
+	private final BiasedWalker walker = new BiasedWalker();
+
 	public void controlRobot(IRobot robot) {
 
+		if (BIASED){
+			robot.face(walker.chooseDirection(robot)); // The engine only ever picks open exits
+			return;
+		}
+
 		int randno;
 		int direction = IRobot.AHEAD;    //Direction initialized to ahead as default starting point
 		int nonWalls = countWalls(robot); //counts the number of non wall spaces around the robot
-		String facing = "";
-		boolean choice = Math.floor(Math.random()*8) == 1; // Randomly decide whether to make a direction choice or not (1 in 8 chance) 
+		boolean choice = randomChange(Math.random()); // Randomly decide whether to make a direction choice or not (1 in 8 chance) 
 
 		if (choice || robot.look(IRobot.AHEAD) == IRobot.WALL){ // Check if a random choice was made or if there's a wall ahead 
 			do{
 
-			// Select a random number between 0 and 3 to determine direction 
-
-			randno = (int) Math.floor(Math.random()*4);
+			// Select a random number between 0 and 3 and convert it to a direction
 
-			// Convert this to a direction
-
-			if (randno == 0){
-				direction = IRobot.AHEAD;
-				facing = "forwards";
-			}
-			else if (randno == 1){
-				direction = IRobot.RIGHT;
-				facing = "right";
-			}
-			else if (randno == 2){
-				direction = IRobot.LEFT;
-				facing = "left";
-			}
-			else{
-				direction = IRobot.BEHIND;
-				facing = "backwards";
-			}
+			randno = randomIndex(Math.random());
+			direction = DIRECTIONS[randno];
 
 			}while(robot.look(direction) == IRobot.WALL);{
 				robot.face(direction);
@@ -48,13 +47,13 @@ public class Ex2
 				//Determine the type of the current location
 
 				if (nonWalls == 1){
-					System.out.println("I'm going "+ facing + " at a deadend" );
+					System.out.println(AT_DEADEND[randno]);
 				}
 				else if (nonWalls == 2){
-					System.out.println("I'm going "+ facing + " down a corridor" );
+					System.out.println(IN_CORRIDOR[randno]);
 				} 
 				else if(nonWalls >=3){
-					System.out.println("I'm going "+ facing + " at a junction" );
+					System.out.println(AT_JUNCTION[randno]);
 				}
 			}
 			
@@ -63,6 +62,34 @@ public class Ex2
 		
 	}
 
+	// Decision rules, kept static so the lockstep simulator can apply exactly the same rules to thousands of robots
+
+	// 1 in 8 chance of choosing a new direction even when the way ahead is clear
+	static boolean randomChange(double random){
+		return Math.floor(random*8) == 1;
+	}
+
+	// Converts a random number in [0, 1) into an index into DIRECTIONS, each equally likely
+	static int randomIndex(double random){
+		return (int) Math.floor(random*4);
+	}
+
+	// Clears the biased walker's visit counts at the start of each run
+
+	public void reset(){
+		walker.reset();
+	}
+
+	// Builds one message per entry of FACING, e.g. "I'm going left at a junction"
+
+	private static String[] messages(String before, String after){
+		String[] messages = new String[FACING.length];
+		for(int i=0;i<FACING.length;i++){
+			messages[i] = before + FACING[i] + after;
+		}
+		return messages;
+	}
+
 	// Method to the count the number of empty spaces around the controller
 
 	private int countWalls(IRobot robot){
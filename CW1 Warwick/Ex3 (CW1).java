@@ -1,16 +1,29 @@
 /*
 This exercise involved designing a heading controller for the robot to ensure it navigates toward the target  while avoiding obstacles. The controller first determines the relative direction of the target using `isTargetNorth`  and `isTargetEast` methods. These methods identify if the target is north, south, east, or west of the robot.  Based on this, the `headingController` checks if the robot can move in either of the target's directions *(e.g., NORTH or EAST) without hitting a wall. To ensure collision-free movement, the controller prioritizes available directions that bring the robot closer  to the target. 
-If both preferred directions are free, a random choice between them introduces slight variation in movement.  If neither is free, the robot selects a random heading that isn’t blocked. This approach ensures that the robot  moves toward the target when possible.  The homing robot can generally be expected to find the target as long as there is a viable path.  However, there is a chance that random direction choices may cause it to deviate temporarily. Improvements could include adding path memory so that the controller avoids that path the next time.
+If both preferred directions are free, a random choice between them introduces slight variation in movement.  If neither is free, the robot follows the wall round the obstacle (see below). This approach ensures that the robot  moves toward the target when possible.  The homing robot can generally be expected to find the target as long as there is a viable path.  However, there is a chance that random direction choices may cause it to deviate temporarily. Improvements could include adding path memory so that the controller avoids that path the next time.
+When both preferred headings are walled the robot no longer picks random headings, which made it oscillate in U-shaped traps for thousands of steps. Instead it follows the wall with the Pledge algorithm: it remembers the blocked heading, keeps the wall on its left and counts its turns (right +1, left -1), and only leaves the wall when the turn count is back to zero, i.e. when it faces the blocked heading again with the obstacle behind it. 
+Pledge alone can circle an island forever in a maze with loops, so every square also has one byte of memory: the headings already taken from it and the way back to where it was first entered from. Both the homing and the wall following only take headings that have not been taken from that square before, and only take the way back once every other exit has been used (Tarry's rule). This means no passage is ever walked twice in the same direction, so the robot always reaches a reachable target within twice the number of passages, and step counts on obstacle-heavy mazes are bounded and predictable.
 */
 
 import uk.ac.warwick.dcs.maze.logic.IRobot; 
 
 public class Ex3 { 
 
+    private boolean wallFollowing = false; // True while following a wall around an obstacle
+    private int turnCount = 0; // Net quarter turns since wall following started (right = +1, left = -1)
+    private byte[] squareMemory = new byte[0]; // One byte per square, see visit()
+    private int memoryWidth = 0; // Width of the square memory
+    private boolean firstPoll = true; // True until the first move of a run has been made
+    private static final int VISITED = 1 << 4;
+    private static final int NO_ENTRY = 1 << 7; // Set on the start square, which was never entered
+
 
     public void controlRobot(IRobot robot){
+        visit(robot, firstPoll);
+        firstPoll = false;
         // Get heading direction based on target location
         int heading = headingController(robot);
+        markTried(robot, heading); // Remember the heading taken from this square
         ControlTest.test(heading,robot);
         robot.setHeading(heading);
      } 
@@ -61,6 +74,9 @@ public class Ex3 {
  
        // Determines the best heading direction to move toward the target
     private int headingController(IRobot robot) { 
+        if (wallFollowing) {
+            return followWall(robot); // Still going round an obstacle
+        }
         byte targetNorth = isTargetNorth(robot); // Check if target is north
         byte targetEast = isTargetEast(robot); // Check if target is east
         int preferredHeading1 = 0; // First preferred heading direction
@@ -72,9 +88,9 @@ public class Ex3 {
         if (targetEast == 1) preferredHeading2 = IRobot.EAST; 
         else if (targetEast == -1) preferredHeading2 = IRobot.WEST; 
  
-        // Check if preferred headings are free of walls
-        boolean heading1Free = lookHeading(robot, preferredHeading1) != IRobot.WALL; 
-        boolean heading2Free = lookHeading(robot, preferredHeading2) != IRobot.WALL; 
+        // Check if preferred headings are free of walls and have not been tried from this square
+        boolean heading1Free = isAllowed(robot, preferredHeading1); 
+        boolean heading2Free = isAllowed(robot, preferredHeading2); 
  
         // If both preferred headings are free, randomly choose one
         if (heading1Free && heading2Free) { 
@@ -86,36 +102,139 @@ public class Ex3 {
             // If only the second preferred heading is free, choose it
             return preferredHeading2; 
         } else { 
-            // If neither preferred heading is free, pick a random available direction
-            return getRandomAvailableHeading(robot); 
+            // If neither preferred heading is free, follow the wall round the obstacle
+            return startWallFollowing(robot, preferredHeading1 != 0 ? preferredHeading1 : preferredHeading2); 
         } 
     } 
- 
-    // Chooses a random heading if no preferred heading is available  
-    private int getRandomAvailableHeading(IRobot robot) {  
-        int randno;  
-        int direction;  
- 
-        do {  
-            // Generate a random number between 0 and 3
-            randno = (int) Math.floor(Math.random() * 4);  
- 
-            // Convert the random number to a direction
-            if (randno == 0) {  
-                direction = IRobot.AHEAD;  
-            } else if (randno == 1) {  
-                direction = IRobot.RIGHT;  
-            } else if (randno == 2) {  
-                direction = IRobot.LEFT;  
-            } else {  
-                direction = IRobot.BEHIND;  
-            }  
-        } while (lookHeading(robot, direction) == IRobot.WALL); // Repeat until a wall-free direction is found
-        return direction;  
-    }  
+
+    // Checks that a heading exists, is not a wall and has not already been taken from this square.
+    // The way back to where the square was first entered from is only allowed once every other exit has been taken
+    // (Tarry's rule), which guarantees that the robot never walks a passage twice in the same direction
+    private boolean isAllowed(IRobot robot, int heading) {
+        if (heading == 0 || lookHeading(robot, heading) == IRobot.WALL || wasTried(robot, heading)) {
+            return false;
+        }
+        int back = entryBack(robot);
+        if (heading != back) {
+            return true;
+        }
+        for (int other = IRobot.NORTH; other <= IRobot.WEST; other++) {
+            if (other != back && lookHeading(robot, other) != IRobot.WALL && !wasTried(robot, other)) {
+                return false; // Another exit is still untried
+            }
+        }
+        return true;
+    }
+
+    // Starts Pledge wall following: face the blocked heading, then turn right until the way is clear
+    private int startWallFollowing(IRobot robot, int blocked) {
+        if (blocked == 0) {
+            blocked = robot.getHeading(); // Already in line with the target, use the current heading
+        }
+        for (int turn = 1; turn <= 3; turn++) {
+            int heading = rotate(blocked, turn);
+            if (isAllowed(robot, heading)) {
+                wallFollowing = true;
+                turnCount = turn; // Right turns keep the wall on the left
+                return heading;
+            }
+        }
+        return anyOpenHeading(robot);
+    }
+
+    // Left-hand wall following: try left, ahead, right and finally behind, counting the turns.
+    // Leaves the wall once the turn count is back to zero, i.e. facing the blocked heading again
+    private int followWall(IRobot robot) {
+        int heading = robot.getHeading();
+        for (int turn = -1; turn <= 2; turn++) {
+            int candidate = rotate(heading, turn);
+            if (isAllowed(robot, candidate)) {
+                turnCount += turn;
+                if (turnCount == 0) {
+                    wallFollowing = false; // Round the obstacle, back to homing
+                }
+                return candidate;
+            }
+        }
+        return anyOpenHeading(robot);
+    }
+
+    // Last resort once every exit of the square has been taken: any heading that is not a wall
+    private int anyOpenHeading(IRobot robot) {
+        wallFollowing = false;
+        for (int heading = IRobot.NORTH; heading <= IRobot.WEST; heading++) {
+            if (lookHeading(robot, heading) != IRobot.WALL) {
+                return heading;
+            }
+        }
+        return robot.getHeading();
+    }
+
+    // Turns an absolute heading by a number of quarter turns (positive = clockwise)
+    private int rotate(int heading, int turns) {
+        return IRobot.NORTH + ((heading - IRobot.NORTH + turns) % 4 + 4) % 4;
+    }
+
+    // The square memory holds one byte per square:
+    // bits 0-3 = headings already taken, bit 4 = visited, bits 5-6 = heading back to where it was first entered from
+
+    // Marks the robot's square as visited, remembering the way back if this is the first visit
+    private void visit(IRobot robot, boolean start) {
+        int cell = memoryIndex(robot);
+        if ((squareMemory[cell] & VISITED) == 0) {
+            int back = rotate(robot.getHeading(), 2) - IRobot.NORTH;
+            squareMemory[cell] |= (byte) (start ? VISITED | NO_ENTRY : VISITED | (back << 5));
+        }
+    }
+
+    // Heading back to where the square was first entered from, or 0 for the start square
+    private int entryBack(IRobot robot) {
+        byte memory = squareMemory[memoryIndex(robot)];
+        return (memory & NO_ENTRY) != 0 ? 0 : IRobot.NORTH + ((memory >> 5) & 3);
+    }
+
+    // Checks the square memory for a heading already taken from the robot's square
+    private boolean wasTried(IRobot robot, int heading) {
+        return (squareMemory[memoryIndex(robot)] & (1 << (heading - IRobot.NORTH))) != 0;
+    }
+
+    // Records the heading taken from the robot's square
+    private void markTried(IRobot robot, int heading) {
+        squareMemory[memoryIndex(robot)] |= (byte) (1 << (heading - IRobot.NORTH));
+    }
+
+    // Index of the robot's square in the memory, growing the memory if the square is not covered yet
+    private int memoryIndex(IRobot robot) {
+        int x = robot.getLocation().x;
+        int y = robot.getLocation().y;
+        if (x >= memoryWidth || y * memoryWidth + x >= squareMemory.length) {
+            growMemory(x, y);
+        }
+        return y * memoryWidth + x;
+    }
+
+    // Doubles the memory until it covers (x, y), keeping what has been recorded
+    private void growMemory(int x, int y) {
+        int oldWidth = memoryWidth;
+        int oldHeight = memoryWidth == 0 ? 0 : squareMemory.length / memoryWidth;
+        int width = Math.max(16, oldWidth);
+        int height = Math.max(16, oldHeight);
+        while (x >= width) width *= 2;
+        while (y >= height) height *= 2;
+        byte[] grown = new byte[width * height];
+        for (int row = 0; row < oldHeight; row++) {
+            System.arraycopy(squareMemory, row * oldWidth, grown, row * width, oldWidth);
+        }
+        squareMemory = grown;
+        memoryWidth = width;
+    }
 
     public void reset(){
         ControlTest.printResults();
+        wallFollowing = false; // Each run starts homing with an empty memory
+        turnCount = 0;
+        firstPoll = true;
+        java.util.Arrays.fill(squareMemory, (byte) 0);
     }
 
 } 
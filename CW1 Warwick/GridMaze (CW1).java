@@ -0,0 +1,141 @@
+/*
+Preamble :
+GridMaze is a small read-only maze used by the CW1 tools (the lockstep simulator and the analytic evaluators) so that
+the random robots can be run without the maze environment. Like the environment, the maze is a grid of squares that
+are either walls or passages, with walls all around the border. The squares are stored as a bit-packed grid, one bit
+per square, so even very large mazes are cheap to share between threads.
+Mazes are generated from a seed with a randomised depth-first search over the odd squares (a perfect maze), and
+optionally "braided" by knocking out a fraction of the remaining walls so that the maze has loops.
+Headings are numbered 0 to 3 for NORTH, EAST, SOUTH and WEST, the same order as the IRobot constants.
+*/
+
+import java.util.Random;
+
+public class GridMaze
+{
+
+	public static final int[] DX = {0, 1, 0, -1}; // x step for NORTH, EAST, SOUTH, WEST
+	public static final int[] DY = {-1, 0, 1, 0}; // y step for NORTH, EAST, SOUTH, WEST
+
+	private final int width;
+	private final int height;
+	private final long[] walls; // Bit (y * width + x) is set if that square is a wall
+	private int startX, startY, targetX, targetY;
+
+	// Creates a maze that is all walls
+	public GridMaze(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.walls = new long[(width * height + 63) / 64];
+		java.util.Arrays.fill(walls, -1L);
+	}
+
+	// Generates a maze of the given size (rounded up to odd numbers) from a seed.
+	// braid is the chance of removing each remaining inner wall between two passages (0 = perfect maze)
+	public static GridMaze generate(int width, int height, long seed, double braid) {
+		width |= 1;
+		height |= 1;
+		GridMaze maze = new GridMaze(width, height);
+		Random random = new Random(seed);
+		int cellsX = (width - 1) / 2;
+		int cellsY = (height - 1) / 2;
+
+		//Depth-first search over the odd squares, using an int array as the stack
+		int[] stack = new int[cellsX * cellsY];
+		int top = 0;
+		stack[top++] = 0;
+		maze.setWall(1, 1, false);
+		int[] options = new int[4];
+		while (top > 0) {
+			int cell = stack[top - 1];
+			int cx = cell % cellsX;
+			int cy = cell / cellsX;
+			int count = 0;
+			for (int heading = 0; heading < 4; heading++) {
+				int nx = cx + DX[heading];
+				int ny = cy + DY[heading];
+				if (nx >= 0 && ny >= 0 && nx < cellsX && ny < cellsY && maze.isWall(2 * nx + 1, 2 * ny + 1)) {
+					options[count++] = heading;
+				}
+			}
+			if (count == 0) {
+				top--; //Nothing left to carve here, backtrack
+				continue;
+			}
+			int heading = options[random.nextInt(count)];
+			int nx = cx + DX[heading];
+			int ny = cy + DY[heading];
+			maze.setWall(2 * cx + 1 + DX[heading], 2 * cy + 1 + DY[heading], false); //Knock through the wall between
+			maze.setWall(2 * nx + 1, 2 * ny + 1, false);
+			stack[top++] = ny * cellsX + nx;
+		}
+
+		//Braiding: remove walls that separate two passages to create loops
+		for (int y = 1; y < height - 1; y++) {
+			for (int x = 1; x < width - 1; x++) {
+				boolean between = (x % 2 == 1) != (y % 2 == 1);
+				if (between && maze.isWall(x, y) && random.nextDouble() < braid) {
+					maze.setWall(x, y, false);
+				}
+			}
+		}
+
+		maze.setStart(1, 1);
+		maze.setTarget(width - 2, height - 2);
+		return maze;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public boolean isWall(int x, int y) {
+		int bit = y * width + x;
+		return (walls[bit >>> 6] & (1L << bit)) != 0;
+	}
+
+	public void setWall(int x, int y, boolean wall) {
+		int bit = y * width + x;
+		if (wall) {
+			walls[bit >>> 6] |= 1L << bit;
+		} else {
+			walls[bit >>> 6] &= ~(1L << bit);
+		}
+	}
+
+	// Returns true if the square next to (x, y) in the given heading (0-3) is a wall
+	public boolean isWall(int x, int y, int heading) {
+		return isWall(x + DX[heading], y + DY[heading]);
+	}
+
+	public void setStart(int x, int y) {
+		startX = x;
+		startY = y;
+	}
+
+	public void setTarget(int x, int y) {
+		targetX = x;
+		targetY = y;
+	}
+
+	public int getStartX() {
+		return startX;
+	}
+
+	public int getStartY() {
+		return startY;
+	}
+
+	public int getTargetX() {
+		return targetX;
+	}
+
+	public int getTargetY() {
+		return targetY;
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+Preamble :
+The random robots of Ex1 and Ex2 need a very large number of samples before their average step counts can be trusted.
+Simulating them with one controller object and one robot object per sample spreads the state of every robot over
+the heap, which is slow. This simulator is data-oriented instead: thousands of independent robots walk the same
+read-only GridMaze in lockstep, and all of their state lives in parallel primitive arrays (x, y, heading, random
+number generator state and step count), so one tick of the simulation is a tight loop over contiguous memory.
+The robots are split into fixed-size chunks and the chunks are run on all cores. Robots never interact, so chunks
+do not need to wait for each other between ticks.
+The decisions are made with the same rules as the controllers (Ex1.randomIndex, Ex2.randomChange and
+Ex2.randomIndex), so the results match what Ex1 and Ex2 would do in the maze environment. Each robot has its own
+xorshift random number generator seeded from the run seed, which makes a whole simulation reproducible.
+Random robots can take practically forever (MarkovEvaluator puts Ex2 at over 10^20 expected steps on some perfect
+101 x 101 mazes), so every robot has a step budget. By default it grows with the maze, STEPS_PER_SQUARE steps per square,
+and robots still walking when it runs out are reported as over budget.
+Usage : java LockstepSimulator ex1|ex2 robots mazeSize [braid] [seed] [maxSteps]
+*/
+
+import java.util.stream.IntStream;
+
+public class LockstepSimulator
+{
+
+	public static final int EX1 = 1; //Uniform random robot from Ex1
+	public static final int EX2 = 2; //Ahead-biased random robot from Ex2
+
+	private static final int CHUNK = 1024; //Robots handled by one task
+	private static final int STEPS_PER_SQUARE = 50; //Default step budget per maze square
+
+	private final GridMaze maze;
+	private final int controller;
+	private final int robots;
+
+	//Per-robot state, one entry per robot in each array
+	private final int[] x;
+	private final int[] y;
+	private final int[] heading; //0-3 for NORTH, EAST, SOUTH, WEST
+	private final long[] random; //xorshift state
+	private final int[] steps; //Steps taken so far, or to reach the target once finished
+	private final boolean[] finished;
+
+	public LockstepSimulator(GridMaze maze, int controller, int robots, long seed) {
+		this.maze = maze;
+		this.controller = controller;
+		this.robots = robots;
+		x = new int[robots];
+		y = new int[robots];
+		heading = new int[robots];
+		random = new long[robots];
+		steps = new int[robots];
+		finished = new boolean[robots];
+		for (int i = 0; i < robots; i++) {
+			x[i] = maze.getStartX();
+			y[i] = maze.getStartY();
+			heading[i] = 1; //Robots start facing EAST
+			random[i] = mix(seed + i);
+		}
+	}
+
+	// Runs every robot until it reaches the target or has taken maxSteps steps.
+	// Returns the total number of robot-steps simulated
+	public long run(int maxSteps) {
+		int chunks = (robots + CHUNK - 1) / CHUNK;
+		return IntStream.range(0, chunks).parallel()
+				.mapToLong(chunk -> runChunk(chunk * CHUNK, Math.min(robots, (chunk + 1) * CHUNK), maxSteps))
+				.sum();
+	}
+
+	// Advances the robots from..to-1 tick by tick, all of them together
+	private long runChunk(int from, int to, int maxSteps) {
+		long total = 0;
+		int active = to - from;
+		for (int tick = 0; tick < maxSteps && active > 0; tick++) {
+			for (int i = from; i < to; i++) {
+				if (finished[i]) continue;
+				int h = (heading[i] + decide(i)) & 3; //New absolute heading
+				heading[i] = h;
+				x[i] += GridMaze.DX[h];
+				y[i] += GridMaze.DY[h];
+				steps[i]++;
+				total++;
+				if (x[i] == maze.getTargetX() && y[i] == maze.getTargetY()) {
+					finished[i] = true;
+					active--;
+				}
+			}
+		}
+		return total;
+	}
+
+	// Applies the controller's decision rule to robot i.
+	// Returns the turn as a number of quarter turns clockwise (0 = AHEAD, 1 = RIGHT, 2 = BEHIND, 3 = LEFT)
+	private int decide(int i) {
+		int turn;
+		if (controller == EX1) {
+			do {
+				turn = Ex1.DIRECTIONS[Ex1.randomIndex(nextDouble(i))] - Ex1.DIRECTIONS[0];
+			} while (isWall(i, turn));
+		} else {
+			turn = 0; //Keep going ahead unless there is a reason to change
+			if (Ex2.randomChange(nextDouble(i)) || isWall(i, 0)) {
+				do {
+					turn = Ex2.DIRECTIONS[Ex2.randomIndex(nextDouble(i))] - Ex2.DIRECTIONS[0];
+				} while (isWall(i, turn));
+			}
+		}
+		return turn;
+	}
+
+	// Checks whether robot i would walk into a wall after turning
+	private boolean isWall(int i, int turn) {
+		return maze.isWall(x[i], y[i], (heading[i] + turn) & 3);
+	}
+
+	// Next random number in [0, 1) from robot i's own generator (xorshift64*)
+	private double nextDouble(int i) {
+		long s = random[i];
+		s ^= s >>> 12;
+		s ^= s << 25;
+		s ^= s >>> 27;
+		random[i] = s;
+		return ((s * 0x2545F4914F6CDD1DL) >>> 11) * 0x1.0p-53;
+	}
+
+	// Spreads a seed over all 64 bits (never returns 0, which would stall xorshift)
+	private static long mix(long seed) {
+		long z = seed + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z ^= z >>> 31;
+		return z == 0 ? 1 : z;
+	}
+
+	public int getSteps(int robot) {
+		return steps[robot];
+	}
+
+	public boolean isFinished(int robot) {
+		return finished[robot];
+	}
+
+	public static void main(String[] args) {
+		int controller = args[0].equalsIgnoreCase("ex1") ? EX1 : EX2;
+		int robots = Integer.parseInt(args[1]);
+		int size = Integer.parseInt(args[2]);
+		double braid = args.length > 3 ? Double.parseDouble(args[3]) : 0.0;
+		long seed = args.length > 4 ? Long.parseLong(args[4]) : 1;
+		GridMaze maze = GridMaze.generate(size, size, seed, braid);
+		int maxSteps = args.length > 5 ? Integer.parseInt(args[5])
+				: (int) Math.min(Integer.MAX_VALUE, (long) STEPS_PER_SQUARE * maze.getWidth() * maze.getHeight());
+		LockstepSimulator simulator = new LockstepSimulator(maze, controller, robots, seed);
+
+		long start = System.nanoTime();
+		long robotSteps = simulator.run(maxSteps);
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		//Summarise the finished robots in a single printline
+		long sum = 0;
+		int done = 0;
+		int worst = 0;
+		for (int i = 0; i < robots; i++) {
+			if (simulator.isFinished(i)) {
+				sum += simulator.getSteps(i);
+				worst = Math.max(worst, simulator.getSteps(i));
+				done++;
+			}
+		}
+		System.out.printf("%s: %d/%d robots reached the target (%d over the budget of %d steps), mean %.1f steps, "
+				+ "worst %d, %d robot-steps in %.2fs (%.1fM robot-steps/s)%n", args[0], done, robots, robots - done,
+				maxSteps, done == 0 ? 0.0 : (double) sum / done, worst, robotSteps, seconds, robotSteps / seconds / 1e6);
+	}
+
+}
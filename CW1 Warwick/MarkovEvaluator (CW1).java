@@ -0,0 +1,372 @@
+/*
+Preamble :
+The random robots of Ex1 and Ex2 only depend on where they are and which way they face, so each of them is a Markov
+chain. Its states are the (square, heading) pairs, and the decision rule gives the chance of each next state. This
+evaluator builds that chain for a GridMaze and works out the exact expected number of steps to the target, instead of
+averaging millions of simulated runs (see LockstepSimulator), so walker variants can be compared without any noise.
+The chances come from the controllers' own rules (Ex1.randomIndex, Ex2.randomChange and Ex2.randomIndex). Each rule is
+a step function of the random number, so its break points are found by bisection down to the last bit of a double.
+Redrawing until there is no wall then means that each open exit is taken in proportion to the chance of drawing it.
+The expected steps E solve E(s) = 1 + sum of P(s, t) * E(t) over all states t, with E = 0 at the target. Only states
+that can be reached from the start are kept, and the moves are stored in primitive CSR arrays (row offsets, columns,
+chances).
+Iterative solvers do badly here: a Jacobi or Gauss-Seidel sweep only shrinks the error by about 1 - 1/E, and E runs
+into the millions on a 101 x 101 maze, while BiCGSTAB diverges on these badly conditioned systems. So the system is
+solved directly, by eliminating one state at a time: the chain's moves through the eliminated state are folded into
+the moves of the states that lead to it, and the expected steps are filled back in in the reverse order. States are
+eliminated fewest-links-first, which keeps the rows short in mazes. The chance of leaving a state is always summed
+from the chances of its moves rather than worked out as 1 minus the chance of staying, so nothing is subtracted and
+the result is accurate to a few units in the last place, however long the expected walk is. Each solution is checked
+by putting it back into the original equations.
+One maze is solved on one thread; several mazes are solved in parallel, one per task.
+Robots start on the maze's start square facing EAST, like in the lockstep simulator.
+Usage : java MarkovEvaluator ex1|ex2 mazeSize [braid] [seed] [mazes]
+*/
+
+import java.util.PriorityQueue;
+import java.util.function.DoubleToIntFunction;
+import java.util.stream.IntStream;
+
+public class MarkovEvaluator
+{
+
+	public static final int EX1 = LockstepSimulator.EX1;
+	public static final int EX2 = LockstepSimulator.EX2;
+
+	private static final int GRID = 4096; //Points a rule is sampled at before its break points are bisected
+
+	private final GridMaze maze;
+	private final double[][] turnChance; //Chance of each turn (0 AHEAD, 1 RIGHT, 2 BEHIND, 3 LEFT) per set of open turns
+	private final int[] stateOf; //Index of each (square, heading) state, -1 if it cannot be reached
+	private final int states;
+	private final int startState; //-1 if the robot starts on the target
+
+	//Moves between the states in CSR form: row s holds entries rowStart[s] to rowStart[s + 1] - 1
+	private final int[] rowStart;
+	private final int[] column;
+	private final double[] chance;
+	private final double[] arrive; //Chance of stepping onto the target from each state
+
+	private double[] expected; //Expected steps from each state, null until solved
+	private double residual = 0; //Largest error of the solution in the original equations, relative to E
+
+	public MarkovEvaluator(GridMaze maze, int controller) {
+		this.maze = maze;
+		this.turnChance = turnChances(controller);
+		int width = maze.getWidth();
+		stateOf = new int[width * maze.getHeight() * 4];
+		java.util.Arrays.fill(stateOf, -1);
+
+		//Breadth-first search over the states, which also numbers them in the order they are found
+		int[] queue = new int[stateOf.length];
+		int count = 0;
+		int start = state(maze.getStartX(), maze.getStartY(), 1); //Robots start facing EAST
+		boolean atTarget = maze.getStartX() == maze.getTargetX() && maze.getStartY() == maze.getTargetY();
+		if (!atTarget) {
+			stateOf[start] = count;
+			queue[count++] = start;
+		}
+		int entries = 0;
+		for (int head = 0; head < count; head++) {
+			int s = queue[head];
+			double[] chances = turnChance[openTurns(s)];
+			for (int turn = 0; turn < 4; turn++) {
+				int next = chances[turn] == 0 ? -1 : move(s, turn);
+				if (next < 0) continue; //Not taken, or the target, which ends the run
+				entries++;
+				if (stateOf[next] < 0) {
+					stateOf[next] = count;
+					queue[count++] = next;
+				}
+			}
+		}
+		states = count;
+		startState = atTarget ? -1 : 0;
+
+		//One row per state, in the same order
+		rowStart = new int[states + 1];
+		column = new int[entries];
+		chance = new double[entries];
+		arrive = new double[states];
+		int entry = 0;
+		for (int row = 0; row < states; row++) {
+			int s = queue[row];
+			rowStart[row] = entry;
+			double[] chances = turnChance[openTurns(s)];
+			for (int turn = 0; turn < 4; turn++) {
+				if (chances[turn] == 0) continue;
+				int next = move(s, turn);
+				if (next < 0) {
+					arrive[row] += chances[turn];
+				} else {
+					column[entry] = stateOf[next];
+					chance[entry++] = chances[turn];
+				}
+			}
+		}
+		rowStart[states] = entry;
+	}
+
+	// Chance of each turn for every set of open turns (bit t set if turn t is open), from the controller's rules
+	static double[][] turnChances(int controller) {
+		double[][] table = new double[16][4];
+		double[] draw = new double[4]; //Chance that one draw gives each turn
+		double change;
+		if (controller == EX1) {
+			double[] index = ruleChances(Ex1::randomIndex, Ex1.DIRECTIONS.length);
+			for (int i = 0; i < index.length; i++) {
+				draw[Ex1.DIRECTIONS[i] - Ex1.DIRECTIONS[0]] += index[i];
+			}
+			change = 1; //Ex1 draws on every move
+		} else {
+			double[] index = ruleChances(Ex2::randomIndex, Ex2.DIRECTIONS.length);
+			for (int i = 0; i < index.length; i++) {
+				draw[Ex2.DIRECTIONS[i] - Ex2.DIRECTIONS[0]] += index[i];
+			}
+			change = ruleChances(random -> Ex2.randomChange(random) ? 1 : 0, 2)[1];
+		}
+		for (int open = 1; open < 16; open++) {
+			double total = 0;
+			for (int turn = 0; turn < 4; turn++) {
+				if ((open & (1 << turn)) != 0) total += draw[turn];
+			}
+			if (total == 0) continue; //The rule can never draw an open turn, so the robot is stuck
+			//A draw is made with chance change, or always if the way ahead is a wall; otherwise the robot goes ahead
+			double drawn = (open & 1) == 0 ? 1 : change;
+			for (int turn = 0; turn < 4; turn++) {
+				if ((open & (1 << turn)) != 0) table[open][turn] = drawn * draw[turn] / total;
+			}
+			table[open][0] += 1 - drawn;
+		}
+		return table;
+	}
+
+	// Chance of each outcome (0 to outcomes - 1) of a decision rule, for a random number uniform in [0, 1).
+	// The rule must be a step function with at most one break point between neighbouring sample points
+	static double[] ruleChances(DoubleToIntFunction rule, int outcomes) {
+		double[] chances = new double[outcomes];
+		double from = 0; //Start of the current step
+		int value = rule.applyAsInt(0);
+		for (int i = 1; i <= GRID; i++) {
+			double to = i < GRID ? (double) i / GRID : Math.nextDown(1.0);
+			int next = rule.applyAsInt(to);
+			if (next == value) continue;
+			double lo = (double) (i - 1) / GRID;
+			double hi = to;
+			while (Math.nextUp(lo) < hi) { //Bisect down to neighbouring doubles
+				double mid = lo + (hi - lo) / 2;
+				if (rule.applyAsInt(mid) == value) lo = mid; else hi = mid;
+			}
+			chances[value] += hi - from;
+			from = hi;
+			value = next;
+		}
+		chances[value] += 1 - from;
+		return chances;
+	}
+
+	// Solves for the expected steps from every state by eliminating the states one at a time.
+	// Returns the expected steps, indexed like the rows (infinite where the target cannot be reached)
+	public double[] solve() {
+		int n = states;
+		//Working copy of the chain: moves to other live states, the chance of staying put and of reaching the target
+		int[][] to = new int[n][];
+		double[][] p = new double[n][];
+		int[] length = new int[n];
+		double[] stay = new double[n];
+		double[] leave = arrive.clone();
+		double[] steps = new double[n]; //Expected steps taken before each move, 1 until states are folded in
+		int[][] from = new int[n][]; //States that may move to each state, including some that no longer do
+		int[] fromLength = new int[n];
+		int[] links = new int[n]; //Live states that move to each state
+		for (int s = 0; s < n; s++) {
+			to[s] = new int[Math.max(4, rowStart[s + 1] - rowStart[s])];
+			p[s] = new double[to[s].length];
+			from[s] = new int[4];
+			steps[s] = 1;
+		}
+		for (int s = 0; s < n; s++) {
+			for (int entry = rowStart[s]; entry < rowStart[s + 1]; entry++) {
+				int t = column[entry];
+				if (t == s) {
+					stay[s] += chance[entry];
+					continue;
+				}
+				to[s][length[s]] = t;
+				p[s][length[s]++] = chance[entry];
+				from[t] = add(from[t], fromLength[t]++, s);
+				links[t]++;
+			}
+		}
+
+		//Fewest links first. Costs go stale as rows change, so a state whose cost has changed is put back
+		PriorityQueue<Long> queue = new PriorityQueue<>();
+		for (int s = 0; s < n; s++) {
+			queue.add(((long) links[s] * length[s] << 32) | s);
+		}
+		boolean[] eliminated = new boolean[n];
+		int[] order = new int[n];
+		double[] out = new double[n]; //Chance of moving anywhere else, i.e. 1 - stay without the subtraction
+		int done = 0;
+		while (!queue.isEmpty()) {
+			long head = queue.poll();
+			int s = (int) head;
+			if (eliminated[s]) continue;
+			long cost = (long) links[s] * length[s];
+			if (cost != head >>> 32) {
+				queue.add((cost << 32) | s);
+				continue;
+			}
+			eliminated[s] = true;
+			order[done++] = s;
+			double total = leave[s];
+			for (int k = 0; k < length[s]; k++) total += p[s][k];
+			out[s] = total;
+			for (int k = 0; k < length[s]; k++) links[to[s][k]]--;
+
+			//Every live state u that moves to s now moves on to wherever s would go next instead
+			for (int i = 0; i < fromLength[s]; i++) {
+				int u = from[s][i];
+				if (eliminated[u]) continue;
+				int k = indexOf(to[u], length[u], s);
+				if (k < 0) continue;
+				double via = p[u][k] / total;
+				to[u][k] = to[u][--length[u]]; //Remove the move to s
+				p[u][k] = p[u][length[u]];
+				leave[u] += via * leave[s];
+				steps[u] += via * steps[s];
+				for (int j = 0; j < length[s]; j++) {
+					int t = to[s][j];
+					if (t == u) {
+						stay[u] += via * p[s][j];
+						continue;
+					}
+					int m = indexOf(to[u], length[u], t);
+					if (m >= 0) {
+						p[u][m] += via * p[s][j];
+						continue;
+					}
+					if (length[u] == to[u].length) {
+						to[u] = java.util.Arrays.copyOf(to[u], 2 * length[u]);
+						p[u] = java.util.Arrays.copyOf(p[u], 2 * length[u]);
+					}
+					to[u][length[u]] = t;
+					p[u][length[u]++] = via * p[s][j];
+					from[t] = add(from[t], fromLength[t]++, u);
+					links[t]++;
+				}
+			}
+		}
+
+		//Back substitution: the states a state still moved to when it was eliminated were all eliminated after it
+		double[] e = new double[n];
+		for (int i = n - 1; i >= 0; i--) {
+			int s = order[i];
+			double sum = steps[s];
+			for (int k = 0; k < length[s]; k++) sum += p[s][k] * e[to[s][k]];
+			e[s] = out[s] == 0 ? Double.POSITIVE_INFINITY : sum / out[s];
+		}
+		expected = e;
+		residual = check(e);
+		return e;
+	}
+
+	// Largest error of E(s) = 1 + sum of P(s, t) * E(t) over all states, relative to E(s)
+	private double check(double[] e) {
+		double worst = 0;
+		for (int s = 0; s < states; s++) {
+			double sum = 1;
+			for (int entry = rowStart[s]; entry < rowStart[s + 1]; entry++) {
+				sum += chance[entry] * e[column[entry]];
+			}
+			if (e[s] < Double.POSITIVE_INFINITY) worst = Math.max(worst, Math.abs(sum - e[s]) / e[s]);
+		}
+		return worst;
+	}
+
+	// Exact expected steps from the start to the target
+	public double expectedSteps() {
+		if (startState < 0) return 0;
+		if (expected == null) solve();
+		return expected[startState];
+	}
+
+	// Stores a value at the given index of an int array, growing the array if it is full
+	private static int[] add(int[] array, int index, int value) {
+		if (index == array.length) array = java.util.Arrays.copyOf(array, 2 * index);
+		array[index] = value;
+		return array;
+	}
+
+	private static int indexOf(int[] array, int length, int value) {
+		for (int i = 0; i < length; i++) {
+			if (array[i] == value) return i;
+		}
+		return -1;
+	}
+
+	// Set of open turns from a state, bit t set if turning t quarter turns clockwise does not face a wall
+	private int openTurns(int state) {
+		int square = state >> 2;
+		int x = square % maze.getWidth();
+		int y = square / maze.getWidth();
+		int open = 0;
+		for (int turn = 0; turn < 4; turn++) {
+			if (!maze.isWall(x, y, ((state & 3) + turn) & 3)) open |= 1 << turn;
+		}
+		return open;
+	}
+
+	// State after turning and taking one step, -1 if that reaches the target
+	private int move(int state, int turn) {
+		int square = state >> 2;
+		int heading = ((state & 3) + turn) & 3;
+		int x = square % maze.getWidth() + GridMaze.DX[heading];
+		int y = square / maze.getWidth() + GridMaze.DY[heading];
+		if (x == maze.getTargetX() && y == maze.getTargetY()) return -1;
+		return state(x, y, heading);
+	}
+
+	private int state(int x, int y, int heading) {
+		return (y * maze.getWidth() + x) * 4 + heading;
+	}
+
+	public int getStates() {
+		return states;
+	}
+
+	public int getTransitions() {
+		return rowStart[states];
+	}
+
+	public double getResidual() {
+		return residual;
+	}
+
+	public static void main(String[] args) {
+		int controller = args[0].equalsIgnoreCase("ex1") ? EX1 : EX2;
+		int size = Integer.parseInt(args[1]);
+		double braid = args.length > 2 ? Double.parseDouble(args[2]) : 0.0;
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+		int mazes = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+
+		long start = System.nanoTime();
+		MarkovEvaluator[] evaluators = new MarkovEvaluator[mazes];
+		IntStream.range(0, mazes).parallel().forEach(i -> {
+			evaluators[i] = new MarkovEvaluator(GridMaze.generate(size, size, seed + i, braid), controller);
+			evaluators[i].expectedSteps();
+		});
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		double sum = 0;
+		for (int i = 0; i < mazes; i++) {
+			MarkovEvaluator evaluator = evaluators[i];
+			sum += evaluator.expectedSteps();
+			System.out.printf("%s seed %d: expected %.3f steps, %d states, %d transitions, residual %.1e%n", args[0],
+					seed + i, evaluator.expectedSteps(), evaluator.getStates(), evaluator.getTransitions(),
+					evaluator.getResidual());
+		}
+		System.out.printf("%s: mean %.3f expected steps over %d mazes in %.2fs%n", args[0], sum / mazes, mazes, seconds);
+	}
+
+}